@@ -5,6 +5,7 @@ import android.content.Intent;
 import android.os.Handler;
 import android.text.InputType;
 import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.Toast;
 
 public class AdminSettingsDialog {
@@ -50,21 +51,43 @@ public class AdminSettingsDialog {
         final EditText input = new EditText(activity);
         input.setInputType(InputType.TYPE_CLASS_NUMBER);
         input.setHint("PlayerID");
-        builder.setView(input);
+        // Each arena of the server listens on its own UDP port
+        final EditText portInput = new EditText(activity);
+        portInput.setInputType(InputType.TYPE_CLASS_NUMBER);
+        portInput.setHint("Arena port");
+        portInput.setText(String.valueOf(activity.getConfig().getServerPort()));
+        LinearLayout layout = new LinearLayout(activity);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.addView(input);
+        layout.addView(portInput);
+        builder.setView(layout);
 
         builder.setPositiveButton("OK", (dialog, which) -> {
             String inputText = input.getText().toString();
-            if (!inputText.isEmpty()) {
-                try {
+            String portText = portInput.getText().toString();
+            try {
+                boolean changed = false;
+                if (!inputText.isEmpty()) {
                     int newId = Integer.parseInt(inputText);
                     activity.getConfig().setPlayerId(newId);
                     activity.getThisPlayer().setId(newId);
-                    restartService();
+                    changed = true;
                     Toast.makeText(activity, "Player ID set to: " + newId, Toast.LENGTH_SHORT).show();
-
-                } catch (NumberFormatException e) {
-                    Toast.makeText(activity, "Invalid input. Please enter a number.", Toast.LENGTH_SHORT).show();
                 }
+                int newPort = portText.isEmpty() ? activity.getConfig().getServerPort() : Integer.parseInt(portText);
+                if (newPort <= 0 || newPort > 65535) {
+                    throw new NumberFormatException();
+                }
+                if (newPort != activity.getConfig().getServerPort()) {
+                    activity.getConfig().setServerPort(newPort);
+                    changed = true;
+                    Toast.makeText(activity, "Arena port set to: " + newPort, Toast.LENGTH_SHORT).show();
+                }
+                if (changed) {
+                    restartService();
+                }
+            } catch (NumberFormatException e) {
+                Toast.makeText(activity, "Invalid input. Please enter a number.", Toast.LENGTH_SHORT).show();
             }
             dialog.dismiss();
             activity.goFullScreen();
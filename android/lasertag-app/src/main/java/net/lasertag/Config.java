@@ -17,6 +17,7 @@ public class Config {
 
     private static final String PREFS_NAME = "LaserTagPrefs";
     private static final String PLAYER_ID_KEY = "player_id";
+    private static final String SERVER_PORT_KEY = "server_port";
 
     public static final String GUN_DEVICE_NAME = "LaserTagGun";
     public static final String VEST_DEVICE_NAME = "LaserTagVest";
@@ -33,7 +34,8 @@ public class Config {
     public static final int STATE_OFFLINE = 3;
     public static final int STATE_PLAY_FLAG_CARRIER = 4;
 
-    public static final int SERVER_PORT = 9878;
+    // UDP port of the first arena, each arena of a server listens on its own port
+    public static final int DEFAULT_SERVER_PORT = 9878;
     public static final int LISTENING_PORT = 1234;
     public static final long HEARTBEAT_INTERVAL = 2000;
     public static final long HEARTBEAT_TIMEOUT = 5000;
@@ -43,6 +45,7 @@ public class Config {
     public static final int MAGAZINE_SIZE = 7;
 
     private final byte playerId;
+    private int serverPort;
     private InetAddress broadcastAddress;
     private InetAddress serverAddress = null;
     private final Context context;
@@ -51,6 +54,7 @@ public class Config {
         this.context = context;
         SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
         playerId = (byte)prefs.getInt(PLAYER_ID_KEY, DEFAULT_PLAYER_ID);
+        serverPort = prefs.getInt(SERVER_PORT_KEY, DEFAULT_SERVER_PORT);
         try {
             broadcastAddress = InetAddress.getByName("255.255.255.255");
         } catch (Exception ignored) {}
@@ -66,6 +70,18 @@ public class Config {
         editor.apply();
     }
 
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    public void setServerPort(int serverPort) {
+        this.serverPort = serverPort;
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putInt(SERVER_PORT_KEY, serverPort);
+        editor.apply();
+    }
+
     public InetAddress getServerAddress() {
         return serverAddress;
     }
@@ -78,6 +94,10 @@ public class Config {
         return broadcastAddress;
     }
 
+    public Context getContext() {
+        return context;
+    }
+
     public static final int[] TEAM_COLORS = {
         R.color.tableRowBackgroundRed,
         R.color.tableRowBackgroundBlue,
@@ -0,0 +1,55 @@
+package net.lasertag.communication;
+
+import net.lasertag.model.Messaging;
+
+/**
+ * Receive window over the last 64 16-bit sequence numbers from the server, used to drop duplicated
+ * RELIABLE messages and to build the selective ack sent in the heartbeat.
+ */
+public class SequenceWindow {
+
+    private int highest = -1;
+    private long received;
+
+    // True the first time a sequence is seen. One far behind the window means the server restarted.
+    public synchronized boolean accept(int seq) {
+        if (highest < 0) {
+            highest = seq;
+            received = 1;
+            return true;
+        }
+        int diff = (short) (seq - highest);
+        if (diff > 0) {
+            received = diff >= 64 ? 1 : received << diff | 1;
+            highest = seq;
+            return true;
+        }
+        int back = -diff;
+        if (back >= 64) {
+            highest = seq;
+            received = 1;
+            return true;
+        }
+        if ((received & 1L << back) != 0) {
+            return false;
+        }
+        received |= 1L << back;
+        return true;
+    }
+
+    // [flags, ackLo, ackHi, bits x4] as appended to the heartbeat; bit i acks highest - 1 - i
+    public synchronized void writeAck(byte[] message, int offset, byte flags) {
+        if (highest < 0) {
+            message[offset] = flags;
+            return;
+        }
+        int bits = (int) (received >>> 1);
+        message[offset] = (byte) (flags | Messaging.PING_FLAG_ACK);
+        message[offset + 1] = (byte) highest;
+        message[offset + 2] = (byte) (highest >> 8);
+        message[offset + 3] = (byte) bits;
+        message[offset + 4] = (byte) (bits >> 8);
+        message[offset + 5] = (byte) (bits >> 16);
+        message[offset + 6] = (byte) (bits >> 24);
+    }
+}
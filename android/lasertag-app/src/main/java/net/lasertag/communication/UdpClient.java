@@ -3,24 +3,38 @@ package net.lasertag.communication;
 import static net.lasertag.Config.HEARTBEAT_INTERVAL;
 import static net.lasertag.Config.HEARTBEAT_TIMEOUT;
 import static net.lasertag.Config.LISTENING_PORT;
-import static net.lasertag.Config.SERVER_PORT;
 import static net.lasertag.Config.TAG;
 
+import android.content.Context;
+import android.net.wifi.WifiManager;
 import android.util.Log;
 
 import net.lasertag.Config;
 import net.lasertag.model.EventMessageToServer;
 import net.lasertag.model.SignalMessage;
 import net.lasertag.model.Messaging;
+import net.lasertag.model.WirelessMessage;
 
+import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
 import java.net.SocketException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class UdpClient {
 
+    private static final int MAX_RETRIES = 5;
+    private static final long MIN_RTO = 50;
+    private static final long MAX_RTO = 2000;
+
     private final Config config;
     private final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(2);
     private final DatagramSocket serverSocket;
@@ -29,12 +43,33 @@ public class UdpClient {
     private boolean firstEverMessage;
     private final WirelessMessageHandler messageHandler;
     private volatile boolean running = false;
+    // Wi-Fi drops multicast frames unless this is held
+    private final WifiManager.MulticastLock multicastLock;
+    // Reported in the heartbeat, the server falls back to unicast stats while false
+    private volatile boolean multicastJoined = false;
+    // Group named by the server's ping replies; receive thread only
+    private InetAddress joinedGroup;
+
+    // Reliable delivery, used once the server's ping reply shows it supports it
+    private volatile boolean serverReliable = false;
+    private final SequenceWindow receiveWindow = new SequenceWindow();
+    private final Map<Integer, PendingEvent> pendingEvents = new LinkedHashMap<>();
+    private int nextEventSeq = 0;
+    private double srtt = -1;
+    private double rttvar;
+    private long rto = 500;
 
     public UdpClient(Config config, WirelessMessageHandler messageHandler) {
         this.messageHandler = messageHandler;
         this.config = config;
         running = true;
         firstEverMessage = true;
+        var wifiManager = (WifiManager) config.getContext().getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        multicastLock = wifiManager == null ? null : wifiManager.createMulticastLock(TAG);
+        if (multicastLock != null) {
+            multicastLock.setReferenceCounted(false);
+            multicastLock.acquire();
+        }
         try {
             serverSocket = new DatagramSocket();
         } catch (SocketException e) {
@@ -54,18 +89,120 @@ public class UdpClient {
             serverSocket.close();
         }
         executorService.shutdown();
+        if (multicastLock != null) {
+            multicastLock.release();
+        }
     }
 
     public void sendEventToServer(EventMessageToServer message) {
+        var rawMessage = message.getBytes();
+        if (serverReliable) {
+            // [type, id, extra, health, seqLo, seqHi], resent until the server acks the sequence
+            var seq = nextEventSeq();
+            var sequenced = new byte[rawMessage.length + 2];
+            System.arraycopy(rawMessage, 0, sequenced, 0, rawMessage.length);
+            sequenced[rawMessage.length] = (byte) seq;
+            sequenced[rawMessage.length + 1] = (byte) (seq >> 8);
+            rawMessage = sequenced;
+            long timeout;
+            synchronized (pendingEvents) {
+                pendingEvents.put(seq, new PendingEvent(sequenced, System.currentTimeMillis()));
+                timeout = rto;
+            }
+            executorService.schedule(() -> retransmit(seq), timeout, TimeUnit.MILLISECONDS);
+        }
+        if (send(rawMessage)) {
+            Log.i(TAG, "Sent to server: " + message);
+        }
+    }
+
+    private synchronized int nextEventSeq() {
+        var seq = nextEventSeq;
+        nextEventSeq = (seq + 1) & 0xFFFF;
+        return seq;
+    }
+
+    private boolean send(byte[] rawMessage) {
         try {
             var ip = config.getServerAddress() == null ? config.getBroadcastAddress() : config.getServerAddress();
-            var rawMessage = message.getBytes();
-            DatagramPacket packet = new DatagramPacket(rawMessage, rawMessage.length, ip, SERVER_PORT);
+            DatagramPacket packet = new DatagramPacket(rawMessage, rawMessage.length, ip, config.getServerPort());
             serverSocket.send(packet);
-            Log.i(TAG, "Sent to server: " + message);
+            return true;
         } catch (Exception e) {
             Log.e(TAG, "Failed to send event to server", e);
+            return false;
+        }
+    }
+
+    private void retransmit(int seq) {
+        PendingEvent pending;
+        long timeout;
+        synchronized (pendingEvents) {
+            pending = pendingEvents.get(seq);
+            if (pending == null) {
+                return;
+            }
+            if (pending.retries >= MAX_RETRIES) {
+                pendingEvents.remove(seq);
+                Log.w(TAG, "Server did not ack event " + pending.bytes[0] + " after " + MAX_RETRIES + " retries");
+                return;
+            }
+            pending.retries++;
+            timeout = Math.min(MAX_RTO, rto << pending.retries);
+        }
+        send(pending.bytes);
+        executorService.schedule(() -> retransmit(seq), timeout, TimeUnit.MILLISECONDS);
+    }
+
+    // Server ping reply: [PING, flags, ackLo, ackHi, bits x4, group x4 if PING_FLAG_MULTICAST]
+    private void handleServerPing(MulticastSocket socket, byte[] data, int length) {
+        if (length < 2) {
+            return;
+        }
+        InetAddress group = null;
+        if ((data[1] & Messaging.PING_FLAG_MULTICAST) != 0 && length >= 12) {
+            try {
+                group = InetAddress.getByAddress(Arrays.copyOfRange(data, 8, 12));
+            } catch (IOException e) {
+                Log.w(TAG, "Invalid multicast group in server ping", e);
+            }
+        }
+        updateMulticastGroup(socket, group);
+        if ((data[1] & Messaging.PING_FLAG_RELIABLE) == 0) {
+            return;
+        }
+        serverReliable = true;
+        if ((data[1] & Messaging.PING_FLAG_ACK) == 0 || length < 8) {
+            return;
         }
+        var ack = (data[2] & 0xFF) | (data[3] & 0xFF) << 8;
+        var bits = (data[4] & 0xFF) | (data[5] & 0xFF) << 8 | (data[6] & 0xFF) << 16 | (data[7] & 0xFF) << 24;
+        var now = System.currentTimeMillis();
+        synchronized (pendingEvents) {
+            acknowledge(ack, now);
+            for (int i = 0; i < 32; i++) {
+                if ((bits & 1 << i) != 0) {
+                    acknowledge((ack - 1 - i) & 0xFFFF, now);
+                }
+            }
+        }
+    }
+
+    private void acknowledge(int seq, long now) {
+        var pending = pendingEvents.remove(seq);
+        if (pending == null || pending.retries > 0) {
+            return;
+        }
+        // RFC 6298 estimate from first transmissions only
+        long rtt = now - pending.firstSent;
+        if (srtt < 0) {
+            srtt = rtt;
+            rttvar = rtt / 2.0;
+        } else {
+            rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rtt);
+            srtt = 0.875 * srtt + 0.125 * rtt;
+        }
+        rto = Math.max(MIN_RTO, Math.min(MAX_RTO, (long) (srtt + 4 * rttvar)));
     }
 
     private void heartbeat() {
@@ -74,10 +211,24 @@ public class UdpClient {
             isOnline = false;
             messageHandler.handleWirelessEvent(new SignalMessage(Messaging.SERVER_DISCONNECTED));
         }
+        sendPing();
+    }
+
+    // Heartbeat, also sent right away to ack RELIABLE messages
+    private synchronized void sendPing() {
         try {
-            byte[] message = new byte[] { Messaging.PLAYER_REPLY_PING, config.getPlayerId(), firstEverMessage ? (byte) 1 : (byte) 0 };
+            // The last stats frame held is acked here, the server sends stats as deltas against it
+            var statsSeq = Messaging.getLastStatsSeq();
+            byte[] message = new byte[12];
+            message[0] = Messaging.PLAYER_REPLY_PING;
+            message[1] = config.getPlayerId();
+            message[2] = firstEverMessage ? (byte) 1 : (byte) 0;
+            message[3] = (byte) statsSeq;
+            message[4] = (byte) (statsSeq >> 8);
+            var flags = multicastJoined ? Messaging.PING_FLAG_RELIABLE | Messaging.PING_FLAG_MULTICAST : Messaging.PING_FLAG_RELIABLE;
+            receiveWindow.writeAck(message, 5, (byte) flags);
             var ip = config.getServerAddress() == null ? config.getBroadcastAddress() : config.getServerAddress();
-            DatagramPacket packet = new DatagramPacket(message, 3, ip, SERVER_PORT);
+            DatagramPacket packet = new DatagramPacket(message, message.length, ip, config.getServerPort());
             serverSocket.send(packet);
             firstEverMessage = false;
         } catch (Exception e) {
@@ -85,22 +236,66 @@ public class UdpClient {
         }
     }
 
+    // Follows the group the server names, leaving the group when it names none
+    private void updateMulticastGroup(MulticastSocket socket, InetAddress group) {
+        if (group == null ? joinedGroup == null : group.equals(joinedGroup)) {
+            return;
+        }
+        if (joinedGroup != null) {
+            try {
+                socket.leaveGroup(new InetSocketAddress(joinedGroup, LISTENING_PORT), null);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot leave multicast group " + joinedGroup, e);
+            }
+        }
+        joinedGroup = null;
+        multicastJoined = false;
+        if (group == null || !group.isMulticastAddress()) {
+            return;
+        }
+        try {
+            socket.joinGroup(new InetSocketAddress(group, LISTENING_PORT), null);
+            joinedGroup = group;
+            multicastJoined = multicastLock != null;
+            Log.i(TAG, "Joined multicast group " + group.getHostAddress());
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot join multicast group " + group.getHostAddress() + ", stats stay unicast", e);
+        }
+    }
+
     private void loop() {
         while (running) {
-            try (var socket = new DatagramSocket(LISTENING_PORT)) {
+            try (var socket = openListeningSocket()) {
                 var buffer = new byte[512];
                 Log.i(TAG, "Listening on socket: " + socket.getLocalSocketAddress());
                 while (running) {
                     var packet = new DatagramPacket(buffer, buffer.length);
                     socket.receive(packet);
-                    var message = Messaging.fromBytes(packet.getData(), packet.getLength());
+                    // Other arenas and servers reply from other ports, also to the multicast group
+                    if (packet.getPort() != config.getServerPort()) {
+                        continue;
+                    }
+                    var data = packet.getData();
+                    var length = packet.getLength();
+                    WirelessMessage message;
+                    if (data[0] == Messaging.RELIABLE && length > 3) {
+                        var seq = (data[1] & 0xFF) | (data[2] & 0xFF) << 8;
+                        var fresh = receiveWindow.accept(seq);
+                        sendPing();
+                        message = fresh ? Messaging.fromBytes(data, 3, length - 3) : null;
+                    } else {
+                        if (data[0] == Messaging.PING) {
+                            handleServerPing(socket, data, length);
+                        }
+                        message = Messaging.fromBytes(data, length);
+                    }
                     isOnline = true;
                     if (config.getServerAddress() == null) {
                         Log.i(TAG, "Server IP discovered: " + packet.getAddress());
                         config.setServerAddress(packet.getAddress());
                     }
                     lastPingTime = System.currentTimeMillis();
-                    if (message.getType() != Messaging.PING) {
+                    if (message != null && message.getType() != Messaging.PING) {
                         messageHandler.handleWirelessEvent(message);
                     }
                 }
@@ -110,4 +305,22 @@ public class UdpClient {
             }
         }
     }
+
+    // Joins the stats multicast group once a server ping names it
+    private MulticastSocket openListeningSocket() throws IOException {
+        joinedGroup = null;
+        multicastJoined = false;
+        return new MulticastSocket(LISTENING_PORT);
+    }
+
+    private static class PendingEvent {
+        final byte[] bytes;
+        final long firstSent;
+        int retries;
+
+        PendingEvent(byte[] bytes, long firstSent) {
+            this.bytes = bytes;
+            this.firstSent = firstSent;
+        }
+    }
 }
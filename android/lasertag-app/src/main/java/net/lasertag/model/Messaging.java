@@ -35,6 +35,9 @@ public class Messaging {
     public static final byte FLAG_TAKEN = 19;
     public static final byte FLAG_LOST = 20;
     public static final byte FLAG_CAPTURED = 21;
+    public static final byte STATS_DELTA = 22;
+    // [RELIABLE, seqLo, seqHi, message...] - acked in the heartbeat, may arrive more than once
+    public static final byte RELIABLE = 23;
 
     // Local-only event (never sent over the wire) - moved out of the 19-21
     // range to avoid colliding with the server's CTF event ids above.
@@ -47,15 +50,40 @@ public class Messaging {
     public static final byte SERVER_DISCONNECTED = 102;
     public static final byte MOCK_EVENT_FROM_DEVICE = 103;
 
+    // Stats sequence sent in the heartbeat while no stats frame has been received
+    public static final int NO_STATS_SEQ = 0xFFFF;
+    // Heartbeat and server ping flags: reliable delivery supported, ack of the peer's sequences follows
+    public static final byte PING_FLAG_RELIABLE = 1;
+    public static final byte PING_FLAG_ACK = 2;
+    // Heartbeat: joined the stats multicast group, so the server may send stats there.
+    // Server ping: the group to join follows the ack
+    public static final byte PING_FLAG_MULTICAST = 4;
+
+    private static final int STATS_HISTORY_SIZE = 128;
+    private static final int STATS_FIELD_COUNT = 7;
+
+    // Recent stats frames by sequence, the bases the server encodes STATS_DELTA against
+    private static final StatsFrame[] statsHistory = new StatsFrame[STATS_HISTORY_SIZE];
+    private static volatile int lastStatsSeq = NO_STATS_SEQ;
+
+    public static int getLastStatsSeq() {
+        return lastStatsSeq;
+    }
 
     public static WirelessMessage fromBytes(byte[] bytes, int length) {
-        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        return fromBytes(bytes, 0, length);
+    }
+
+    public static WirelessMessage fromBytes(byte[] bytes, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
         buffer.order(java.nio.ByteOrder.LITTLE_ENDIAN);
         byte type = buffer.get();
         if (type == PING) {
             return new SignalMessage(PING);
         } else if (type == PLAYER_VALUES_SNAPSHOT) {
             return parseFullStatsMessage(buffer);
+        } else if (type == STATS_DELTA) {
+            return parseStatsDelta(buffer);
         } else if (type == GAME_START) {
             return parseGameStartEventFromServer(buffer);
         } else if (type == MOCK_EVENT_FROM_DEVICE) {
@@ -106,7 +134,113 @@ public class Messaging {
             }
             players[i] = new Player(id, health, score, teamId, damage, 0, 0, bulletsMax, assignedRespawnPoint, flagCarrier, new String(nameBytes));
         }
+        // Servers with delta support append the frame sequence and roster version
+        if (buffer.remaining() >= 3) {
+            var seq = buffer.getShort() & 0xFFFF;
+            var rosterVersion = buffer.get() & 0xFF;
+            fillMissingNames(players, rosterVersion);
+            rememberStatsFrame(seq, rosterVersion, players);
+        }
         return new StatsMessageIn(PLAYER_VALUES_SNAPSHOT, isGameRunning, gameType, gameTimerSeconds, redScore, blueScore, players);
     }
 
+    // Keyframes leave out the names once the client holds a frame of the same roster
+    private static void fillMissingNames(Player[] players, int rosterVersion) {
+        var seq = lastStatsSeq;
+        var last = seq == NO_STATS_SEQ ? null : statsHistory[seq % STATS_HISTORY_SIZE];
+        if (last == null || last.rosterVersion != rosterVersion) {
+            return;
+        }
+        for (Player player : players) {
+            if (player.getName().isEmpty()) {
+                for (Player known : last.players) {
+                    if (known.getId() == player.getId()) {
+                        player.setName(known.getName());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a STATS_DELTA to the frame it was encoded against. Returns null when that frame is no
+     * longer held; the next heartbeat then acks an older frame and the server resends from there.
+     */
+    private static StatsMessageIn parseStatsDelta(ByteBuffer buffer) {
+        var seq = buffer.getShort() & 0xFFFF;
+        var baseSeq = buffer.getShort() & 0xFFFF;
+        var isGameRunning = buffer.get() != 0;
+        var gameType = buffer.get();
+        var gameTimerSeconds = buffer.getShort();
+        var redScore = buffer.get() & 0xFF;
+        var blueScore = buffer.get() & 0xFF;
+        var rosterVersion = buffer.get() & 0xFF;
+        var changedCount = buffer.get() & 0xFF;
+        var base = statsHistory[baseSeq % STATS_HISTORY_SIZE];
+        if (base == null || base.seq != baseSeq || base.rosterVersion != rosterVersion) {
+            return null;
+        }
+        var players = copyPlayers(base.players);
+        for (int i = 0; i < changedCount; i++) {
+            var id = buffer.get();
+            var mask = buffer.get();
+            Player player = null;
+            for (Player candidate : players) {
+                if (candidate.getId() == id) {
+                    player = candidate;
+                }
+            }
+            for (int field = 0; field < STATS_FIELD_COUNT; field++) {
+                if ((mask & 1 << field) != 0) {
+                    var value = buffer.get();
+                    if (player != null) {
+                        applyStatsField(player, field, value);
+                    }
+                }
+            }
+        }
+        rememberStatsFrame(seq, rosterVersion, players);
+        return new StatsMessageIn(PLAYER_VALUES_SNAPSHOT, isGameRunning, gameType, gameTimerSeconds, redScore, blueScore, players);
+    }
+
+    private static void applyStatsField(Player player, int field, byte value) {
+        switch (field) {
+            case 0 -> player.setHealth(value);
+            case 1 -> player.setScore(value);
+            case 2 -> player.setTeamId(value);
+            case 3 -> player.setDamage(value);
+            case 4 -> player.setBulletsMax(value);
+            case 5 -> player.setAssignedRespawnPoint(value);
+            case 6 -> player.setFlagCarrier(value != 0);
+        }
+    }
+
+    // The game service keeps and mutates the players it receives, so the history holds its own copies
+    private static void rememberStatsFrame(int seq, int rosterVersion, Player[] players) {
+        statsHistory[seq % STATS_HISTORY_SIZE] = new StatsFrame(seq, rosterVersion, copyPlayers(players));
+        lastStatsSeq = seq;
+    }
+
+    private static Player[] copyPlayers(Player[] players) {
+        var copies = new Player[players.length];
+        for (int i = 0; i < players.length; i++) {
+            var p = players[i];
+            copies[i] = new Player(p.getId(), p.getHealth(), p.getScore(), p.getTeamId(), p.getDamage(), 0, 0,
+                    p.getBulletsMax(), p.getAssignedRespawnPoint(), p.getFlagCarrier(), p.getName());
+        }
+        return copies;
+    }
+
+    private static class StatsFrame {
+        final int seq;
+        final int rosterVersion;
+        final Player[] players;
+
+        StatsFrame(int seq, int rosterVersion, Player[] players) {
+            this.seq = seq;
+            this.rosterVersion = rosterVersion;
+            this.players = players;
+        }
+    }
+
 }
@@ -9,7 +9,11 @@
 WiFiUDP udp;
 const IPAddress discoveryServerIp = IPAddress(255, 255, 255, 255);
 IPAddress serverIp = discoveryServerIp;
-const unsigned int serverUdpPort = 9878;
+// UDP port of the arena to join, see platformio.ini
+#ifndef SERVER_UDP_PORT
+#define SERVER_UDP_PORT 9878
+#endif
+const unsigned int serverUdpPort = SERVER_UDP_PORT;
 const unsigned int localUdpPort = 1234;
 const char* ssid = "imenilenina-bistro";
 const char* password = "10101010";
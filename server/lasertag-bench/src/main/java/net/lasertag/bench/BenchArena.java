@@ -0,0 +1,76 @@
+package net.lasertag.bench;
+
+import lombok.Getter;
+import net.lasertag.lasertagserver.core.ActorRegistry;
+import net.lasertag.lasertagserver.core.DaemonThreadFactory;
+import net.lasertag.lasertagserver.core.Game;
+import net.lasertag.lasertagserver.core.GameEventLog;
+import net.lasertag.lasertagserver.core.GameLoop;
+import net.lasertag.lasertagserver.core.GameSettings;
+import net.lasertag.lasertagserver.core.GameType;
+import net.lasertag.lasertagserver.model.Messaging;
+import net.lasertag.lasertagserver.model.Player;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * An arena without sockets or console for benchmarks: a roster of online players split into red
+ * and blue with random scores, a team deathmatch that never reaches its frag limit, and game
+ * handlers run inline on the calling thread.
+ */
+public class BenchArena {
+
+	// Fixed seed so every run and every roster size starts from comparable scores
+	private static final long SEED = 42;
+
+	@Getter
+	private final ActorRegistry actorRegistry;
+	private final GameSettings gameSettings;
+	@Getter
+	private final StubUdpServer udpServer;
+	private final StubSseEventService sseEventService;
+	@Getter
+	private final Game game;
+	// Only for delayed tasks scheduled by the game, the handlers themselves run inline
+	private final GameLoop gameLoop;
+
+	public BenchArena(int playerCount) {
+		actorRegistry = new ActorRegistry(playerCount);
+		gameSettings = new GameSettings(actorRegistry, "server-state-bench.json");
+		gameSettings.getCurrent().setGameType(GameType.TEAM_DM);
+		gameSettings.getCurrent().setFragLimit(Integer.MAX_VALUE);
+		gameLoop = new GameLoop(new DaemonThreadFactory("BenchGame-"));
+		gameLoop.start();
+		udpServer = new StubUdpServer(actorRegistry, gameSettings, Runnable::run);
+		sseEventService = new StubSseEventService();
+		game = new Game(actorRegistry, udpServer, sseEventService, gameSettings, new GameEventLog("bench", false), gameLoop);
+
+		var random = new Random(SEED);
+		for (Player player : actorRegistry.getPlayers()) {
+			player.setClientIp(deviceAddress(player.getId()));
+			player.setTeamId(player.getId() % 2 == 0 ? Messaging.TEAM_RED : Messaging.TEAM_BLUE);
+			player.setScore(random.nextInt(30));
+			player.setHealth(Game.MAX_HEALTH);
+		}
+		actorRegistry.resetTeamScores();
+		for (int i = random.nextInt(50); i > 0; i--) {
+			actorRegistry.incrementTeamScore(random.nextBoolean() ? Messaging.TEAM_RED : Messaging.TEAM_BLUE);
+		}
+		game.publishSnapshot();
+	}
+
+	public void close() {
+		gameLoop.stop();
+	}
+
+	// 127.2.x.y per device, the address the receive path would see
+	public static InetAddress deviceAddress(int index) {
+		try {
+			return InetAddress.getByAddress(new byte[] {127, 2, (byte) (index >> 8), (byte) index});
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package net.lasertag.bench;
+
+import net.lasertag.lasertagserver.model.MessageType;
+import net.lasertag.lasertagserver.model.Messaging;
+import net.lasertag.lasertagserver.model.Messaging.MessageFromClient;
+import net.lasertag.lasertagserver.model.PlayerState;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of the stats broadcast and decoding of datagrams from devices.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+	@Param({"6", "16", "48", "120"})
+	private int players;
+
+	private BenchArena arena;
+	private List<PlayerState> roster;
+	private final MessageFromClient decoder = new MessageFromClient();
+	private final byte[] ping = {MessageType.PLAYER_PING.id(), 3, 0, 0x10, 0x00, Messaging.PING_FLAG_RELIABLE, 0, 0, 0, 0, 0, 0};
+	private final byte[] event = {MessageType.GOT_HIT.id(), 3, 1, 80};
+
+	@Setup
+	public void setup() {
+		arena = new BenchArena(players);
+		roster = arena.getGame().getSnapshot().playersByScore();
+	}
+
+	@TearDown
+	public void tearDown() {
+		arena.close();
+	}
+
+	@Benchmark
+	public byte[] fullStatsWithNames() {
+		return Messaging.playerStatsToBytes(true, roster, true, 1, 600, 12, 9, 100, 1);
+	}
+
+	@Benchmark
+	public byte[] fullStatsWithoutNames() {
+		return Messaging.playerStatsToBytes(false, roster, true, 1, 600, 12, 9, 100, 1);
+	}
+
+	@Benchmark
+	public MessageFromClient parsePing() {
+		return decoder.wrap(ping, ping.length);
+	}
+
+	// What the receive thread does for an event: decode into the flyweight, copy for the game thread
+	@Benchmark
+	public MessageFromClient parseEvent() {
+		return decoder.wrap(event, event.length).copy();
+	}
+}
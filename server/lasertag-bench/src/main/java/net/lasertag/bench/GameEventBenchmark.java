@@ -0,0 +1,86 @@
+package net.lasertag.bench;
+
+import net.lasertag.lasertagserver.core.ActorRegistry;
+import net.lasertag.lasertagserver.core.Game;
+import net.lasertag.lasertagserver.model.MessageType;
+import net.lasertag.lasertagserver.model.Messaging.MessageFromClient;
+import net.lasertag.lasertagserver.model.Player;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Game#onMessageFromPlayer} for the common gameplay events, including the stats broadcast
+ * and console refresh each one triggers, with sending stubbed out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameEventBenchmark {
+
+	// Pre-built events cycled through, so picking one costs nothing
+	private static final int EVENT_COUNT = 256;
+
+	@Param({"6", "16", "48", "120"})
+	private int players;
+
+	private BenchArena arena;
+	private Game game;
+	private ActorRegistry registry;
+	private MessageFromClient[] hits;
+	private MessageFromClient[] kills;
+	private MessageFromClient[] pickups;
+	private int next;
+
+	@Setup
+	public void setup() {
+		arena = new BenchArena(players);
+		game = arena.getGame();
+		registry = arena.getActorRegistry();
+		var random = new Random(7);
+		hits = new MessageFromClient[EVENT_COUNT];
+		kills = new MessageFromClient[EVENT_COUNT];
+		pickups = new MessageFromClient[EVENT_COUNT];
+		for (int i = 0; i < EVENT_COUNT; i++) {
+			int victim = random.nextInt(players);
+			int shooter = (victim + 1 + random.nextInt(players - 1)) % players;
+			hits[i] = event(MessageType.GOT_HIT, victim, shooter, 10 + random.nextInt(90));
+			kills[i] = event(MessageType.YOU_KILLED, victim, shooter, 0);
+			pickups[i] = event(random.nextBoolean() ? MessageType.GOT_HEALTH : MessageType.GOT_AMMO, victim, random.nextInt(4), 50);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		arena.close();
+	}
+
+	@Benchmark
+	public void hit() {
+		handle(hits[next++ & (EVENT_COUNT - 1)]);
+	}
+
+	@Benchmark
+	public void kill() {
+		handle(kills[next++ & (EVENT_COUNT - 1)]);
+	}
+
+	@Benchmark
+	public void dispenser() {
+		handle(pickups[next++ & (EVENT_COUNT - 1)]);
+	}
+
+	private void handle(MessageFromClient message) {
+		game.onMessageFromPlayer((Player) registry.getActorByMessage(message), message);
+	}
+
+	private static MessageFromClient event(MessageType type, int playerId, int extraValue, int health) {
+		var bytes = new byte[] {type.id(), (byte) playerId, (byte) extraValue, (byte) health};
+		return new MessageFromClient(bytes, bytes.length);
+	}
+}
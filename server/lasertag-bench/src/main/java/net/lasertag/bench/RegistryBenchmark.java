@@ -0,0 +1,63 @@
+package net.lasertag.bench;
+
+import net.lasertag.lasertagserver.core.ActorRegistry;
+import net.lasertag.lasertagserver.model.Actor;
+import net.lasertag.lasertagserver.model.Player;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Roster lookups done for every datagram and every stats broadcast.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RegistryBenchmark {
+
+	@Param({"6", "16", "48", "120"})
+	private int players;
+
+	private BenchArena arena;
+	private ActorRegistry registry;
+	private int lastPlayerId;
+
+	@Setup
+	public void setup() {
+		arena = new BenchArena(players);
+		registry = arena.getActorRegistry();
+		lastPlayerId = players - 1;
+	}
+
+	@TearDown
+	public void tearDown() {
+		arena.close();
+	}
+
+	@Benchmark
+	public Actor lookupLastPlayer() {
+		return registry.getActorByTypeAndId(Actor.Type.PLAYER, lastPlayerId);
+	}
+
+	// Dispensers come after all players in the roster
+	@Benchmark
+	public Actor lookupDispenser() {
+		return registry.getActorByTypeAndId(Actor.Type.AMMO, 3);
+	}
+
+	@Benchmark
+	public List<Player> playersSortedByScore() {
+		return registry.getPlayersSortedByScore();
+	}
+
+	@Benchmark
+	public LinkedHashMap<Integer, Integer> teamScores() {
+		return registry.getTeamScores();
+	}
+}
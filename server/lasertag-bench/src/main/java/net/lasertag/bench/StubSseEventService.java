@@ -0,0 +1,33 @@
+package net.lasertag.bench;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.lasertag.lasertagserver.web.SseEventService;
+
+/**
+ * SseEventService as if one console were connected. Refreshes go through the real service, which
+ * only serializes them on its periodic flush; the once-a-second game time is serialised here like
+ * the real service does for its emitters, then dropped.
+ */
+public class StubSseEventService extends SseEventService {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private volatile int lastJsonLength;
+
+	public StubSseEventService() {
+		super("bench");
+	}
+
+	@Override
+	public void sendGameTimeLeft(int timeLeft) {
+		serialize(timeLeft);
+	}
+
+	private void serialize(Object data) {
+		try {
+			lastJsonLength = objectMapper.writeValueAsString(data).length();
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package net.lasertag.bench;
+
+import lombok.Getter;
+import net.lasertag.lasertagserver.core.ActorRegistry;
+import net.lasertag.lasertagserver.core.GameSnapshot;
+import net.lasertag.lasertagserver.core.GameSettings;
+import net.lasertag.lasertagserver.core.UdpOptions;
+import net.lasertag.lasertagserver.core.UdpServer;
+import net.lasertag.lasertagserver.model.Actor;
+import net.lasertag.lasertagserver.model.MessageType;
+import net.lasertag.lasertagserver.model.Messaging;
+
+import java.util.concurrent.Executor;
+
+/**
+ * UdpServer that never opens its socket. The receive path is the real one via
+ * {@link #injectPacket}; outgoing events and stats are encoded as usual and then dropped.
+ */
+public class StubUdpServer extends UdpServer {
+
+	// Last encoded datagram, kept so the encoding cannot be optimised away
+	private volatile byte[] lastSent;
+	@Getter
+	private long sentCount;
+
+	public StubUdpServer(ActorRegistry actorRegistry, GameSettings gameSettings, Executor gameExecutor) {
+		super(actorRegistry, gameSettings, 0, new UdpOptions(true, 5, null, 1, null, 0), Thread::new, gameExecutor);
+	}
+
+	@Override
+	public void sendEventToClient(MessageType type, Actor actor, byte... values) {
+		lastSent = Messaging.eventToBytes(type.id(), values);
+		sentCount++;
+	}
+
+	@Override
+	public void sendStatsToAll(GameSnapshot snapshot, boolean includeNames) {
+		lastSent = Messaging.playerStatsToBytes(includeNames, snapshot.playersByScore(), snapshot.gamePlaying(), snapshot.gameType().ordinal(),
+			snapshot.timeLeftSeconds(), snapshot.redScore(), snapshot.blueScore(), 0, 0);
+		sentCount++;
+	}
+}
@@ -0,0 +1,140 @@
+package net.lasertag.bench;
+
+import net.lasertag.lasertagserver.core.UdpServer;
+import net.lasertag.lasertagserver.model.Actor;
+import net.lasertag.lasertagserver.model.MessageType;
+import net.lasertag.lasertagserver.model.Messaging;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Fails the build when the receive path allocates more per datagram than allowed by
+ * allocation-budgets.properties. Datagrams go through {@link UdpServer#injectPacket} and the game
+ * handlers run inline, so the thread allocation counter covers decoding, bookkeeping, game logic,
+ * stats encoding and the console refresh. A budget far above the measured figure only prints a
+ * warning, so a JIT that allocates less does not break the build.
+ * <p>
+ * The server build runs this test through its allocation-gate profile.
+ */
+class AllocationBudgetTest {
+
+	private static final int WARMUP_ROUNDS = 20_000;
+	private static final int MEASURED_ROUNDS = 20_000;
+
+	private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private final Properties budgets = new Properties();
+	private BenchArena arena;
+	private UdpServer udpServer;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		try (var in = getClass().getResourceAsStream("/allocation-budgets.properties")) {
+			budgets.load(in);
+		}
+		arena = new BenchArena(Integer.parseInt(budgets.getProperty("players")));
+		udpServer = arena.getUdpServer();
+		// The mix is replayed far faster than any real device sends
+		udpServer.setIngressLimits(false);
+	}
+
+	@AfterEach
+	void tearDown() {
+		arena.close();
+	}
+
+	@Test
+	void pingPathStaysWithinBudget() {
+		assertWithinBudget("ping", pingMix());
+	}
+
+	@Test
+	void eventPathStaysWithinBudget() {
+		assertWithinBudget("event", eventMix());
+	}
+
+	private void assertWithinBudget(String path, List<Datagram> mix) {
+		drive(mix, WARMUP_ROUNDS);
+		long thread = Thread.currentThread().threadId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		drive(mix, MEASURED_ROUNDS);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+		double perPacket = (double) allocated / MEASURED_ROUNDS;
+		long budget = Long.parseLong(budgets.getProperty(path + ".bytesPerPacket"));
+		System.out.printf("Allocation on the %s path: %.1f bytes/packet, budget %d%n", path, perPacket, budget);
+		assertTrue(perPacket <= budget, "%s path allocates %.1f bytes/packet, budget is %d".formatted(path, perPacket, budget));
+		double maxHeadroom = Double.parseDouble(budgets.getProperty("maxHeadroom"));
+		if (budget > perPacket * maxHeadroom) {
+			System.out.printf("WARNING: %s path allocates %.1f bytes/packet, lower its budget of %d%n", path, perPacket, budget);
+		}
+	}
+
+	private void drive(List<Datagram> mix, int rounds) {
+		for (int i = 0; i < rounds; i++) {
+			var datagram = mix.get(i % mix.size());
+			udpServer.injectPacket(datagram.sender(), datagram.bytes(), datagram.bytes().length);
+		}
+	}
+
+	// Heartbeats of every player, acking the stats frame and reliable events, and of every dispenser and flag
+	private List<Datagram> pingMix() {
+		var mix = new ArrayList<Datagram>();
+		for (Actor actor : arena.getActorRegistry().getActors()) {
+			var sender = new InetSocketAddress(actor.getClientIp() != null ? actor.getClientIp() : BenchArena.deviceAddress(100 + actor.getSlot()), 1234);
+			actor.setClientIp(sender.getAddress());
+			byte[] bytes = switch (actor.getType()) {
+				case PLAYER -> new byte[] {MessageType.PLAYER_PING.id(), (byte) actor.getId(), 0, (byte) 0xFF, (byte) 0xFF,
+					Messaging.PING_FLAG_RELIABLE | Messaging.PING_FLAG_ACK, 5, 0, 0x0F, 0, 0, 0};
+				case HEALTH -> new byte[] {MessageType.HEALTH_DISPENSER_PING.id(), (byte) actor.getId(), 0};
+				case AMMO -> new byte[] {MessageType.AMMO_DISPENSER_PING.id(), (byte) actor.getId(), 0};
+				case FLAG -> new byte[] {MessageType.FLAG_PING.id(), (byte) actor.getId(), 0};
+			};
+			mix.add(new Datagram(sender, bytes));
+		}
+		return mix;
+	}
+
+	// Roughly a busy team deathmatch: mostly hits, some kills and respawns, a few dispenser pickups
+	private List<Datagram> eventMix() {
+		var random = new Random(11);
+		var players = arena.getActorRegistry().getPlayers();
+		var mix = new ArrayList<Datagram>();
+		for (int i = 0; i < 256; i++) {
+			var victim = players.get(random.nextInt(players.size()));
+			var shooter = players.get((victim.getId() + 1 + random.nextInt(players.size() - 1)) % players.size());
+			var sender = new InetSocketAddress(victim.getClientIp(), 1234);
+			int roll = random.nextInt(100);
+			byte[] bytes;
+			if (roll < 60) {
+				bytes = event(MessageType.GOT_HIT, victim.getId(), shooter.getId(), 10 + random.nextInt(90));
+			} else if (roll < 75) {
+				bytes = event(MessageType.YOU_KILLED, victim.getId(), shooter.getId(), 0);
+			} else if (roll < 85) {
+				bytes = event(MessageType.RESPAWN, victim.getId(), 0, 100);
+			} else {
+				var type = random.nextBoolean() ? MessageType.GOT_HEALTH : MessageType.GOT_AMMO;
+				bytes = event(type, victim.getId(), random.nextInt(4), 50);
+			}
+			mix.add(new Datagram(sender, bytes));
+		}
+		return mix;
+	}
+
+	private static byte[] event(MessageType type, int playerId, int extraValue, int health) {
+		return new byte[] {type.id(), (byte) playerId, (byte) extraValue, (byte) health};
+	}
+
+	private record Datagram(InetSocketAddress sender, byte[] bytes) {
+	}
+}
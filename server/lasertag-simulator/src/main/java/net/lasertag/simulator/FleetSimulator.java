@@ -0,0 +1,183 @@
+package net.lasertag.simulator;
+
+import lombok.Getter;
+import net.lasertag.lasertagserver.model.Actor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a fleet of virtual players and dispensers against a lasertag server and reports round-trip
+ * latency and loss of pings and gameplay events.
+ * <pre>
+ * mvn -q exec:java -Dexec.args="--players=48 --profile=AGGRESSIVE --duration=60 --start-game"
+ * </pre>
+ * Each device binds its own 127.1.x.y address on the device port, so the server must run on this
+ * host with enough player slots, e.g. {@code --lasertag.arenas=main:9878:48}.
+ */
+public class FleetSimulator {
+	private static final Logger log = LoggerFactory.getLogger(FleetSimulator.class);
+
+	private static final long REPORT_INTERVAL_MILLIS = 5000;
+
+	@Getter
+	private final InetSocketAddress server;
+	@Getter
+	private final int dispensersPerType;
+	@Getter
+	private final LatencyTracker pings = new LatencyTracker();
+	@Getter
+	private final LatencyTracker events = new LatencyTracker();
+	@Getter
+	private final AtomicLong packetsSent = new AtomicLong();
+	@Getter
+	private final AtomicLong packetsReceived = new AtomicLong();
+	@Getter
+	private final AtomicLong bytesReceived = new AtomicLong();
+	@Getter
+	private final AtomicLong eventsSent = new AtomicLong();
+
+	private final List<VirtualPlayer> players = new ArrayList<>();
+	private final List<VirtualDevice> devices = new ArrayList<>();
+
+	public FleetSimulator(InetSocketAddress server, int dispensersPerType) {
+		this.server = server;
+		this.dispensersPerType = dispensersPerType;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String server = "127.0.0.1:9878";
+		String console = "http://127.0.0.1:8080";
+		String arena = null;
+		int playerCount = 16;
+		int dispensers = 4;
+		int flags = 2;
+		Profile profile = Profile.CASUAL;
+		int durationSeconds = 60;
+		boolean startGame = false;
+		for (String arg : args) {
+			String value = arg.contains("=") ? arg.substring(arg.indexOf('=') + 1) : "";
+			if (arg.startsWith("--server=")) {
+				server = value;
+			} else if (arg.startsWith("--console=")) {
+				console = value;
+			} else if (arg.startsWith("--arena=")) {
+				arena = value;
+			} else if (arg.startsWith("--players=")) {
+				playerCount = Integer.parseInt(value);
+			} else if (arg.startsWith("--dispensers=")) {
+				dispensers = Integer.parseInt(value);
+			} else if (arg.startsWith("--flags=")) {
+				flags = Integer.parseInt(value);
+			} else if (arg.startsWith("--profile=")) {
+				profile = Profile.valueOf(value.toUpperCase());
+			} else if (arg.startsWith("--duration=")) {
+				durationSeconds = Integer.parseInt(value);
+			} else if (arg.equals("--start-game")) {
+				startGame = true;
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+		String[] hostPort = server.split(":");
+		var fleet = new FleetSimulator(new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1])), dispensers);
+		fleet.createDevices(playerCount, flags, profile);
+		fleet.run(durationSeconds, startGame ? console + (arena != null ? "/api/arenas/" + arena : "/api") : null);
+	}
+
+	public void createDevices(int playerCount, int flagCount, Profile profile) throws IOException {
+		int index = 0;
+		for (int i = 0; i < playerCount; i++) {
+			var player = new VirtualPlayer(i, this, deviceAddress(++index), profile);
+			players.add(player);
+			devices.add(player);
+		}
+		for (int i = 0; i < dispensersPerType; i++) {
+			devices.add(new VirtualDispenser(Actor.Type.HEALTH, i, this, deviceAddress(++index)));
+			devices.add(new VirtualDispenser(Actor.Type.AMMO, i, this, deviceAddress(++index)));
+		}
+		for (int i = 0; i < flagCount; i++) {
+			devices.add(new VirtualDispenser(Actor.Type.FLAG, i, this, deviceAddress(++index)));
+		}
+		log.info("Created {} players and {} other devices against {}", playerCount, devices.size() - playerCount, server);
+	}
+
+	public void run(int durationSeconds, String startGameApi) throws Exception {
+		devices.forEach(VirtualDevice::start);
+		if (startGameApi != null) {
+			// Give every device a heartbeat first so the game starts with the whole roster online
+			Thread.sleep(2500);
+			startGame(startGameApi, durationSeconds);
+		}
+		long end = System.currentTimeMillis() + durationSeconds * 1000L;
+		long nextReport = System.currentTimeMillis() + REPORT_INTERVAL_MILLIS;
+		while (System.currentTimeMillis() < end) {
+			Thread.sleep(Math.min(200, Math.max(1, end - System.currentTimeMillis())));
+			long nanos = System.nanoTime();
+			pings.sweep(nanos);
+			events.sweep(nanos);
+			if (System.currentTimeMillis() >= nextReport) {
+				report("Progress");
+				nextReport += REPORT_INTERVAL_MILLIS;
+			}
+		}
+		devices.forEach(VirtualDevice::stop);
+		// Let outstanding requests settle as answered or lost
+		Thread.sleep(LatencyTracker.LOSS_TIMEOUT_NANOS / 1_000_000);
+		long nanos = System.nanoTime() + LatencyTracker.LOSS_TIMEOUT_NANOS;
+		pings.sweep(nanos);
+		events.sweep(nanos);
+		report("Final");
+	}
+
+	VirtualPlayer randomPlayerOtherThan(int id) {
+		if (players.size() < 2) {
+			return null;
+		}
+		var random = ThreadLocalRandom.current();
+		VirtualPlayer player;
+		do {
+			player = players.get(random.nextInt(players.size()));
+		} while (player.getId() == id);
+		return player;
+	}
+
+	private void report(String label) {
+		log.info("{}: sent={} (events={}) received={} ({} KB)", label,
+			packetsSent.get(), eventsSent.get(), packetsReceived.get(), bytesReceived.get() / 1024);
+		log.info("{} pings:  {}", label, pings.summary());
+		log.info("{} events: {}", label, events.summary());
+	}
+
+	private static void startGame(String api, int durationSeconds) throws IOException, InterruptedException {
+		int minutes = Math.max(1, (durationSeconds + 59) / 60);
+		// High frag limit so the game outlasts the run
+		String body = "{\"timeLimit\":%d,\"fragLimit\":200,\"gameType\":\"DM\"}".formatted(minutes);
+		var request = HttpRequest.newBuilder(URI.create(api + "/game/start"))
+			.header("Content-Type", "application/json")
+			.POST(HttpRequest.BodyPublishers.ofString(body))
+			.build();
+		var response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+		if (response.statusCode() != 200) {
+			throw new IOException("Starting the game failed: " + response.statusCode() + " " + response.body());
+		}
+		log.info("Game started for {} minutes", minutes);
+	}
+
+	// 127.1.x.y, one per device, so replies from the server tell devices apart
+	private static InetAddress deviceAddress(int index) throws IOException {
+		return InetAddress.getByAddress(new byte[] {127, 1, (byte) (index >> 8), (byte) index});
+	}
+}
@@ -0,0 +1,87 @@
+package net.lasertag.simulator;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Matches each request a virtual device sends with the server's response to it, keyed by response
+ * type, receiving device and payload, and records the round trip. Requests unanswered after
+ * {@link #LOSS_TIMEOUT_NANOS} count as lost.
+ */
+public class LatencyTracker {
+
+	public static final long LOSS_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+	private final Map<Long, ConcurrentLinkedDeque<Long>> pending = new ConcurrentHashMap<>();
+	private final AtomicLong expected = new AtomicLong();
+	private final AtomicLong lost = new AtomicLong();
+	private final AtomicLong unmatched = new AtomicLong();
+	private long[] samples = new long[4096];
+	private int sampleCount;
+
+	public static long key(byte responseType, VirtualDevice receiver, int payload) {
+		return (responseType & 0xFFL) << 24 | (long) receiver.getType().ordinal() << 16 | (receiver.getId() & 0xFF) << 8 | (payload & 0xFF);
+	}
+
+	public void expect(long key, long sentNanos) {
+		expected.incrementAndGet();
+		pending.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>()).addLast(sentNanos);
+	}
+
+	public void received(long key, long nanos) {
+		var queue = pending.get(key);
+		Long sent = queue != null ? queue.pollFirst() : null;
+		if (sent == null) {
+			unmatched.incrementAndGet();
+			return;
+		}
+		record(nanos - sent);
+	}
+
+	public void sweep(long nanos) {
+		for (var queue : pending.values()) {
+			Long sent;
+			while ((sent = queue.peekFirst()) != null && nanos - sent > LOSS_TIMEOUT_NANOS) {
+				if (queue.remove(sent)) {
+					lost.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	private synchronized void record(long nanos) {
+		if (sampleCount == samples.length) {
+			samples = Arrays.copyOf(samples, samples.length * 2);
+		}
+		samples[sampleCount++] = nanos;
+	}
+
+	public synchronized Summary summary() {
+		var sorted = Arrays.copyOf(samples, sampleCount);
+		Arrays.sort(sorted);
+		return new Summary(expected.get(), sampleCount, lost.get(), unmatched.get(),
+			percentile(sorted, 0.5), percentile(sorted, 0.99), sorted.length > 0 ? sorted[sorted.length - 1] : 0);
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)))];
+	}
+
+	public record Summary(long expected, long answered, long lost, long unmatched, long p50Nanos, long p99Nanos, long maxNanos) {
+
+		public double lossPercent() {
+			long settled = answered + lost;
+			return settled == 0 ? 0 : 100.0 * lost / settled;
+		}
+
+		@Override
+		public String toString() {
+			return "expected=%d answered=%d lost=%d (%.2f%%) p50=%.2fms p99=%.2fms max=%.2fms".formatted(
+				expected, answered, lost, lossPercent(), p50Nanos / 1e6, p99Nanos / 1e6, maxNanos / 1e6);
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package net.lasertag.simulator;
+
+/**
+ * How often each virtual player acts, as events per second per player.
+ */
+public enum Profile {
+	CASUAL(0.2, 0.02, 0.0),
+	AGGRESSIVE(1.0, 0.05, 0.0),
+	CTF(0.5, 0.03, 0.05);
+
+	private final double hitsPerSecond;
+	private final double pickupsPerSecond;
+	private final double flagGrabsPerSecond;
+
+	Profile(double hitsPerSecond, double pickupsPerSecond, double flagGrabsPerSecond) {
+		this.hitsPerSecond = hitsPerSecond;
+		this.pickupsPerSecond = pickupsPerSecond;
+		this.flagGrabsPerSecond = flagGrabsPerSecond;
+	}
+
+	public double hitsPerSecond() {
+		return hitsPerSecond;
+	}
+
+	public double pickupsPerSecond() {
+		return pickupsPerSecond;
+	}
+
+	public double flagGrabsPerSecond() {
+		return flagGrabsPerSecond;
+	}
+}
@@ -0,0 +1,133 @@
+package net.lasertag.simulator;
+
+import lombok.Getter;
+import net.lasertag.lasertagserver.core.SequenceWindow;
+import net.lasertag.lasertagserver.model.Actor;
+import net.lasertag.lasertagserver.model.MessageType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+
+/**
+ * One simulated device with its own socket bound to a distinct loopback address on the device
+ * port, so the server addresses each one separately just like devices on the venue network.
+ * Receiving and behaviour each run on a virtual thread.
+ */
+public abstract class VirtualDevice {
+	private static final Logger log = LoggerFactory.getLogger(VirtualDevice.class);
+
+	public static final int DEVICE_PORT = 1234;
+	protected static final long TICK_MILLIS = 100;
+
+	@Getter
+	private final Actor.Type type;
+	@Getter
+	private final int id;
+	protected final FleetSimulator fleet;
+	private final DatagramSocket socket;
+	private final InetSocketAddress server;
+	private final long pingIntervalNanos;
+	private long nextPing;
+	protected boolean firstMessage = true;
+	protected final SequenceWindow reliableWindow = new SequenceWindow();
+
+	protected VirtualDevice(Actor.Type type, int id, FleetSimulator fleet, InetAddress address, long pingIntervalMillis) throws SocketException {
+		this.type = type;
+		this.id = id;
+		this.fleet = fleet;
+		this.server = fleet.getServer();
+		this.pingIntervalNanos = pingIntervalMillis * 1_000_000;
+		this.socket = new DatagramSocket(new InetSocketAddress(address, DEVICE_PORT));
+	}
+
+	public void start() {
+		Thread.ofVirtual().name(type + "-" + id + "-rx").start(this::receiveLoop);
+		Thread.ofVirtual().name(type + "-" + id).start(this::behaviourLoop);
+	}
+
+	public void stop() {
+		socket.close();
+	}
+
+	protected abstract byte[] pingBytes();
+
+	// One behaviour step, called every TICK_MILLIS
+	protected abstract void tick(long nanos);
+
+	protected abstract void onMessage(byte type, byte[] data, int offset, int length, long nanos);
+
+	protected void send(byte[] bytes) {
+		try {
+			socket.send(new DatagramPacket(bytes, bytes.length, server));
+			fleet.getPacketsSent().incrementAndGet();
+		} catch (IOException e) {
+			if (!socket.isClosed()) {
+				log.warn("{}-{} failed to send: {}", type, id, e.getMessage());
+			}
+		}
+	}
+
+	protected synchronized void ping(long nanos) {
+		fleet.getPings().expect(LatencyTracker.key(MessageType.PING.id(), this, 0), nanos);
+		send(pingBytes());
+		firstMessage = false;
+	}
+
+	private void behaviourLoop() {
+		while (!socket.isClosed()) {
+			long nanos = System.nanoTime();
+			if (nanos >= nextPing) {
+				ping(nanos);
+				nextPing = nanos + pingIntervalNanos;
+			}
+			tick(nanos);
+			try {
+				Thread.sleep(TICK_MILLIS);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private void receiveLoop() {
+		var buffer = new byte[2048];
+		var packet = new DatagramPacket(buffer, buffer.length);
+		while (!socket.isClosed()) {
+			try {
+				socket.receive(packet);
+			} catch (IOException e) {
+				return;
+			}
+			long nanos = System.nanoTime();
+			int length = packet.getLength();
+			fleet.getPacketsReceived().incrementAndGet();
+			fleet.getBytesReceived().addAndGet(length);
+			if (length == 0) {
+				continue;
+			}
+			byte type = buffer[0];
+			if (type == MessageType.PING.id()) {
+				fleet.getPings().received(LatencyTracker.key(type, this, 0), nanos);
+			} else if (type == MessageType.RELIABLE.id() && length > 3) {
+				boolean fresh;
+				synchronized (this) {
+					fresh = reliableWindow.accept((buffer[1] & 0xFF) | (buffer[2] & 0xFF) << 8);
+				}
+				// Acked right away, like the Android client does
+				ping(nanos);
+				if (fresh) {
+					onMessage(buffer[3], buffer, 3, length - 3, nanos);
+				}
+			} else {
+				onMessage(type, buffer, 0, length, nanos);
+			}
+		}
+	}
+}
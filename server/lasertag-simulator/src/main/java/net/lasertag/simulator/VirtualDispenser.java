@@ -0,0 +1,40 @@
+package net.lasertag.simulator;
+
+import net.lasertag.lasertagserver.model.Actor;
+import net.lasertag.lasertagserver.model.MessageType;
+
+import java.net.InetAddress;
+import java.net.SocketException;
+
+/**
+ * A health or ammo dispenser or a flag base; it only heartbeats and takes what the server sends.
+ */
+public class VirtualDispenser extends VirtualDevice {
+
+	private static final long PING_INTERVAL_MILLIS = 4000;
+
+	private final byte pingType;
+
+	public VirtualDispenser(Actor.Type type, int id, FleetSimulator fleet, InetAddress address) throws SocketException {
+		super(type, id, fleet, address, PING_INTERVAL_MILLIS);
+		this.pingType = switch (type) {
+			case HEALTH -> MessageType.HEALTH_DISPENSER_PING.id();
+			case AMMO -> MessageType.AMMO_DISPENSER_PING.id();
+			case FLAG -> MessageType.FLAG_PING.id();
+			case PLAYER -> throw new IllegalArgumentException("Not a dispenser type: " + type);
+		};
+	}
+
+	@Override
+	protected byte[] pingBytes() {
+		return new byte[] {pingType, (byte) getId(), (byte) (firstMessage ? 1 : 0)};
+	}
+
+	@Override
+	protected void tick(long nanos) {
+	}
+
+	@Override
+	protected void onMessage(byte type, byte[] data, int offset, int length, long nanos) {
+	}
+}
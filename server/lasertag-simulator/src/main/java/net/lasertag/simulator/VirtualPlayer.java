@@ -0,0 +1,123 @@
+package net.lasertag.simulator;
+
+import net.lasertag.lasertagserver.model.Actor;
+import net.lasertag.lasertagserver.model.MessageType;
+import net.lasertag.lasertagserver.model.Messaging;
+
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A player gun: heartbeats with stats and reliable acks like the Android client, and randomly gets
+ * hit by other virtual players, dies, respawns and uses dispensers and flags at its profile's rates.
+ */
+public class VirtualPlayer extends VirtualDevice {
+
+	private static final long PING_INTERVAL_MILLIS = 2000;
+	private static final long RESPAWN_DELAY_NANOS = 3_000_000_000L;
+	private static final int FULL_HEALTH = 100;
+	private static final int HIT_DAMAGE = 10;
+	private static final byte ANY_PAYLOAD = -1;
+
+	private final Profile profile;
+	private int health = FULL_HEALTH;
+	private long respawnAt;
+	private volatile int lastStatsSeq = Messaging.NO_STATS_SEQ;
+
+	public VirtualPlayer(int id, FleetSimulator fleet, InetAddress address, Profile profile) throws SocketException {
+		super(Actor.Type.PLAYER, id, fleet, address, PING_INTERVAL_MILLIS);
+		this.profile = profile;
+	}
+
+	@Override
+	protected byte[] pingBytes() {
+		var bytes = new byte[12];
+		bytes[0] = MessageType.PLAYER_PING.id();
+		bytes[1] = (byte) getId();
+		bytes[2] = (byte) (firstMessage ? 1 : 0);
+		bytes[3] = (byte) lastStatsSeq;
+		bytes[4] = (byte) (lastStatsSeq >> 8);
+		byte flags = Messaging.PING_FLAG_RELIABLE;
+		if (!reliableWindow.isEmpty()) {
+			flags |= Messaging.PING_FLAG_ACK;
+			int highest = reliableWindow.highest();
+			int bits = reliableWindow.ackBits();
+			bytes[6] = (byte) highest;
+			bytes[7] = (byte) (highest >> 8);
+			for (int i = 0; i < 4; i++) {
+				bytes[8 + i] = (byte) (bits >> (8 * i));
+			}
+		}
+		bytes[5] = flags;
+		return bytes;
+	}
+
+	@Override
+	protected void tick(long nanos) {
+		var random = ThreadLocalRandom.current();
+		double tickSeconds = TICK_MILLIS / 1000.0;
+		if (health <= 0) {
+			if (nanos >= respawnAt) {
+				health = FULL_HEALTH;
+				event(MessageType.RESPAWN, 0, nanos);
+			}
+			return;
+		}
+		if (random.nextDouble() < profile.hitsPerSecond() * tickSeconds) {
+			var shooter = fleet.randomPlayerOtherThan(getId());
+			if (shooter != null) {
+				gotHit(shooter, nanos);
+			}
+		}
+		// A fleet run with --dispensers=0 has nothing to pick up from
+		if (fleet.getDispensersPerType() > 0 && random.nextDouble() < profile.pickupsPerSecond() * tickSeconds) {
+			boolean healthPack = random.nextBoolean();
+			var type = healthPack ? MessageType.GOT_HEALTH : MessageType.GOT_AMMO;
+			var reply = healthPack ? MessageType.GIVE_HEALTH_TO_PLAYER : MessageType.GIVE_AMMO_TO_PLAYER;
+			fleet.getEvents().expect(LatencyTracker.key(reply.id(), this, ANY_PAYLOAD), nanos);
+			event(type, random.nextInt(fleet.getDispensersPerType()), nanos);
+		}
+		if (random.nextDouble() < profile.flagGrabsPerSecond() * tickSeconds) {
+			event(MessageType.GOT_FLAG, random.nextInt(2), nanos);
+		}
+	}
+
+	private void gotHit(VirtualPlayer shooter, long nanos) {
+		health = Math.max(0, health - HIT_DAMAGE);
+		if (health > 0) {
+			fleet.getEvents().expect(LatencyTracker.key(MessageType.YOU_HIT_SOMEONE.id(), shooter, getId()), nanos);
+			event(MessageType.GOT_HIT, shooter.getId(), nanos);
+		} else {
+			fleet.getEvents().expect(LatencyTracker.key(MessageType.YOU_SCORED.id(), shooter, getId()), nanos);
+			event(MessageType.YOU_KILLED, shooter.getId(), nanos);
+			respawnAt = nanos + RESPAWN_DELAY_NANOS;
+		}
+	}
+
+	private void event(MessageType type, int extraValue, long nanos) {
+		send(new byte[] {type.id(), (byte) getId(), (byte) extraValue, (byte) health});
+		fleet.getEventsSent().incrementAndGet();
+	}
+
+	@Override
+	protected void onMessage(byte type, byte[] data, int offset, int length, long nanos) {
+		if (type == MessageType.FULL_STATS.id()) {
+			// Keyframes end with seq (short) and roster version
+			if (length >= 4) {
+				int end = offset + length;
+				lastStatsSeq = (data[end - 3] & 0xFF) | (data[end - 2] & 0xFF) << 8;
+			}
+		} else if (type == MessageType.STATS_DELTA.id()) {
+			if (length >= 3) {
+				lastStatsSeq = (data[offset + 1] & 0xFF) | (data[offset + 2] & 0xFF) << 8;
+			}
+		} else if (type == MessageType.YOU_HIT_SOMEONE.id() || type == MessageType.YOU_SCORED.id()) {
+			if (length >= 2) {
+				fleet.getEvents().received(LatencyTracker.key(type, this, data[offset + 1]), nanos);
+			}
+		} else if (type == MessageType.GIVE_HEALTH_TO_PLAYER.id() || type == MessageType.GIVE_AMMO_TO_PLAYER.id()) {
+			fleet.getEvents().received(LatencyTracker.key(type, this, ANY_PAYLOAD), nanos);
+		}
+	}
+}
@@ -1,102 +1,344 @@
 package net.lasertag.lasertagserver.core;
 
+import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.Setter;
 import net.lasertag.lasertagserver.model.*;
-import org.springframework.stereotype.Component;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
 import java.util.stream.Stream;
 
-@Component
+/**
+ * Roster of an arena. Actors are indexed by type and id in plain arrays, and the per-type and
+ * online views are cached lists, so lookups and iteration on the packet path never allocate.
+ * Online views are rebuilt lazily after an actor goes online or offline.
+ * <p>
+ * The configured players, dispensers and flags are always present. Other players and dispensers
+ * register on their first ping within {@link RosterLimits}, and are evicted again once idle.
+ */
 @Getter
 public class ActorRegistry {
+	private static final Logger log = LoggerFactory.getLogger(ActorRegistry.class);
 
-	private final List<Actor> actors = new ArrayList<>();
-
-	public static final int PLAYER_COUNT = 6; // should be configurable
+	public static final int PLAYER_COUNT = 6; // default roster size of an arena
 	public static final int RESPAWN_POINT_COUNT = PLAYER_COUNT;
+	public static final int DISPENSER_COUNT = 4; // configured health and ammo dispensers each
+	// Actor ids travel as one byte
+	public static final int MAX_ACTOR_ID = 255;
+	private static final Actor.Type[] TYPES = Actor.Type.values();
+
+	@Getter(AccessLevel.NONE)
+	private final RosterLimits limits;
+	// Upper bound of slots, for per-slot arrays sized once
+	private final int capacity;
+	// All actors in slot order
+	private volatile List<Actor> actors = List.of();
+	@Getter(AccessLevel.NONE)
+	private final AtomicReferenceArray<Actor> actorsById = new AtomicReferenceArray<>(TYPES.length * (MAX_ACTOR_ID + 1));
+	@Getter(AccessLevel.NONE)
+	private final AtomicReferenceArray<Actor> actorsBySlot;
+	@Getter(AccessLevel.NONE)
+	private volatile List<List<Actor>> actorsByType;
+	private volatile List<Player> players = List.of();
+	// Bumped whenever an actor goes online or offline, or joins or leaves the roster
+	@Getter(AccessLevel.NONE)
+	private final AtomicInteger onlineVersion = new AtomicInteger();
+	@Getter(AccessLevel.NONE)
+	private final OnlineView[] onlineByType = new OnlineView[TYPES.length];
+
+	// Guarded by this
+	@Getter(AccessLevel.NONE)
+	private final boolean[] selfRegistered;
+	@Getter(AccessLevel.NONE)
+	private final long[] offlineSince;
+	@Getter(AccessLevel.NONE)
+	private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+	@Getter(AccessLevel.NONE)
+	private final BitSet rejectionLogged = new BitSet();
+	private final AtomicLong rejectedRegistrations = new AtomicLong();
+	// Told when an actor takes a slot, so per-slot state kept elsewhere starts fresh
+	@Getter(AccessLevel.NONE)
+	@Setter
+	private volatile IntConsumer slotListener;
 
-	private final Map<Integer, Integer> teamScores = new HashMap<>();
+	@Getter(AccessLevel.NONE)
+	private final Leaderboard leaderboard = new Leaderboard();
+
+	public ActorRegistry() {
+		this(PLAYER_COUNT);
+	}
+
+	public ActorRegistry(int playerCount) {
+		this(playerCount, RosterLimits.DEFAULT);
+	}
 
-	public ActorRegistry() {// this should be in config screen before running the game
-		for (int i = 0; i < PLAYER_COUNT; i++) {
-			actors.add(new Player(i, "Player-%d".formatted(i)));
+	public ActorRegistry(int playerCount, RosterLimits limits) {
+		this.limits = limits;
+		int maxPlayers = Math.max(playerCount, limits.maxPlayers());
+		int maxDispensers = Math.max(DISPENSER_COUNT, limits.maxDispensersPerType());
+		this.capacity = maxPlayers + 2 * maxDispensers + 2;
+		this.actorsBySlot = new AtomicReferenceArray<>(capacity);
+		this.selfRegistered = new boolean[capacity];
+		this.offlineSince = new long[capacity];
+		for (int slot = 0; slot < capacity; slot++) {
+			freeSlots.add(slot);
 		}
-		for (int i = 0; i < 4; i++) {
-			actors.add(new Dispenser(i, Actor.Type.AMMO));
-			actors.add(new Dispenser(i, Actor.Type.HEALTH));
+		for (int i = 0; i < playerCount; i++) {
+			add(new Player(i, "Player-%d".formatted(i)), false);
+		}
+		for (int i = 0; i < DISPENSER_COUNT; i++) {
+			add(new Dispenser(i, Actor.Type.AMMO), false);
+			add(new Dispenser(i, Actor.Type.HEALTH), false);
 		}
 		for (int i = 0; i < 2; i++) { // 0=red, 1=blue
-			actors.add(new Dispenser(i, Actor.Type.FLAG));
+			add(new Dispenser(i, Actor.Type.FLAG), false);
+		}
+	}
+
+	private synchronized void add(Actor actor, boolean selfRegistered) {
+		if (actor.getId() < 0 || actor.getId() > MAX_ACTOR_ID) {
+			throw new IllegalArgumentException("Actor id out of range: " + actor);
 		}
+		int slot = freeSlots.removeFirst();
+		actor.setSlot(slot);
+		actor.setOnlineListener(() -> onOnlineChanged(actor));
+		this.selfRegistered[slot] = selfRegistered;
+		offlineSince[slot] = 0;
+		var slotListener = this.slotListener;
+		if (slotListener != null) {
+			slotListener.accept(slot);
+		}
+		actorsBySlot.set(slot, actor);
+		actorsById.set(index(actor.getType(), actor.getId()), actor);
+		if (actor instanceof Player player) {
+			player.setScoreListener(leaderboard);
+			leaderboard.add(player);
+		}
+		rebuildViews();
+	}
+
+	private synchronized void remove(Actor actor) {
+		int slot = actor.getSlot();
+		actor.setOnlineListener(null);
+		if (actor instanceof Player player) {
+			leaderboard.remove(player);
+			player.setScoreListener(null);
+		}
+		actorsById.set(index(actor.getType(), actor.getId()), null);
+		actorsBySlot.set(slot, null);
+		freeSlots.addLast(slot);
+		rebuildViews();
+	}
+
+	// A device back online starts its idle time over when it goes offline again
+	private synchronized void onOnlineChanged(Actor actor) {
+		if (actor.isOnline() && actorsBySlot.get(actor.getSlot()) == actor) {
+			offlineSince[actor.getSlot()] = 0;
+		}
+		onlineVersion.incrementAndGet();
+	}
+
+	// Views are immutable and replaced as a whole, ordered by id within each type
+	private void rebuildViews() {
+		var all = new ArrayList<Actor>();
+		var byType = new ArrayList<List<Actor>>();
+		for (Actor.Type type : TYPES) {
+			var ofType = new ArrayList<Actor>();
+			for (int id = 0; id <= MAX_ACTOR_ID; id++) {
+				var actor = actorsById.get(index(type, id));
+				if (actor != null) {
+					ofType.add(actor);
+				}
+			}
+			byType.add(List.copyOf(ofType));
+		}
+		for (int slot = 0; slot < capacity; slot++) {
+			var actor = actorsBySlot.get(slot);
+			if (actor != null) {
+				all.add(actor);
+			}
+		}
+		actorsByType = List.copyOf(byType);
+		actors = List.copyOf(all);
+		players = getActorsByType(Actor.Type.PLAYER).stream().map(actor -> (Player) actor).toList();
+		onlineVersion.incrementAndGet();
+	}
+
+	/**
+	 * Adds a device seen for the first time. Flags are never added, their ids are the team ids.
+	 * Returns null when the roster limit of the type is reached.
+	 */
+	public synchronized Actor register(Actor.Type type, int id) {
+		var existing = findActor(type, id);
+		if (existing != null) {
+			return existing;
+		}
+		int limit = switch (type) {
+			case PLAYER -> limits.maxPlayers();
+			case HEALTH, AMMO -> limits.maxDispensersPerType();
+			case FLAG -> 0;
+		};
+		if (getActorCountByType(type) >= limit || freeSlots.isEmpty()) {
+			rejectedRegistrations.incrementAndGet();
+			if (!rejectionLogged.get(index(type, id))) {
+				rejectionLogged.set(index(type, id));
+				log.warn("Roster full, ignoring {}-{} (limit {})", type, id & 0xFF, limit);
+			}
+			return null;
+		}
+		Actor actor = type == Actor.Type.PLAYER
+			? new Player(id & 0xFF, "Player-%d".formatted(id & 0xFF))
+			: new Dispenser(id & 0xFF, type);
+		add(actor, true);
+		log.info("Registered {} in slot {}", actor, actor.getSlot());
+		return actor;
+	}
+
+	/**
+	 * Drops self-registered devices that stayed offline longer than the limits allow. A device is
+	 * first seen offline by one call and evicted by a later one, so call this periodically.
+	 * Players are kept while keepPlayers is set, i.e. during a game.
+	 */
+	public synchronized List<Actor> evictIdle(long now, boolean keepPlayers) {
+		if (limits.evictIdleMillis() <= 0) {
+			return List.of();
+		}
+		List<Actor> evicted = new ArrayList<>();
+		for (int slot = 0; slot < capacity; slot++) {
+			var actor = actorsBySlot.get(slot);
+			if (actor == null || !selfRegistered[slot] || actor.isOnline()) {
+				offlineSince[slot] = 0;
+				continue;
+			}
+			if (offlineSince[slot] == 0) {
+				offlineSince[slot] = now;
+			} else if (now - offlineSince[slot] >= limits.evictIdleMillis()
+				&& !(keepPlayers && actor.getType() == Actor.Type.PLAYER)) {
+				evicted.add(actor);
+			}
+		}
+		evicted.forEach(this::remove);
+		return evicted;
+	}
+
+	public Actor getActorBySlot(int slot) {
+		return actorsBySlot.get(slot);
+	}
+
+	public List<Actor> getActorsByType(Actor.Type type) {
+		return actorsByType.get(type.ordinal());
 	}
 
 	public Stream<Actor> streamByType(Actor.Type type) {
-		return actors.stream()
-			.filter(actor -> actor.getType() == type);
+		return getActorsByType(type).stream();
 	}
 
 	public int getActorCountByType(Actor.Type type) {
-		return (int) streamByType(type).count();
+		return getActorsByType(type).size();
 	}
 
 	public Stream<Player> streamPlayers() {
-		return streamByType(Actor.Type.PLAYER)
-			.map(actor -> (Player) actor);
+		return players.stream();
+	}
+
+	// Online actors of a type in roster order; the same list until one of them goes on- or offline
+	public List<Actor> getOnlineActors(Actor.Type type) {
+		var view = onlineByType[type.ordinal()];
+		int version = onlineVersion.get();
+		if (view == null || view.version != version) {
+			var online = new ArrayList<Actor>();
+			for (Actor actor : getActorsByType(type)) {
+				if (actor.isOnline()) {
+					online.add(actor);
+				}
+			}
+			view = new OnlineView(version, List.copyOf(online));
+			onlineByType[type.ordinal()] = view;
+		}
+		return view.actors;
 	}
 
-	public List<Player> getPlayers() {
-		return streamPlayers().toList();
+	@SuppressWarnings("unchecked")
+	public List<Player> getOnlinePlayers() {
+		return (List<Player>) (List<?>) getOnlineActors(Actor.Type.PLAYER);
 	}
 
 	public Actor getActorByTypeAndId(Actor.Type type, int id) {
-		return actors.stream()
-			.filter(actor -> actor.getType() == type && actor.getId() == id)
-			.findFirst()
-			.orElseThrow(() -> new NoSuchElementException("Actor not found: type:" + type + ", id: " + id));
+		var actor = findActor(type, id);
+		if (actor == null) {
+			throw new NoSuchElementException("Actor not found: type:" + type + ", id: " + id);
+		}
+		return actor;
+	}
+
+	public Actor findActor(Actor.Type type, int id) {
+		return actorsById.get(index(type, id));
+	}
+
+	private static int index(Actor.Type type, int id) {
+		return type.ordinal() * (MAX_ACTOR_ID + 1) + (id & 0xFF);
+	}
+
+	public Actor findActorByIp(InetAddress ip) {
+		var actors = this.actors;
+		for (int i = 0; i < actors.size(); i++) {
+			Actor actor = actors.get(i);
+			if (ip.equals(actor.getClientIp())) {
+				return actor;
+			}
+		}
+		return null;
 	}
 
 	public Actor getActorByMessage(Messaging.MessageFromClient message) {
-		var id = message.getActorId();
-		var type = message.getTypeId();
-		if (type == MessageType.HEALTH_DISPENSER_PING.id()) {
-			return getActorByTypeAndId(Actor.Type.HEALTH, id);
-		} else if (type == MessageType.AMMO_DISPENSER_PING.id()) {
-			return getActorByTypeAndId(Actor.Type.AMMO, id);
-		} else if (type == MessageType.FLAG_PING.id()) {
-			return getActorByTypeAndId(Actor.Type.FLAG, id);
+		return getActorByTypeAndId(actorTypeOf(message.getTypeId()), message.getActorId());
+	}
+
+	// Dispensers and flags are told apart by their ping type, every other message comes from a player
+	public static Actor.Type actorTypeOf(byte messageTypeId) {
+		if (messageTypeId == MessageType.HEALTH_DISPENSER_PING.id()) {
+			return Actor.Type.HEALTH;
+		} else if (messageTypeId == MessageType.AMMO_DISPENSER_PING.id()) {
+			return Actor.Type.AMMO;
+		} else if (messageTypeId == MessageType.FLAG_PING.id()) {
+			return Actor.Type.FLAG;
 		} else {
-			return getActorByTypeAndId(Actor.Type.PLAYER, id);
+			return Actor.Type.PLAYER;
 		}
 	}
 
+	// teamId -> score of the teams in play, sorted by highest score
 	public LinkedHashMap<Integer, Integer> getTeamScores() {
-		// teamId -> score, sorted by highest score
-		return teamScores.entrySet().stream()
-			.sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-			.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1, LinkedHashMap::new));
+		return leaderboard.getTeamScores();
+	}
+
+	public int getTeamScore(int teamId) {
+		return leaderboard.getTeamScore(teamId);
 	}
 
 	public void incrementTeamScore(int teamId) {
-		teamScores.merge(teamId, 1, Integer::sum);
+		leaderboard.incrementTeamScore(teamId);
 	}
 
 	public int getRedScore() {
-		return teamScores.getOrDefault(Messaging.TEAM_RED, 0);
+		return leaderboard.getTeamScore(Messaging.TEAM_RED);
 	}
 
 	public int getBlueScore() {
-		return teamScores.getOrDefault(Messaging.TEAM_BLUE, 0);
+		return leaderboard.getTeamScore(Messaging.TEAM_BLUE);
 	}
 
+	// Zero scores for all teams that have players
 	public void resetTeamScores() {
-		teamScores.clear();
-		// Initialize scores for all teams that have players
-		streamPlayers()
-			.map(Player::getTeamId)
-			.distinct()
-			.forEach(teamId -> teamScores.put(teamId, 0));
+		leaderboard.resetTeams(players);
 	}
 
 	public Player getPlayerById(int id) {
@@ -104,23 +346,19 @@ public class ActorRegistry {
 	}
 
 	public List<Player> getPlayersSortedByScore() {
-		return streamPlayers().sorted((p1, p2) -> p2.getScore() - p1.getScore()).toList();
+		return leaderboard.getSorted();
+	}
+
+	public List<Player> getTopPlayers(int count) {
+		return leaderboard.getTop(count);
 	}
 
 	public Player getLeadPlayer() {
-		var maxScore = streamPlayers().mapToInt(Player::getScore).max().orElse(0);
-		var leadPlayers = streamPlayers().filter(player -> player.getScore() == maxScore).toList();
-		return leadPlayers.size() == 1 ? leadPlayers.get(0) : null;
+		return leaderboard.getLeader();
 	}
 
 	public int getLeadTeam() {
-		var teamScores = getTeamScores();
-		var maxScore = teamScores.values().stream().max(Integer::compareTo).orElse(0);
-		var leadTeams = teamScores.entrySet().stream()
-			.filter(entry -> Objects.equals(entry.getValue(), maxScore))
-			.map(Map.Entry::getKey)
-			.toList();
-		return leadTeams.size() == 1 ? leadTeams.get(0) : -1;
+		return leaderboard.getLeadTeam();
 	}
 
 	public Dispenser getFlagByTeamId(int teamId) {
@@ -130,13 +368,11 @@ public class ActorRegistry {
 	public Map<String, List<Integer>> getOnlineDispensers() {
 		Map<String, List<Integer>> dispensers = new HashMap<>();
 		
-		List<Integer> healthDispenserIds = streamByType(Actor.Type.HEALTH)
-			.filter(Actor::isOnline)
+		List<Integer> healthDispenserIds = getOnlineActors(Actor.Type.HEALTH).stream()
 			.map(Actor::getId)
 			.toList();
 		
-		List<Integer> ammoDispenserIds = streamByType(Actor.Type.AMMO)
-			.filter(Actor::isOnline)
+		List<Integer> ammoDispenserIds = getOnlineActors(Actor.Type.AMMO).stream()
 			.map(Actor::getId)
 			.toList();
 		
@@ -166,11 +402,30 @@ public class ActorRegistry {
 		if (!isGamePlaying || gameType != GameType.CTF) {
 			return false;
 		}
-		boolean carriedByEnemy = streamPlayers()
-			.anyMatch(player -> player.isFlagCarrier() && player.getTeamId() != flagTeamId);
-		return !carriedByEnemy;
+		return !isFlagCarriedFrom(flagTeamId);
+	}
+
+	// True while a player of another team carries the flag of flagTeamId
+	public boolean isFlagCarriedFrom(int flagTeamId) {
+		for (Player player : players) {
+			if (player.isFlagCarrier() && player.getTeamId() != flagTeamId) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public Player getFlagCarrier() {
+		for (Player player : players) {
+			if (player.isFlagCarrier()) {
+				return player;
+			}
+		}
+		return null;
 	}
 
 	public record FlagUiState(int teamId, boolean online, String state) {}
 
+	private record OnlineView(int version, List<Actor> actors) {}
+
 }
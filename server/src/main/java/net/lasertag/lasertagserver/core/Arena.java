@@ -0,0 +1,131 @@
+package net.lasertag.lasertagserver.core;
+
+import lombok.Getter;
+import net.lasertag.lasertagserver.web.SseEventService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One playing field: its own roster, settings, match clock, UDP endpoint and console stream.
+ * All game logic of the arena runs on its {@link GameLoop}; other threads hand work to it.
+ */
+@Getter
+public class Arena {
+	private static final Logger log = LoggerFactory.getLogger(Arena.class);
+
+	public static final String MDC_KEY = "arena";
+
+	private static final long CALL_TIMEOUT_SECONDS = 5;
+	private static final long EVICTION_CHECK_SECONDS = 60;
+	private static final DateTimeFormatter CAPTURE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
+	private final String id;
+	private final ActorRegistry actorRegistry;
+	private final GameSettings gameSettings;
+	private final UdpServer udpServer;
+	private final SseEventService sseEventService;
+	private final Game game;
+	private final GameLoop gameLoop;
+	private final UdpOptions udpOptions;
+	private TrafficCapture capture;
+
+	public Arena(String id, int port, int playerCount, boolean defaultArena, UdpOptions udpOptions, RosterLimits rosterLimits) {
+		this.id = id;
+		this.udpOptions = udpOptions;
+		var mdc = Map.of(MDC_KEY, id);
+		this.gameLoop = new GameLoop(new DaemonThreadFactory("Game-" + id + "-", mdc));
+		this.actorRegistry = new ActorRegistry(playerCount, rosterLimits);
+		this.gameSettings = new GameSettings(actorRegistry, defaultArena ? "server-state.json" : "server-state-" + id + ".json");
+		this.udpServer = new UdpServer(actorRegistry, gameSettings, port, udpOptions,
+			new DaemonThreadFactory("UdpReceiver-" + id + "-", mdc), gameLoop);
+		this.sseEventService = new SseEventService(id);
+		this.game = new Game(actorRegistry, udpServer, sseEventService, gameSettings,
+			new GameEventLog(id, defaultArena), gameLoop);
+	}
+
+	public void start() throws IOException {
+		gameSettings.init();
+		sseEventService.init();
+		if (udpOptions.captureDir() != null) {
+			capture = new TrafficCapture(udpOptions.captureDir().resolve(
+				"capture-" + id + "_" + LocalDateTime.now().format(CAPTURE_TIMESTAMP) + ".bin"));
+			udpServer.setCapture(capture);
+		}
+		game.publishSnapshot();
+		gameLoop.start();
+		udpServer.init();
+		gameLoop.scheduleWithFixedDelay(game::updateGameTime, 1, 1, TimeUnit.SECONDS);
+		gameLoop.scheduleAtFixedRate(udpServer::checkConnectedClients,
+			LivenessWheel.TICK_MILLIS, LivenessWheel.TICK_MILLIS, TimeUnit.MILLISECONDS);
+		gameLoop.scheduleAtFixedRate(udpServer::syncDispenserSettings, 10, 10, TimeUnit.SECONDS);
+		if (udpOptions.broadcastTickMillis() > 0) {
+			game.setCoalesceBroadcasts(true);
+			gameLoop.scheduleAtFixedRate(game::flushBroadcasts,
+				udpOptions.broadcastTickMillis(), udpOptions.broadcastTickMillis(), TimeUnit.MILLISECONDS);
+		}
+		gameLoop.scheduleAtFixedRate(sseEventService::flushRefresh,
+			SseEventService.REFRESH_WINDOW_MILLIS, SseEventService.REFRESH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+		gameLoop.scheduleWithFixedDelay(game::evictIdleDevices, EVICTION_CHECK_SECONDS, EVICTION_CHECK_SECONDS, TimeUnit.SECONDS);
+		if (udpServer.getReliable() != null) {
+			gameLoop.scheduleWithFixedDelay(udpServer::retransmitReliable,
+				ReliableDelivery.TICK_MILLIS, ReliableDelivery.TICK_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		log.info("Arena '{}' started on UDP port {} with {} players", id, udpServer.getPort(), actorRegistry.getPlayers().size());
+	}
+
+	public void stop() {
+		udpServer.stopUdpServer();
+		gameLoop.stop();
+		sseEventService.close();
+		if (capture != null) {
+			udpServer.setCapture(null);
+			capture.close();
+		}
+	}
+
+	public int getPort() {
+		return udpServer.getPort();
+	}
+
+	public void run(Runnable task) {
+		call(() -> {
+			task.run();
+			return null;
+		});
+	}
+
+	// Runs the task on the arena game thread and waits for it, rethrowing its failure to the caller
+	public <T> T call(Callable<T> task) {
+		try {
+			return gameLoop.submit(() -> {
+				T result = task.call();
+				game.publishSnapshot();
+				return result;
+			}).get(CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			if (e.getCause() instanceof IOException ioException) {
+				throw new UncheckedIOException(ioException);
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for arena " + id, e);
+		} catch (TimeoutException e) {
+			throw new IllegalStateException("Arena " + id + " game thread did not respond", e);
+		}
+	}
+}
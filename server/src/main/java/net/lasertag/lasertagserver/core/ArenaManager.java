@@ -0,0 +1,119 @@
+package net.lasertag.lasertagserver.core;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.lasertag.lasertagserver.LanIpUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Hosts the arenas configured by {@code lasertag.arenas}, a comma separated list of
+ * {@code id:udpPort[:playerCount]}. The first arena is the default one served by the
+ * un-prefixed console endpoints. Devices beyond the configured players register themselves
+ * within the {@code lasertag.roster.*} limits.
+ */
+@Component
+public class ArenaManager {
+	private static final Logger log = LoggerFactory.getLogger(ArenaManager.class);
+
+	private final Map<String, Arena> arenas = new LinkedHashMap<>();
+	private final Arena defaultArena;
+
+	public ArenaManager(@Value("${lasertag.arenas:main:9878}") String arenasSpec,
+						@Value("${lasertag.comm.reliable:true}") boolean reliable,
+						@Value("${lasertag.comm.retries:5}") int retries,
+						@Value("${lasertag.comm.receivers:1}") int receivers,
+						@Value("${lasertag.comm.multicast-group:}") String multicastGroup,
+						@Value("${lasertag.comm.broadcast-tick-millis:30}") long broadcastTickMillis,
+						@Value("${lasertag.capture.dir:}") String captureDir,
+						@Value("${lasertag.roster.max-players:64}") int maxPlayers,
+						@Value("${lasertag.roster.max-dispensers:16}") int maxDispensers,
+						@Value("${lasertag.roster.evict-idle-minutes:30}") int evictIdleMinutes) {
+		var udpOptions = new UdpOptions(reliable, retries, captureDir.isBlank() ? null : Path.of(captureDir), receivers,
+			multicastGroup(multicastGroup), broadcastTickMillis);
+		var rosterLimits = new RosterLimits(maxPlayers, maxDispensers, evictIdleMinutes * 60_000L);
+		for (String entry : arenasSpec.split(",")) {
+			String[] parts = entry.trim().split(":");
+			if (parts.length < 2 || parts[0].isBlank()) {
+				throw new IllegalArgumentException("Invalid arena definition '" + entry + "', expected id:port[:players]");
+			}
+			String id = parts[0].trim();
+			int port = Integer.parseInt(parts[1].trim());
+			int playerCount = parts.length > 2 ? Integer.parseInt(parts[2].trim()) : ActorRegistry.PLAYER_COUNT;
+			if (arenas.containsKey(id)) {
+				throw new IllegalArgumentException("Duplicate arena id: " + id);
+			}
+			// Every arena's players listen on the same device port, so only one arena can use the group
+			var arenaOptions = arenas.isEmpty() ? udpOptions : udpOptions.withoutMulticast();
+			arenas.put(id, new Arena(id, port, playerCount, arenas.isEmpty(), arenaOptions, rosterLimits));
+		}
+		this.defaultArena = arenas.values().iterator().next();
+	}
+
+	private static InetAddress multicastGroup(String group) {
+		if (group.isBlank()) {
+			return null;
+		}
+		try {
+			var address = InetAddress.getByName(group.trim());
+			if (!address.isMulticastAddress()) {
+				throw new IllegalArgumentException("Not a multicast address: " + group);
+			}
+			return address;
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException("Invalid multicast group: " + group, e);
+		}
+	}
+
+	@PostConstruct
+	public void init() throws IOException {
+		for (Arena arena : arenas.values()) {
+			arena.start();
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		arenas.values().forEach(Arena::stop);
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void logLanIp() {
+		String webConsoleUrl = "http://" + LanIpUtils.findLanIp().orElse("<unknown>") + ":8080";
+		log.info("Web console is available at: {}", webConsoleUrl);
+	}
+
+	public Collection<Arena> getArenas() {
+		return arenas.values();
+	}
+
+	public Arena getDefaultArena() {
+		return defaultArena;
+	}
+
+	// null selects the default arena
+	public Arena getArena(String id) {
+		if (id == null) {
+			return defaultArena;
+		}
+		Arena arena = arenas.get(id);
+		if (arena == null) {
+			throw new NoSuchElementException("Arena not found: " + id);
+		}
+		return arena;
+	}
+}
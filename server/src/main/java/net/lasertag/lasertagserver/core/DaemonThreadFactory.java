@@ -1,19 +1,33 @@
 package net.lasertag.lasertagserver.core;
 
+import org.slf4j.MDC;
+
+import java.util.Map;
 import java.util.concurrent.ThreadFactory;
 
 public class DaemonThreadFactory implements ThreadFactory {
 
 	private final String name;
+	private final Map<String, String> mdc;
 	private int counter = 0;
 
 	public DaemonThreadFactory(String name) {
+		this(name, Map.of());
+	}
+
+	// Threads created here carry the given MDC, e.g. the arena id used to route SSE log lines
+	public DaemonThreadFactory(String name, Map<String, String> mdc) {
 		this.name = name;
+		this.mdc = mdc;
 	}
 
 	@Override
 	public Thread newThread(Runnable r) {
-		Thread t = new Thread(r);
+		Runnable task = mdc.isEmpty() ? r : () -> {
+			MDC.setContextMap(mdc);
+			r.run();
+		};
+		Thread t = new Thread(task);
 		t.setDaemon(true);
 		t.setName(name + (++counter));
 		return t;
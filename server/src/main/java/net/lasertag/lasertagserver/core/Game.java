@@ -1,22 +1,22 @@
 package net.lasertag.lasertagserver.core;
 
 import lombok.Getter;
+import lombok.Setter;
 import net.lasertag.lasertagserver.model.*;
 import net.lasertag.lasertagserver.web.SseEventService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.stereotype.Component;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-@Component
 @Getter
 public class Game implements GameEventsListener {
 	private static final Logger log = LoggerFactory.getLogger(Game.class);
@@ -28,21 +28,32 @@ public class Game implements GameEventsListener {
 	private final UdpServer udpServer;
 	private final SseEventService sseEventService;
 	private final GameSettings gameSettings;
-	private final ScheduledExecutorService scheduler =
-		Executors.newScheduledThreadPool(2, new DaemonThreadFactory("DaemonScheduler"));
+	private final GameEventLog eventLog;
+	// The arena's game thread; all methods of this class are expected to run on it
+	private final GameLoop gameLoop;
 
 		
 	private volatile boolean isGamePlaying = false;
 	private int timeLeftSeconds = 0;
-
-	public Game(ActorRegistry actorRegistry, UdpServer udpServer, 
-				SseEventService sseEventService, GameSettings gameSettings) {
+	// Replaced, never changed, by the game thread; the only game state other threads should read
+	private volatile GameSnapshot snapshot;
+	// When set, stats and console refreshes wait for the next broadcast tick, see flushBroadcasts
+	@Setter
+	private boolean coalesceBroadcasts;
+	private boolean statsPending;
+	private boolean statsWithNames;
+	private boolean consolePending;
+
+	public Game(ActorRegistry actorRegistry, UdpServer udpServer, SseEventService sseEventService,
+				GameSettings gameSettings, GameEventLog eventLog, GameLoop gameLoop) {
 		this.actorRegistry = actorRegistry;
 		this.udpServer = udpServer;
 		this.sseEventService = sseEventService;
 		this.gameSettings = gameSettings;
+		this.eventLog = eventLog;
+		this.gameLoop = gameLoop;
 		udpServer.setGameEventsListener(this);
-		
+		publishSnapshot();
 	}
 
 	@Override
@@ -51,11 +62,14 @@ public class Game implements GameEventsListener {
 		
 		var type = message.getTypeId();
 		if (type == MessageType.GOT_HIT.id() || type == MessageType.YOU_KILLED.id())  {
-			var hitByPlayer = actorRegistry.getPlayerById(message.getExtraValue());
-			if (type == MessageType.YOU_KILLED.id()) {
+			var hitByPlayer = (Player) actorRegistry.findActor(Actor.Type.PLAYER, message.getExtraValue());
+			if (hitByPlayer == null) {
+				// The shooter's first ping may still be on its way, possibly on another receive thread
+				log.warn("{} from {} names unknown player {}, ignored", message.getType().name(), player, message.getExtraValue());
+			} else if (type == MessageType.YOU_KILLED.id()) {
 				onPlayerKilled(player, hitByPlayer);
 			} else {
-				GameEventLog.info("Hit: {} (team {}) hit by {} (team {}) healthAfter={} damage={} timeLeft={}",
+				eventLog.info("Hit: {} (team {}) hit by {} (team {}) healthAfter={} damage={} timeLeft={}",
 					formatPlayer(player), teamName(player.getTeamId()),
 					formatPlayer(hitByPlayer), teamName(hitByPlayer.getTeamId()),
 					player.getHealth(), hitByPlayer.getDamage(), timeLeftSeconds);
@@ -68,14 +82,15 @@ public class Game implements GameEventsListener {
 		} else if (type == MessageType.GOT_FLAG.id()) {
 			onPlayerGotFlag(player, message.getExtraValue());
 		} else if (type == MessageType.RESPAWN.id()) {
-			GameEventLog.info("Respawn: {} pointId={} healthAfter={} timeLeft={}",
+			eventLog.info("Respawn: {} pointId={} healthAfter={} timeLeft={}",
 				formatPlayer(player), message.getExtraValue(), player.getHealth(), timeLeftSeconds);
 		}
 
 		if (type != MessageType.GOT_AMMO.id() && type != MessageType.GOT_HEALTH.id()) {
-			sendPlayerValuesSnapshotToAll(false);
+			markStatsPending(false);
 		}
-		refreshConsoleUI(isGamePlaying);
+		consolePending = true;
+		flushUnlessCoalescing();
 	}
 
 	private void onPlayerKilled(Player player, Player hitByPlayer) {
@@ -87,7 +102,7 @@ public class Game implements GameEventsListener {
 		udpServer.sendEventToClient(MessageType.YOU_SCORED, hitByPlayer, (byte)player.getId());
 		gameSettings.assignRespawnPoint(player);
 
-		GameEventLog.info(
+		eventLog.info(
 			"Kill: {} (team {}) killed by {} (team {}) scores={}/{} teamScores=R{}/B{} wasFlagCarrier={} assignedRespawnPoint={} timeLeft={}",
 			formatPlayer(player), teamName(player.getTeamId()),
 			formatPlayer(hitByPlayer), teamName(hitByPlayer.getTeamId()),
@@ -101,11 +116,11 @@ public class Game implements GameEventsListener {
 			var enemyFlag = actorRegistry.getFlagByTeamId(enemyTeamId);
 			udpServer.sendEventToClient(MessageType.DEVICE_STATE, enemyFlag, Messaging.FLAG_ON);
 			broadcastFlagEvent(MessageType.FLAG_LOST, player);
-			GameEventLog.info("Flag returned: {} (team {}) dropped flag timeLeft={}",
+			eventLog.info("Flag returned: {} (team {}) dropped flag timeLeft={}",
 				formatPlayer(player), teamName(player.getTeamId()), timeLeftSeconds);
 		}
 
-		var vitalScore = isTeamPlay() ? actorRegistry.getTeamScores().get(hitByPlayer.getTeamId()) : hitByPlayer.getScore();
+		var vitalScore = isTeamPlay() ? actorRegistry.getTeamScore(hitByPlayer.getTeamId()) : hitByPlayer.getScore();
 		if (vitalScore >= getSettings().getFragLimit()) {
 			eventConsoleEndGame();
 		}
@@ -114,13 +129,13 @@ public class Game implements GameEventsListener {
 	private void onPlayerGotFlag(Player player, int flagTeamId) {
 		var flagActor = actorRegistry.getFlagByTeamId(flagTeamId);
 		if (flagTeamId != player.getTeamId()) {
-			boolean someoneElseCarries = actorRegistry.streamPlayers()
-				.anyMatch(p -> p.isFlagCarrier() && p.getId() != player.getId());
+			var carrier = actorRegistry.getFlagCarrier();
+			boolean someoneElseCarries = carrier != null && carrier.getId() != player.getId();
 			if (!player.isFlagCarrier() && !someoneElseCarries) {
 				player.setFlagCarrier(true);
 				udpServer.sendEventToClient(MessageType.DEVICE_STATE, flagActor, Messaging.FLAG_OFF);
 				broadcastFlagEvent(MessageType.FLAG_TAKEN, player);
-				GameEventLog.info("Flag taken: {} (team {}) took enemy flag timeLeft={}",
+				eventLog.info("Flag taken: {} (team {}) took enemy flag timeLeft={}",
 					formatPlayer(player), teamName(player.getTeamId()), timeLeftSeconds);
 			}
 		} else if (player.isFlagCarrier()) {
@@ -130,8 +145,8 @@ public class Game implements GameEventsListener {
 			udpServer.sendEventToClient(MessageType.DEVICE_STATE, enemyFlag, Messaging.FLAG_ON);
 			actorRegistry.incrementTeamScore(player.getTeamId());
 			broadcastFlagEvent(MessageType.FLAG_CAPTURED, player);
-			var teamScore = actorRegistry.getTeamScores().get(player.getTeamId());
-			GameEventLog.info("Flag captured: {} (team {}) scored teamScore={} timeLeft={}",
+			var teamScore = actorRegistry.getTeamScore(player.getTeamId());
+			eventLog.info("Flag captured: {} (team {}) scored teamScore={} timeLeft={}",
 				formatPlayer(player), teamName(player.getTeamId()), teamScore, timeLeftSeconds);
 
 			if (teamScore >= getSettings().getFragLimit()) {
@@ -144,7 +159,7 @@ public class Game implements GameEventsListener {
 		var dispenser = (Dispenser) actorRegistry.getActorByTypeAndId(dispenserType, dispenserId);
 		udpServer.sendEventToClient(MessageType.DISPENSER_USED, dispenser);
 		udpServer.sendEventToClient(messageToPlayerType, player, (byte)dispenser.getAmount());
-		GameEventLog.info("Dispenser: {} used {} #{} amount={} playerHealth={} timeLeft={}",
+		eventLog.info("Dispenser: {} used {} #{} amount={} playerHealth={} timeLeft={}",
 			formatPlayer(player), dispenserType.name(), dispenserId, dispenser.getAmount(),
 			player.getHealth(), timeLeftSeconds);
 	}
@@ -178,14 +193,16 @@ public class Game implements GameEventsListener {
 		}
 		setIsGamePlaying(true);
 		udpServer.sendSettingsToAllDispensers();
-		sendPlayerValuesSnapshotToAll(true);
+		// Players get the fresh roster before GAME_START, not a tick later
+		markStatsPending(true);
+		flushBroadcasts();
 		actorRegistry.streamPlayers().forEach(player -> {
 			if (player.isOnline()) {
 				udpServer.sendEventToClient(MessageType.GAME_START, player, (byte) getGameType().ordinal(), (byte) getSettings().getTimeLimitMinutes());
 			}
 		});
 
-		GameEventLog.open(gameSettings.getCurrentPresetName());
+		eventLog.open(gameSettings.getCurrentPresetName());
 		logMatchHeader();
 	}
 
@@ -202,17 +219,17 @@ public class Game implements GameEventsListener {
 			? teamName(winner)
 			: Optional.ofNullable(leadPlayer).map(this::formatPlayer).orElse("none");
 
-		GameEventLog.info(
+		eventLog.info(
 			"Game end: winner={} timeLeft={} scores=[{}] teamScores=R{}/B{}",
 			winnerLabel, Math.max(timeLeftSeconds, 0),
 			formatAllScores(), actorRegistry.getRedScore(), actorRegistry.getBlueScore());
-		GameEventLog.close();
+		eventLog.close();
 
 		setIsGamePlaying(false);
 		sendAllFlagDevicesState(Messaging.FLAG_OFF);
 		udpServer.sendSettingsToAllDispensers();
 
-		scheduler.schedule(() -> {
+		gameLoop.schedule(() -> {
 			for (Player player : actorRegistry.getPlayers()) {
 				udpServer.sendEventToClient(MessageType.GAME_OVER, player, (byte)winner);
 			}
@@ -221,7 +238,7 @@ public class Game implements GameEventsListener {
 
 	@Override
 	public void refreshConsoleTable() {
-		refreshConsoleUI(isGamePlaying);
+		refreshConsoleUI();
 	}
 
 	@Override
@@ -237,11 +254,24 @@ public class Game implements GameEventsListener {
 	@Override
 	public void onPlayerOfflineDuringGame(Player player) {
 		if (isGamePlaying) {
-			GameEventLog.info("Player offline: {} timeLeft={}", formatPlayer(player), timeLeftSeconds);
+			eventLog.info("Player offline: {} timeLeft={}", formatPlayer(player), timeLeftSeconds);
+		}
+	}
+
+	// Self-registered devices gone for long are dropped; players only between games
+	public void evictIdleDevices() {
+		var evicted = actorRegistry.evictIdle(System.currentTimeMillis(), isGamePlaying);
+		if (evicted.isEmpty()) {
+			return;
+		}
+		log.info("Evicted idle devices: {}", evicted);
+		udpServer.onActorsEvicted(evicted);
+		if (evicted.stream().anyMatch(actor -> actor.getType() == Actor.Type.PLAYER)) {
+			sendPlayerValuesSnapshotToAll(true);
 		}
+		refreshConsoleUI();
 	}
 
-	@Scheduled(fixedDelay = 1000, initialDelay = 1000)
 	public void updateGameTime() {
 		if (isGamePlaying) {
 			timeLeftSeconds--;
@@ -249,6 +279,7 @@ public class Game implements GameEventsListener {
 				eventConsoleEndGame();
 				return;
 			}
+			publishSnapshot();
 			updateConsoleGameTime(timeLeftSeconds);
 		}
 	}
@@ -256,22 +287,112 @@ public class Game implements GameEventsListener {
 	private void setIsGamePlaying(boolean newState) {
 		if (isGamePlaying != newState) {
 			isGamePlaying = newState;
-			refreshConsoleUI(newState);
+			refreshConsoleUI();
 		}
 	}
 
 	private void sendPlayerValuesSnapshotToAll(boolean includeNames) {
-		udpServer.sendStatsToAll(includeNames, isGamePlaying, getGameType().ordinal(), timeLeftSeconds,
-			actorRegistry.getRedScore(), actorRegistry.getBlueScore());
+		markStatsPending(includeNames);
+		flushUnlessCoalescing();
 	}
 
+	private void markStatsPending(boolean includeNames) {
+		statsPending = true;
+		statsWithNames |= includeNames;
+	}
 
-	private void broadcastFlagEvent(MessageType flagEventType, Player player) {
-		for (Player toPlayer : actorRegistry.getPlayers()) {
-			if (toPlayer.isOnline()) {
-				udpServer.sendEventToClient(flagEventType, toPlayer, (byte) player.getId());
+	private void flushUnlessCoalescing() {
+		if (!coalesceBroadcasts) {
+			flushBroadcasts();
+		}
+	}
+
+	// One stats broadcast and one console refresh for everything that changed since the last call
+	public void flushBroadcasts() {
+		if (!statsPending && !consolePending) {
+			return;
+		}
+		var snapshot = publishSnapshot();
+		if (statsPending) {
+			udpServer.sendStatsToAll(snapshot, statsWithNames);
+		}
+		if (consolePending) {
+			sseEventService.refreshUI(snapshot);
+		}
+		statsPending = false;
+		statsWithNames = false;
+		consolePending = false;
+	}
+
+	/**
+	 * Captures the current state for readers off the game thread. Called at the end of every change
+	 * the game broadcasts; an unchanged state keeps the previous snapshot and its version.
+	 */
+	public GameSnapshot publishSnapshot() {
+		var registeredPlayers = actorRegistry.getPlayers();
+		var players = new ArrayList<PlayerState>(registeredPlayers.size());
+		for (Player player : registeredPlayers) {
+			players.add(PlayerState.of(player));
+		}
+		var playersByScore = new ArrayList<PlayerState>(players.size());
+		for (Player player : actorRegistry.getPlayersSortedByScore()) {
+			playersByScore.add(stateOf(players, player.getId()));
+		}
+		var previous = snapshot;
+		List<PlayerState> playerStates = Collections.unmodifiableList(players);
+		long playersVersion = 0;
+		if (previous != null) {
+			// Unchanged players keep their version, which the console's players stream is numbered by
+			if (previous.players().equals(playerStates)) {
+				playerStates = previous.players();
+				playersVersion = previous.playersVersion();
+			} else {
+				playersVersion = previous.version() + 1;
 			}
 		}
+		var current = new GameSnapshot(previous == null ? 0 : previous.version(), isGamePlaying, getGameType(), timeLeftSeconds,
+			Collections.unmodifiableMap(actorRegistry.getTeamScores()), actorRegistry.getRedScore(), actorRegistry.getBlueScore(),
+			playerStates, playersVersion, Collections.unmodifiableList(playersByScore),
+			Collections.unmodifiableMap(actorRegistry.getDispensersForUi(isGamePlaying, getGameType())),
+			settingsView(previous), gameSettings.getVersion());
+		if (current.equals(previous)) {
+			return previous;
+		}
+		if (previous != null) {
+			current = current.withVersion(previous.version() + 1);
+		}
+		snapshot = current;
+		return current;
+	}
+
+	// Kept as the same instance while the settings are unchanged, which also keeps comparing snapshots cheap
+	private Map<String, Object> settingsView(GameSnapshot previous) {
+		if (previous != null && previous.settingsVersion() == gameSettings.getVersion()) {
+			return previous.settings();
+		}
+		return Collections.unmodifiableMap(gameSettings.getAllSettingsWithMetadata());
+	}
+
+	// States are ordered by id like the registry's players
+	private static PlayerState stateOf(List<PlayerState> states, int id) {
+		int low = 0;
+		int high = states.size() - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (states.get(middle).id() < id) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return states.get(low);
+	}
+
+
+	private void broadcastFlagEvent(MessageType flagEventType, Player player) {
+		for (Player toPlayer : actorRegistry.getOnlinePlayers()) {
+			udpServer.sendEventToClient(flagEventType, toPlayer, (byte) player.getId());
+		}
 	}
 
 	@Override
@@ -279,20 +400,18 @@ public class Game implements GameEventsListener {
 		if (!isGamePlaying || getGameType() != GameType.CTF) {
 			return Messaging.FLAG_OFF;
 		}
-		int flagTeamId = flagActor.getId();
-		boolean carried = actorRegistry.streamPlayers()
-			.anyMatch(p -> p.isFlagCarrier() && p.getTeamId() != flagTeamId);
-		return carried ? Messaging.FLAG_OFF : Messaging.FLAG_ON;
+		return actorRegistry.isFlagCarriedFrom(flagActor.getId()) ? Messaging.FLAG_OFF : Messaging.FLAG_ON;
 	}
 
 	private void sendAllFlagDevicesState(byte state) {
-		actorRegistry.streamByType(Actor.Type.FLAG)
-			.filter(Actor::isOnline)
-			.forEach(flag -> udpServer.sendEventToClient(MessageType.DEVICE_STATE, flag, state));
+		for (Actor flag : actorRegistry.getOnlineActors(Actor.Type.FLAG)) {
+			udpServer.sendEventToClient(MessageType.DEVICE_STATE, flag, state);
+		}
 	}
 
-	private void refreshConsoleUI(boolean isPlaying) {
-		sseEventService.refreshUI(isPlaying, actorRegistry.getDispensersForUi(isPlaying, getGameType()));
+	private void refreshConsoleUI() {
+		consolePending = true;
+		flushUnlessCoalescing();
 	}
 
 	private void updateConsoleGameTime(int timeLeft) {
@@ -315,7 +434,7 @@ public class Game implements GameEventsListener {
 		GameSettingsPreset settings = getSettings();
 		var health = settings.getHealthDispenserSettings();
 		var ammo = settings.getAmmoDispenserSettings();
-		GameEventLog.info(
+		eventLog.info(
 			"Game start: preset={} gameType={} timeLimitMinutes={} fragLimit={} healthDispenser=timeout{}/amount{} ammoDispenser=timeout{}/amount{} respawnPoints={}",
 			gameSettings.getCurrentPresetName(), settings.getGameType(), settings.getTimeLimitMinutes(),
 			settings.getFragLimit(), health.getTimeout(), health.getAmount(),
@@ -323,7 +442,7 @@ public class Game implements GameEventsListener {
 
 		actorRegistry.streamPlayers()
 			.filter(Player::isOnline)
-			.forEach(p -> GameEventLog.info(
+			.forEach(p -> eventLog.info(
 				"Player loadout: id={} name={} team={} damage={} bulletsMax={}",
 				p.getId(), p.getName(), teamName(p.getTeamId()), p.getDamage(), p.getBulletsMax()));
 	}
@@ -13,24 +13,32 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
 /**
- * Per-match game event logger. Opens a dedicated file on game start and closes it on game end.
- * Messages also flow to console / server file / SSE via the GameEvents logger additivity.
+ * Per-match game event logger of one arena. Opens a dedicated file on game start and closes it on game end.
+ * Each arena logs to its own {@code GameEvents.<arenaId>} child logger, so messages also flow to
+ * console / server file / SSE via the GameEvents logger additivity.
  */
 public final class GameEventLog {
 
 	public static final String LOGGER_NAME = "GameEvents";
 
-	private static final Logger log = LoggerFactory.getLogger(LOGGER_NAME);
 	private static final DateTimeFormatter FILE_TIMESTAMP =
 		DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
 	private static final String LOGS_DIR = "logs";
 	private static final String APPENDER_NAME = "GAME_FILE";
 
-	private static FileAppender<ILoggingEvent> currentAppender;
+	private final Logger log;
+	private final String loggerName;
+	private final String filePrefix;
 
-	private GameEventLog() {}
+	private FileAppender<ILoggingEvent> currentAppender;
 
-	public static synchronized void open(String presetName) {
+	public GameEventLog(String arenaId, boolean defaultArena) {
+		this.loggerName = LOGGER_NAME + "." + arenaId;
+		this.log = LoggerFactory.getLogger(loggerName);
+		this.filePrefix = defaultArena ? "game-" : "game-" + arenaId + "-";
+	}
+
+	public synchronized void open(String presetName) {
 		close();
 		try {
 			Path logsPath = Path.of(LOGS_DIR);
@@ -38,7 +46,7 @@ public final class GameEventLog {
 
 			String sanitized = sanitizePresetName(presetName);
 			String timestamp = LocalDateTime.now().format(FILE_TIMESTAMP);
-			String filePath = logsPath.resolve("game-" + sanitized + "_" + timestamp + ".log").toString();
+			String filePath = logsPath.resolve(filePrefix + sanitized + "_" + timestamp + ".log").toString();
 
 			LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
 
@@ -54,7 +62,7 @@ public final class GameEventLog {
 			appender.setEncoder(encoder);
 			appender.start();
 
-			ch.qos.logback.classic.Logger gameLogger = context.getLogger(LOGGER_NAME);
+			ch.qos.logback.classic.Logger gameLogger = context.getLogger(loggerName);
 			gameLogger.addAppender(appender);
 			currentAppender = appender;
 
@@ -64,13 +72,13 @@ public final class GameEventLog {
 		}
 	}
 
-	public static synchronized void close() {
+	public synchronized void close() {
 		if (currentAppender == null) {
 			return;
 		}
 		try {
 			LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
-			ch.qos.logback.classic.Logger gameLogger = context.getLogger(LOGGER_NAME);
+			ch.qos.logback.classic.Logger gameLogger = context.getLogger(loggerName);
 			gameLogger.detachAppender(currentAppender);
 			currentAppender.stop();
 		} catch (Exception e) {
@@ -80,7 +88,7 @@ public final class GameEventLog {
 		}
 	}
 
-	public static void info(String format, Object... args) {
+	public void info(String format, Object... args) {
 		log.info(format, args);
 	}
 
@@ -0,0 +1,291 @@
+package net.lasertag.lasertagserver.core;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The single thread that owns an arena's game state. Any thread may hand it work through a
+ * lock-free multi-producer single-consumer queue; timers live in a heap only the loop touches.
+ * Queue depth, queue wait and run time are measured per task and published once per second.
+ */
+public class GameLoop implements Executor {
+	private static final Logger log = LoggerFactory.getLogger(GameLoop.class);
+
+	// Queued tasks run between timer checks, so a flood cannot starve the match clock
+	private static final int MAX_BATCH = 1024;
+	private static final long STATS_WINDOW_NANOS = 1_000_000_000L;
+
+	private final Thread thread;
+	private volatile boolean running = true;
+	// Set while the loop is about to park, so producers only pay for unpark when it is needed
+	private volatile boolean parked;
+
+	// Intrusive queue: producers swap the tail and link the previous node, the loop follows next from head
+	private final AtomicReference<Task> tail;
+	private Task head;
+	private final AtomicInteger depth = new AtomicInteger();
+
+	// Owned by the loop thread
+	private final PriorityQueue<Timer> timers = new PriorityQueue<>(
+		Comparator.comparingLong(Timer::getDeadline).thenComparingLong(Timer::getSeq));
+	private long timerSeq;
+	private long totalTasks;
+	private long windowStart = System.nanoTime();
+	private long windowTasks;
+	private long windowWaitNanos;
+	private long windowMaxWaitNanos;
+	private long windowMaxRunNanos;
+	private int windowPeakDepth;
+
+	private volatile Stats stats = new Stats(0, 0, 0, 0, 0, 0);
+
+	public GameLoop(ThreadFactory threadFactory) {
+		var stub = new Task(null);
+		this.head = stub;
+		this.tail = new AtomicReference<>(stub);
+		this.thread = threadFactory.newThread(this::loop);
+	}
+
+	public void start() {
+		thread.start();
+	}
+
+	// Queued work that has not run yet is dropped, submitted tasks fail with RejectedExecutionException
+	public void stop() {
+		running = false;
+		LockSupport.unpark(thread);
+	}
+
+	public boolean isLoopThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	@Override
+	public void execute(Runnable runnable) {
+		var task = new Task(runnable);
+		depth.incrementAndGet();
+		tail.getAndSet(task).next = task;
+		if (parked) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	public <T> CompletableFuture<T> submit(Callable<T> callable) {
+		var submitted = new Submitted<>(callable);
+		execute(submitted);
+		// Submitted while stopping, the loop may have rejected what was queued already
+		if (!running) {
+			submitted.reject();
+		}
+		return submitted.future;
+	}
+
+	public void schedule(Runnable runnable, long delay, TimeUnit unit) {
+		addTimer(runnable, unit.toNanos(delay), 0);
+	}
+
+	// Runs are due every period after the first; a late run does not shift the ones after it
+	public void scheduleAtFixedRate(Runnable runnable, long initialDelay, long period, TimeUnit unit) {
+		addTimer(runnable, unit.toNanos(initialDelay), unit.toNanos(period));
+	}
+
+	// The next run is due the given delay after the previous one finished
+	public void scheduleWithFixedDelay(Runnable runnable, long initialDelay, long delay, TimeUnit unit) {
+		addTimer(runnable, unit.toNanos(initialDelay), -unit.toNanos(delay));
+	}
+
+	public Map<String, Long> getDiagnostics() {
+		var current = stats;
+		Map<String, Long> diagnostics = new LinkedHashMap<>();
+		diagnostics.put("queueDepth", (long) depth.get());
+		diagnostics.put("tasksTotal", current.totalTasks());
+		diagnostics.put("tasksPerSecond", current.tasks());
+		diagnostics.put("peakQueueDepth", (long) current.peakDepth());
+		diagnostics.put("avgWaitMicros", current.avgWaitNanos() / 1000);
+		diagnostics.put("maxWaitMicros", current.maxWaitNanos() / 1000);
+		diagnostics.put("maxRunMicros", current.maxRunNanos() / 1000);
+		return diagnostics;
+	}
+
+	private void addTimer(Runnable runnable, long delayNanos, long period) {
+		var timer = new Timer(runnable, System.nanoTime() + delayNanos, period);
+		if (isLoopThread()) {
+			addTimer(timer);
+		} else {
+			execute(() -> addTimer(timer));
+		}
+	}
+
+	private void addTimer(Timer timer) {
+		timer.setSeq(timerSeq++);
+		timers.add(timer);
+	}
+
+	private void loop() {
+		while (running) {
+			long now = System.nanoTime();
+			runDueTimers(now);
+			if (now - windowStart >= STATS_WINDOW_NANOS) {
+				publishStats(now);
+			}
+			if (drain() == 0) {
+				idle();
+			}
+		}
+		rejectQueued();
+	}
+
+	private void runDueTimers(long now) {
+		Timer timer;
+		while (running && (timer = timers.peek()) != null && timer.getDeadline() <= now) {
+			timers.poll();
+			long start = System.nanoTime();
+			run(timer.getRunnable());
+			long end = System.nanoTime();
+			windowMaxRunNanos = Math.max(windowMaxRunNanos, end - start);
+			if (timer.getPeriod() != 0) {
+				timer.setDeadline(timer.getPeriod() > 0 ? timer.getDeadline() + timer.getPeriod() : end - timer.getPeriod());
+				addTimer(timer);
+			}
+		}
+	}
+
+	private int drain() {
+		int count = 0;
+		Task task;
+		while (count < MAX_BATCH && running && (task = head.next) != null) {
+			head = task;
+			var runnable = task.runnable;
+			task.runnable = null;
+			windowPeakDepth = Math.max(windowPeakDepth, depth.getAndDecrement());
+			long start = System.nanoTime();
+			run(runnable);
+			long end = System.nanoTime();
+			long wait = start - task.enqueuedNanos;
+			windowWaitNanos += wait;
+			windowMaxWaitNanos = Math.max(windowMaxWaitNanos, wait);
+			windowMaxRunNanos = Math.max(windowMaxRunNanos, end - start);
+			count++;
+		}
+		windowTasks += count;
+		totalTasks += count;
+		return count;
+	}
+
+	private void rejectQueued() {
+		Task task;
+		while ((task = head.next) != null) {
+			head = task;
+			depth.decrementAndGet();
+			if (task.runnable instanceof Submitted<?> submitted) {
+				submitted.reject();
+			}
+			task.runnable = null;
+		}
+	}
+
+	private void idle() {
+		parked = true;
+		// Re-checked after announcing the park, a producer linking a task now is bound to see the flag
+		if (head.next == null && running) {
+			var next = timers.peek();
+			if (next == null) {
+				LockSupport.park(this);
+			} else {
+				long wait = next.getDeadline() - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(this, wait);
+				}
+			}
+		}
+		parked = false;
+	}
+
+	// Errors are caught too, one failing task must not end the arena's thread
+	private void run(Runnable runnable) {
+		try {
+			runnable.run();
+		} catch (Throwable e) {
+			log.error("Error on game loop {}: {}", thread.getName(), e.getMessage(), e);
+		}
+	}
+
+	private void publishStats(long now) {
+		stats = new Stats(totalTasks, windowTasks * STATS_WINDOW_NANOS / (now - windowStart),
+			windowTasks == 0 ? 0 : windowWaitNanos / windowTasks, windowMaxWaitNanos, windowMaxRunNanos, windowPeakDepth);
+		windowStart = now;
+		windowTasks = 0;
+		windowWaitNanos = 0;
+		windowMaxWaitNanos = 0;
+		windowMaxRunNanos = 0;
+		windowPeakDepth = 0;
+	}
+
+	private static final class Task {
+		private final long enqueuedNanos = System.nanoTime();
+		private Runnable runnable;
+		private volatile Task next;
+
+		private Task(Runnable runnable) {
+			this.runnable = runnable;
+		}
+	}
+
+	private static final class Submitted<T> implements Runnable {
+		private final Callable<T> callable;
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+
+		private Submitted(Callable<T> callable) {
+			this.callable = callable;
+		}
+
+		@Override
+		public void run() {
+			try {
+				future.complete(callable.call());
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		}
+
+		private void reject() {
+			future.completeExceptionally(new RejectedExecutionException("Game loop stopped"));
+		}
+	}
+
+	@Getter
+	@Setter
+	private static final class Timer {
+		private final Runnable runnable;
+		// Positive for a fixed rate, negative for a fixed delay, zero for a single run
+		private final long period;
+		private long deadline;
+		private long seq;
+
+		private Timer(Runnable runnable, long deadline, long period) {
+			this.runnable = runnable;
+			this.deadline = deadline;
+			this.period = period;
+		}
+	}
+
+	private record Stats(long totalTasks, long tasks, long avgWaitNanos, long maxWaitNanos, long maxRunNanos, int peakDepth) {
+	}
+}
@@ -2,7 +2,6 @@ package net.lasertag.lasertagserver.core;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
-import jakarta.annotation.PostConstruct;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.lasertag.lasertagserver.model.Actor;
@@ -11,8 +10,6 @@ import net.lasertag.lasertagserver.model.Messaging;
 import net.lasertag.lasertagserver.model.Player;
 import net.lasertag.lasertagserver.model.RespawnPointColor;
 
-import org.springframework.stereotype.Component;
-
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -28,15 +25,15 @@ import java.util.Random;
 import java.util.Set;
 import java.util.stream.Stream;
 
-@Component
 @Slf4j
 public class GameSettings {
 
     private static final String PRESETS_DIR = "presets";
     private static final String JSON_EXTENSION = ".json";
-    private static final String STATE_FILE = "server-state.json";
     private static final String NEW_PRESET_NAME = "New...";
 
+    private final String stateFile;
+
     private final ObjectMapper objectMapper;
     private final ActorRegistry actorRegistry;
     private final Random random = new Random();
@@ -47,20 +44,28 @@ public class GameSettings {
     @Getter
     private String currentPresetName = NEW_PRESET_NAME;
 
+    // Game thread only, moves on every change so snapshots rebuild their settings view only then
+    @Getter
+    private long version;
+
     public Map<String, Object> getAllSettingsWithMetadata() {
         Map<String, Object> settings = new HashMap<>(current.getAllSettings());
         settings.put("presetName", currentPresetName);
         return settings;
     }
 
-    public GameSettings(ActorRegistry actorRegistry) {
+    public void changed() {
+        version++;
+    }
+
+    public GameSettings(ActorRegistry actorRegistry, String stateFile) {
         this.actorRegistry = actorRegistry;
+        this.stateFile = stateFile;
         this.objectMapper = new ObjectMapper();
         this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
         this.current = new GameSettingsPreset();
     }
 
-    @PostConstruct
     public void init() {
         loadState();
     }
@@ -93,6 +98,7 @@ public class GameSettings {
         log.info("Loaded preset from: {}", filePath.toAbsolutePath());
 
         currentPresetName = fileName;
+        changed();
         saveState();
         syncToActors();
     }
@@ -120,7 +126,7 @@ public class GameSettings {
 
     private void saveState() {
         try {
-            Path statePath = Paths.get(STATE_FILE);
+            Path statePath = Paths.get(stateFile);
             objectMapper.writeValue(statePath.toFile(), Map.of("currentPresetName", currentPresetName));
             log.info("Saved server state to: {}", statePath.toAbsolutePath());
         } catch (IOException e) {
@@ -130,7 +136,7 @@ public class GameSettings {
 
     @SuppressWarnings("unchecked")
     private void loadState() {
-        Path statePath = Paths.get(STATE_FILE);
+        Path statePath = Paths.get(stateFile);
         if (!Files.exists(statePath)) {
             log.info("No server state file found, using defaults");
             return;
@@ -241,27 +247,26 @@ public class GameSettings {
     }
 
     public void syncToActors() {
-        actorRegistry.streamPlayers().forEach(player -> {
-            GameSettingsPreset.PlayerSettings settings = current.getPlayerSettings(player.getId());
+        actorRegistry.getActors().forEach(this::syncToActor);
+    }
+
+    // Also run for devices that registered themselves, when they connect
+    public void syncToActor(Actor actor) {
+        if (actor instanceof Player player) {
+            if (current.getPlayerSettings(player.getId()) == null) {
+                changed();
+            }
+            GameSettingsPreset.PlayerSettings settings = current.getOrCreatePlayerSettings(player.getId());
             player.setName(settings.getName());
             player.setBulletsMax(settings.getBulletsMax());
             player.setDamage(settings.getDamage());
             player.setTeamId(settings.getTeamId());
-        });
-
-        actorRegistry.streamByType(Actor.Type.HEALTH).forEach(actor -> {
+        } else if (actor.getType() == Actor.Type.HEALTH || actor.getType() == Actor.Type.AMMO) {
             Dispenser dispenser = (Dispenser) actor;
-            var healthSettings = current.getHealthDispenserSettings();
-            dispenser.setDispenseTimeoutSec(healthSettings.getTimeout());
-            dispenser.setAmount(healthSettings.getAmount());
-        });
-
-        actorRegistry.streamByType(Actor.Type.AMMO).forEach(actor -> {
-            Dispenser dispenser = (Dispenser) actor;
-            var ammoSettings = current.getAmmoDispenserSettings();
-            dispenser.setDispenseTimeoutSec(ammoSettings.getTimeout());
-            dispenser.setAmount(ammoSettings.getAmount());
-        });
+            var dispenserSettings = current.getDispenserSettings(actor.getType());
+            dispenser.setDispenseTimeoutSec(dispenserSettings.getTimeout());
+            dispenser.setAmount(dispenserSettings.getAmount());
+        }
     }
 
 }
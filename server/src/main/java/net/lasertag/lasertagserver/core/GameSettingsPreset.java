@@ -77,15 +77,19 @@ public class GameSettingsPreset {
 
 	public void initDefaults() {
 		for (int i = 0; i < ActorRegistry.PLAYER_COUNT; i++) {
-			PlayerSettings settings = new PlayerSettings();
-			settings.setName("Player-%d".formatted(i));
-			settings.setDamage(10);
-			settings.setBulletsMax(40);
-			settings.setTeamId(Messaging.TEAM_YELLOW);
-			playerSettings.put(i, settings);
+			playerSettings.put(i, defaultPlayerSettings(i));
 		}
 	}
 
+	private static PlayerSettings defaultPlayerSettings(int playerId) {
+		PlayerSettings settings = new PlayerSettings();
+		settings.setName("Player-%d".formatted(playerId));
+		settings.setDamage(10);
+		settings.setBulletsMax(40);
+		settings.setTeamId(Messaging.TEAM_YELLOW);
+		return settings;
+	}
+
 	@JsonIgnore
 	public Map<String, Object> getAllSettings() {
 		Map<String, Object> allSettings = new HashMap<>();
@@ -94,7 +98,11 @@ public class GameSettingsPreset {
 		general.put("gameType", gameType.name());
 		general.put("timeLimitMinutes", timeLimitMinutes);
 		allSettings.put("general", general);
-		allSettings.put("players", getAllPlayerSettings());
+		// Copies, so the map stays a value after later edits and can be compared and serialized off the game thread
+		Map<Integer, PlayerSettings> players = new HashMap<>();
+		playerSettings.forEach((id, settings) -> players.put(id,
+			new PlayerSettings(settings.getName(), settings.getBulletsMax(), settings.getDamage(), settings.getTeamId())));
+		allSettings.put("players", players);
 		allSettings.put("dispensers", Map.of(
 			"health", Map.of(
 				"timeout", healthDispenserSettings.getTimeout(),
@@ -114,6 +122,11 @@ public class GameSettingsPreset {
 		return playerSettings.get(playerId);
 	}
 
+	// Arenas may run larger rosters than the preset was saved with
+	public PlayerSettings getOrCreatePlayerSettings(int playerId) {
+		return playerSettings.computeIfAbsent(playerId, GameSettingsPreset::defaultPlayerSettings);
+	}
+
 	@JsonIgnore
 	public Map<Integer, PlayerSettings> getAllPlayerSettings() {
 		return new HashMap<>(playerSettings);
@@ -0,0 +1,35 @@
+package net.lasertag.lasertagserver.core;
+
+import net.lasertag.lasertagserver.model.PlayerState;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable state of an arena's game as of one point on the game thread. The version only moves
+ * when something in it changed, so readers can cache whatever they derive from a snapshot by version.
+ *
+ * @param players        by id
+ * @param playersVersion the version in which players last changed
+ * @param playersByScore the same players, leader first
+ * @param settings        the console's settings view, rebuilt only when settingsVersion moves
+ */
+public record GameSnapshot(long version, boolean gamePlaying, GameType gameType, int timeLeftSeconds,
+						   Map<Integer, Integer> teamScores, int redScore, int blueScore,
+						   List<PlayerState> players, long playersVersion, List<PlayerState> playersByScore,
+						   Map<String, Object> dispensers, Map<String, Object> settings, long settingsVersion) {
+
+	public GameSnapshot withVersion(long version) {
+		return new GameSnapshot(version, gamePlaying, gameType, timeLeftSeconds, teamScores, redScore, blueScore,
+			players, playersVersion, playersByScore, dispensers, settings, settingsVersion);
+	}
+
+	public PlayerState player(int id) {
+		for (PlayerState player : players) {
+			if (player.id() == id) {
+				return player;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,154 @@
+package net.lasertag.lasertagserver.core;
+
+import lombok.Getter;
+import net.lasertag.lasertagserver.model.Actor;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Token-bucket limits on datagrams entering {@link UdpServer}, per source endpoint and per actor,
+ * so one device stuck in a reboot or send loop cannot starve the others. Pings are shed before
+ * gameplay events: they may only use the upper half of a source's bucket and have their own,
+ * smaller per-actor budget. Buckets are lock-free, so receive threads only contend on the bucket
+ * of a device they both got datagrams from.
+ */
+public class IngressLimiter {
+
+	private static final double SOURCE_RATE = 40;
+	private static final double SOURCE_BURST = 80;
+	private static final double SOURCE_PING_RESERVE = SOURCE_BURST / 2;
+	private static final double ACTOR_PING_RATE = 10;
+	private static final double ACTOR_PING_BURST = 20;
+	private static final double ACTOR_EVENT_RATE = 20;
+	private static final double ACTOR_EVENT_BURST = 40;
+	// A device re-announcing itself within this window only refreshes its address
+	public static final long RECONNECT_COOLDOWN_MILLIS = 5000;
+	private static final int MAX_SOURCES = 1024;
+
+	private final Map<InetSocketAddress, TokenBucket> sources = new ConcurrentHashMap<>();
+	private final TokenBucket[] actorPings;
+	private final TokenBucket[] actorEvents;
+	private final AtomicLongArray lastConnect;
+
+	@Getter
+	private final AtomicLong shedSourcePings = new AtomicLong();
+	@Getter
+	private final AtomicLong shedSourceEvents = new AtomicLong();
+	@Getter
+	private final AtomicLong shedActorPings = new AtomicLong();
+	@Getter
+	private final AtomicLong shedActorEvents = new AtomicLong();
+	@Getter
+	private final AtomicLong suppressedReconnects = new AtomicLong();
+
+	public IngressLimiter(int actorCapacity) {
+		actorPings = new TokenBucket[actorCapacity];
+		actorEvents = new TokenBucket[actorCapacity];
+		lastConnect = new AtomicLongArray(actorCapacity);
+		for (int i = 0; i < actorCapacity; i++) {
+			actorPings[i] = new TokenBucket(ACTOR_PING_RATE, ACTOR_PING_BURST);
+			actorEvents[i] = new TokenBucket(ACTOR_EVENT_RATE, ACTOR_EVENT_BURST);
+		}
+	}
+
+	// Forgets what the previous actor in the slot used up
+	public void resetSlot(int slot) {
+		actorPings[slot].reset();
+		actorEvents[slot].reset();
+		lastConnect.set(slot, 0);
+	}
+
+	// Checked before decoding, so a flood costs one map lookup per datagram
+	public boolean admitFromSource(InetSocketAddress source, boolean ping, long nanos) {
+		var bucket = sources.get(source);
+		if (bucket == null) {
+			if (sources.size() >= MAX_SOURCES) {
+				forgetIdleSources(nanos);
+			}
+			bucket = sources.computeIfAbsent(source, key -> new TokenBucket(SOURCE_RATE, SOURCE_BURST));
+		}
+		if (bucket.tryAcquire(nanos, ping ? SOURCE_PING_RESERVE : 0)) {
+			return true;
+		}
+		(ping ? shedSourcePings : shedSourceEvents).incrementAndGet();
+		return false;
+	}
+
+	public boolean admitFromActor(Actor actor, boolean ping, long nanos) {
+		var bucket = ping ? actorPings[actor.getSlot()] : actorEvents[actor.getSlot()];
+		if (bucket.tryAcquire(nanos, 0)) {
+			return true;
+		}
+		(ping ? shedActorPings : shedActorEvents).incrementAndGet();
+		return false;
+	}
+
+	// An offline actor that comes back is always connected, this only starts its cooldown
+	public void onConnected(Actor actor, long now) {
+		lastConnect.set(actor.getSlot(), now);
+	}
+
+	// Called from the game thread only
+	public boolean admitReconnect(Actor actor, long now) {
+		if (now - lastConnect.get(actor.getSlot()) < RECONNECT_COOLDOWN_MILLIS) {
+			suppressedReconnects.incrementAndGet();
+			return false;
+		}
+		lastConnect.set(actor.getSlot(), now);
+		return true;
+	}
+
+	// A bucket that refilled completely is the same as a new one, so it can go
+	private void forgetIdleSources(long nanos) {
+		sources.values().removeIf(bucket -> bucket.isFull(nanos));
+		if (sources.size() >= MAX_SOURCES) {
+			var eldest = sources.keySet().iterator();
+			if (eldest.hasNext()) {
+				sources.remove(eldest.next());
+			}
+		}
+	}
+
+	/**
+	 * Token bucket kept as the single time at which it will be full again (GCRA), so taking a token is
+	 * one compare-and-set.
+	 */
+	private static class TokenBucket {
+		private final long nanosPerToken;
+		private final double burst;
+		// Long.MIN_VALUE: full
+		private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+
+		private TokenBucket(double ratePerSecond, double burst) {
+			this.nanosPerToken = (long) (1e9 / ratePerSecond);
+			this.burst = burst;
+		}
+
+		// Takes one token if more than reserve would be left
+		private boolean tryAcquire(long nanos, double reserve) {
+			long limit = (long) ((burst - reserve) * nanosPerToken);
+			while (true) {
+				long current = fullAt.get();
+				long next = Math.max(current, nanos) + nanosPerToken;
+				if (next - nanos > limit) {
+					return false;
+				}
+				if (fullAt.compareAndSet(current, next)) {
+					return true;
+				}
+			}
+		}
+
+		private void reset() {
+			fullAt.set(Long.MIN_VALUE);
+		}
+
+		private boolean isFull(long nanos) {
+			return fullAt.get() <= nanos;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package net.lasertag.lasertagserver.core;
+
+import net.lasertag.lasertagserver.model.Messaging;
+import net.lasertag.lasertagserver.model.Player;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Players ranked by score, kept sorted as scores change instead of sorting on every broadcast,
+ * and team scores in an array indexed by team id. Each score change costs O(log n); the leader
+ * and the sorted list are cached between changes.
+ */
+public class Leaderboard implements Player.ScoreListener {
+
+	public static final int TEAM_COUNT = Messaging.TEAM_CYAN + 1;
+	// Highest score first, then by id, the same order the roster had when sorted
+	private static final Comparator<Player> BY_SCORE = Comparator.comparingInt(Player::getScore).reversed()
+		.thenComparingInt(Player::getId);
+
+	private final TreeSet<Player> ranking = new TreeSet<>(BY_SCORE);
+	// Rebuilt from ranking on first read after a change
+	private List<Player> sorted = List.of();
+	private boolean sortedStale;
+	private Player leader;
+	private boolean leaderTied;
+
+	private final int[] teamScores = new int[TEAM_COUNT];
+	// Teams taking part in the current game, reported even while at zero
+	private final boolean[] teamInPlay = new boolean[TEAM_COUNT];
+
+	public synchronized void add(Player player) {
+		ranking.add(player);
+		rankingChanged();
+	}
+
+	public synchronized void remove(Player player) {
+		ranking.remove(player);
+		rankingChanged();
+	}
+
+	@Override
+	public synchronized void updateScore(Player player, Runnable update) {
+		boolean ranked = ranking.remove(player);
+		update.run();
+		if (ranked) {
+			ranking.add(player);
+			rankingChanged();
+		}
+	}
+
+	private void rankingChanged() {
+		sortedStale = true;
+		if (ranking.isEmpty()) {
+			leader = null;
+			leaderTied = false;
+			return;
+		}
+		leader = ranking.first();
+		var second = ranking.higher(leader);
+		leaderTied = second != null && second.getScore() == leader.getScore();
+	}
+
+	public synchronized List<Player> getSorted() {
+		if (sortedStale) {
+			sorted = List.copyOf(ranking);
+			sortedStale = false;
+		}
+		return sorted;
+	}
+
+	public List<Player> getTop(int count) {
+		var sorted = getSorted();
+		return sorted.subList(0, Math.min(count, sorted.size()));
+	}
+
+	// The single best player, null while nobody leads alone
+	public synchronized Player getLeader() {
+		return leaderTied ? null : leader;
+	}
+
+	public synchronized boolean isLeaderTied() {
+		return leaderTied;
+	}
+
+	public synchronized void resetTeams(List<Player> players) {
+		for (int team = 0; team < TEAM_COUNT; team++) {
+			teamScores[team] = 0;
+			teamInPlay[team] = false;
+		}
+		for (Player player : players) {
+			if (isTeam(player.getTeamId())) {
+				teamInPlay[player.getTeamId()] = true;
+			}
+		}
+	}
+
+	public synchronized void incrementTeamScore(int teamId) {
+		if (isTeam(teamId)) {
+			teamScores[teamId]++;
+			teamInPlay[teamId] = true;
+		}
+	}
+
+	public synchronized int getTeamScore(int teamId) {
+		return isTeam(teamId) ? teamScores[teamId] : 0;
+	}
+
+	// The single best team in play, -1 on a tie or without teams
+	public synchronized int getLeadTeam() {
+		int lead = -1;
+		boolean tied = false;
+		for (int team = 0; team < TEAM_COUNT; team++) {
+			if (!teamInPlay[team]) {
+				continue;
+			}
+			if (lead < 0 || teamScores[team] > teamScores[lead]) {
+				lead = team;
+				tied = false;
+			} else if (teamScores[team] == teamScores[lead]) {
+				tied = true;
+			}
+		}
+		return tied ? -1 : lead;
+	}
+
+	// Teams in play, highest score first, for the console
+	public synchronized LinkedHashMap<Integer, Integer> getTeamScores() {
+		var result = new LinkedHashMap<Integer, Integer>();
+		boolean[] added = new boolean[TEAM_COUNT];
+		for (int i = 0; i < TEAM_COUNT; i++) {
+			int best = -1;
+			for (int team = 0; team < TEAM_COUNT; team++) {
+				if (teamInPlay[team] && !added[team] && (best < 0 || teamScores[team] > teamScores[best])) {
+					best = team;
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			added[best] = true;
+			result.put(best, teamScores[best]);
+		}
+		return result;
+	}
+
+	private static boolean isTeam(int teamId) {
+		return teamId >= 0 && teamId < TEAM_COUNT;
+	}
+}
@@ -0,0 +1,101 @@
+package net.lasertag.lasertagserver.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Hashed timing wheel of actor liveness deadlines, indexed by actor slot. A ping only stores the
+ * new deadline of its slot (and queues the slot once if it was not tracked). The owning thread
+ * advances one bucket per tick and lazily moves slots whose deadline was pushed back, so each tick
+ * costs the same however many devices are connected.
+ */
+public class LivenessWheel {
+
+	public static final long TICK_MILLIS = 100;
+	// 25.6 s, longer than any liveness timeout; farther deadlines just wrap around once more
+	private static final int WHEEL_SIZE = 256;
+	private static final int NONE = -1;
+
+	private final AtomicLongArray deadlines;
+	private final AtomicIntegerArray armed;
+	private final ConcurrentLinkedQueue<Integer> arming = new ConcurrentLinkedQueue<>();
+	private final IntConsumer onExpired;
+
+	// Owned by the thread calling advance: intrusive bucket lists over slots
+	private final int[] bucketHeads = new int[WHEEL_SIZE];
+	private final int[] next;
+	private long currentTick = NONE;
+
+	public LivenessWheel(int capacity, IntConsumer onExpired) {
+		this.deadlines = new AtomicLongArray(capacity);
+		this.armed = new AtomicIntegerArray(capacity);
+		this.next = new int[capacity];
+		this.onExpired = onExpired;
+		Arrays.fill(bucketHeads, NONE);
+	}
+
+	// Safe from any thread
+	public void touch(int slot, long deadline) {
+		deadlines.set(slot, deadline);
+		if (armed.compareAndSet(slot, 0, 1)) {
+			arming.offer(slot);
+		}
+	}
+
+	// Drops the deadline of a slot, a tracked slot then expires on its next visit
+	public void forget(int slot) {
+		deadlines.set(slot, 0);
+	}
+
+	// Runs expired slots through the callback; must always be called from the same thread
+	public void advance(long now) {
+		long targetTick = now / TICK_MILLIS;
+		if (currentTick == NONE) {
+			currentTick = targetTick - 1;
+		}
+		Integer slot;
+		while ((slot = arming.poll()) != null) {
+			insert(slot, deadlines.get(slot));
+		}
+		while (currentTick < targetTick) {
+			currentTick++;
+			int bucket = (int) (currentTick % WHEEL_SIZE);
+			int current = bucketHeads[bucket];
+			bucketHeads[bucket] = NONE;
+			while (current != NONE) {
+				int following = next[current];
+				expireOrReinsert(current, now);
+				current = following;
+			}
+		}
+	}
+
+	private void expireOrReinsert(int slot, long now) {
+		long deadline = deadlines.get(slot);
+		if (deadline > now) {
+			insert(slot, deadline);
+			return;
+		}
+		armed.set(slot, 0);
+		// A ping racing with the expiry either sees the slot unarmed and queues it, or is seen here
+		deadline = deadlines.get(slot);
+		if (deadline > now) {
+			if (armed.compareAndSet(slot, 0, 1)) {
+				insert(slot, deadline);
+			}
+			return;
+		}
+		onExpired.accept(slot);
+	}
+
+	private void insert(int slot, long deadline) {
+		long tick = Math.max((deadline + TICK_MILLIS - 1) / TICK_MILLIS, currentTick + 1);
+		tick = Math.min(tick, currentTick + WHEEL_SIZE - 1);
+		int bucket = (int) (tick % WHEEL_SIZE);
+		next[slot] = bucketHeads[bucket];
+		bucketHeads[bucket] = slot;
+	}
+}
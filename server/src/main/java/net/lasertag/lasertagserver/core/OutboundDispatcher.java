@@ -0,0 +1,280 @@
+package net.lasertag.lasertagserver.core;
+
+import lombok.Getter;
+import net.lasertag.lasertagserver.model.MessageType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbound stage of {@link UdpServer}. Callers only enqueue; one sender thread drains a bounded
+ * queue per destination, serving critical events before stats and acks. Stats (full or delta) still
+ * queued for a destination are replaced by the newer ones with the same key instead of being sent
+ * twice; a device has one key, a multicast group one per kind of stats datagram sent to it.
+ * Destinations nothing was queued for in {@link #IDLE_MILLIS} are dropped once they are empty.
+ */
+public class OutboundDispatcher {
+	private static final Logger log = LoggerFactory.getLogger(OutboundDispatcher.class);
+
+	public static final int CRITICAL_CAPACITY = 64;
+	public static final int BULK_CAPACITY = 32;
+	public static final int STATS_CAPACITY = 8;
+	// Well past the device timeouts, so only addresses that left or changed are dropped
+	public static final long IDLE_MILLIS = 30_000;
+
+	public enum Priority {
+		CRITICAL,
+		STATS,
+		BULK
+	}
+
+	@FunctionalInterface
+	public interface DatagramSender {
+		// False when the datagram could not be sent
+		boolean send(InetSocketAddress destination, byte[] bytes);
+	}
+
+	private final int port;
+	private final DatagramSender sender;
+	// Guarded by lock, like the queues of each destination
+	private final Map<InetAddress, Destination> destinations = new HashMap<>();
+	private final ArrayDeque<Destination> criticalReady = new ArrayDeque<>();
+	private final ArrayDeque<Destination> bulkReady = new ArrayDeque<>();
+	private final Object lock = new Object();
+
+	@Getter
+	private final AtomicLong droppedCritical = new AtomicLong();
+	@Getter
+	private final AtomicLong droppedBulk = new AtomicLong();
+	@Getter
+	private final AtomicLong coalescedStats = new AtomicLong();
+
+	private volatile boolean running;
+	private Thread thread;
+
+	public OutboundDispatcher(int port, DatagramSender sender) {
+		this.port = port;
+		this.sender = sender;
+	}
+
+	public static Priority priorityOf(MessageType type) {
+		if (type.id() == MessageType.FULL_STATS.id() || type.id() == MessageType.STATS_DELTA.id()) {
+			return Priority.STATS;
+		}
+		if (type.id() == MessageType.PING.id() || type.id() == MessageType.DISPENSER_SET_TIMEOUT.id()) {
+			return Priority.BULK;
+		}
+		return Priority.CRITICAL;
+	}
+
+	public void start(String threadName) {
+		running = true;
+		thread = new DaemonThreadFactory(threadName).newThread(this::sendLoop);
+		thread.start();
+	}
+
+	public void stop() {
+		running = false;
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+	}
+
+	public void enqueue(InetAddress ip, byte[] bytes, Priority priority) {
+		if (priority == Priority.STATS) {
+			enqueueStats(ip, bytes, 0, null);
+			return;
+		}
+		if (ip == null) {
+			return;
+		}
+		synchronized (lock) {
+			var destination = destination(ip);
+			switch (priority) {
+				case CRITICAL -> {
+					if (destination.critical.size() >= CRITICAL_CAPACITY) {
+						destination.critical.pollFirst();
+						droppedCritical.incrementAndGet();
+						log.warn("Outbound critical queue full for {}, dropped oldest event", ip);
+					}
+					destination.critical.addLast(bytes);
+					if (!destination.inCriticalReady) {
+						destination.inCriticalReady = true;
+						criticalReady.addLast(destination);
+					}
+				}
+				case STATS -> throw new IllegalArgumentException("Stats are queued by enqueueStats");
+				case BULK -> {
+					if (destination.bulk.size() >= BULK_CAPACITY) {
+						destination.bulk.pollFirst();
+						droppedBulk.incrementAndGet();
+					}
+					destination.bulk.addLast(bytes);
+					scheduleBulk(destination);
+				}
+			}
+			lock.notify();
+		}
+	}
+
+	/**
+	 * Queues stats for ip, replacing those still queued under the same key. onSent, when given, runs on
+	 * the sender thread once the datagram went out, not when it was replaced or dropped.
+	 */
+	public void enqueueStats(InetAddress ip, byte[] bytes, int key, Runnable onSent) {
+		if (ip == null) {
+			return;
+		}
+		synchronized (lock) {
+			var destination = destination(ip);
+			StatsSlot slot = null;
+			for (StatsSlot queued : destination.stats) {
+				if (queued.key == key) {
+					slot = queued;
+					coalescedStats.incrementAndGet();
+					break;
+				}
+			}
+			if (slot == null) {
+				if (destination.stats.size() >= STATS_CAPACITY) {
+					destination.freeStats.addLast(destination.stats.pollFirst().clear());
+					coalescedStats.incrementAndGet();
+				}
+				slot = destination.freeStats.isEmpty() ? new StatsSlot() : destination.freeStats.pollFirst();
+				slot.key = key;
+				destination.stats.addLast(slot);
+			}
+			slot.bytes = bytes;
+			slot.onSent = onSent;
+			scheduleBulk(destination);
+			lock.notify();
+		}
+	}
+
+	public int getQueuedCount() {
+		synchronized (lock) {
+			int count = 0;
+			for (Destination destination : destinations.values()) {
+				count += destination.critical.size() + destination.bulk.size() + destination.stats.size();
+			}
+			return count;
+		}
+	}
+
+	// Drops the queues of addresses nothing was sent to recently, e.g. of evicted or readdressed devices
+	public void removeIdle(long now) {
+		synchronized (lock) {
+			destinations.values().removeIf(destination -> now - destination.lastEnqueuedAt > IDLE_MILLIS
+				&& !destination.inCriticalReady && !destination.inBulkReady);
+		}
+	}
+
+	public int getDestinationCount() {
+		synchronized (lock) {
+			return destinations.size();
+		}
+	}
+
+	// Under lock
+	private Destination destination(InetAddress ip) {
+		var destination = destinations.get(ip);
+		if (destination == null) {
+			destination = new Destination(new InetSocketAddress(ip, port));
+			destinations.put(ip, destination);
+		}
+		destination.lastEnqueuedAt = System.currentTimeMillis();
+		return destination;
+	}
+
+	private void scheduleBulk(Destination destination) {
+		if (!destination.inBulkReady) {
+			destination.inBulkReady = true;
+			bulkReady.addLast(destination);
+		}
+	}
+
+	private void sendLoop() {
+		while (running) {
+			InetSocketAddress address;
+			byte[] bytes;
+			Runnable onSent = null;
+			synchronized (lock) {
+				while (running && criticalReady.isEmpty() && bulkReady.isEmpty()) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				if (!running) {
+					return;
+				}
+				Destination destination;
+				if (!criticalReady.isEmpty()) {
+					destination = criticalReady.pollFirst();
+					bytes = destination.critical.pollFirst();
+					if (destination.critical.isEmpty()) {
+						destination.inCriticalReady = false;
+					} else {
+						criticalReady.addLast(destination);
+					}
+				} else {
+					destination = bulkReady.pollFirst();
+					var slot = destination.stats.pollFirst();
+					if (slot != null) {
+						bytes = slot.bytes;
+						onSent = slot.onSent;
+						destination.freeStats.addLast(slot.clear());
+					} else {
+						bytes = destination.bulk.pollFirst();
+					}
+					if (destination.stats.isEmpty() && destination.bulk.isEmpty()) {
+						destination.inBulkReady = false;
+					} else {
+						bulkReady.addLast(destination);
+					}
+				}
+				address = destination.address;
+			}
+			if (sender.send(address, bytes) && onSent != null) {
+				onSent.run();
+			}
+		}
+	}
+
+	private static class Destination {
+		private final InetSocketAddress address;
+		private final ArrayDeque<byte[]> critical = new ArrayDeque<>(CRITICAL_CAPACITY);
+		private final ArrayDeque<byte[]> bulk = new ArrayDeque<>(BULK_CAPACITY);
+		// Queued stats, at most one per key, and emptied slots for reuse
+		private final ArrayDeque<StatsSlot> stats = new ArrayDeque<>();
+		private final ArrayDeque<StatsSlot> freeStats = new ArrayDeque<>();
+		private boolean inCriticalReady;
+		private boolean inBulkReady;
+		private long lastEnqueuedAt;
+
+		private Destination(InetSocketAddress address) {
+			this.address = address;
+		}
+	}
+
+	private static class StatsSlot {
+		private int key;
+		private byte[] bytes;
+		private Runnable onSent;
+
+		private StatsSlot clear() {
+			bytes = null;
+			onSent = null;
+			return this;
+		}
+	}
+}
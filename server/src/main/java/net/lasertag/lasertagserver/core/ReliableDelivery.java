@@ -0,0 +1,218 @@
+package net.lasertag.lasertagserver.core;
+
+import lombok.Getter;
+import net.lasertag.lasertagserver.model.MessageType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static net.lasertag.lasertagserver.model.Messaging.*;
+
+/**
+ * Optional reliability for critical events to players whose ping advertises support. Events are
+ * wrapped as RELIABLE with a per-player sequence and retransmitted until the device acks them in a
+ * ping, with the timeout derived from measured round trips (RFC 6298). Device events carrying a
+ * sequence pass a duplicate window and are acked in the ping reply.
+ */
+public class ReliableDelivery {
+	private static final Logger log = LoggerFactory.getLogger(ReliableDelivery.class);
+
+	public static final long TICK_MILLIS = 20;
+	public static final long MIN_RTO_MILLIS = 50;
+	public static final long MAX_RTO_MILLIS = 2000;
+	public static final long INITIAL_RTO_MILLIS = 500;
+	// A device that stopped acking does not make the server hold events forever
+	private static final int MAX_PENDING = 64;
+
+	private final int maxRetries;
+	private final Peer[] peers = new Peer[256];
+
+	@Getter
+	private final AtomicLong retransmitted = new AtomicLong();
+	@Getter
+	private final AtomicLong expired = new AtomicLong();
+	@Getter
+	private final AtomicLong duplicates = new AtomicLong();
+
+	public ReliableDelivery(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	public boolean isCapable(int playerId) {
+		var peer = peers[playerId & 0xFF];
+		return peer != null && peer.capable;
+	}
+
+	public void onPing(int playerId, boolean firstEver, byte pingFlags, int ack, int bits, long now) {
+		var peer = peer(playerId);
+		synchronized (peer) {
+			if (firstEver) {
+				// The app restarted: its event sequence starts over and it holds none of ours
+				peer.window.reset();
+				peer.pending.clear();
+			}
+			peer.capable = (pingFlags & PING_FLAG_RELIABLE) != 0;
+			if ((pingFlags & PING_FLAG_ACK) != 0) {
+				peer.acknowledge(ack, now);
+				for (int i = 0; i < 32; i++) {
+					if ((bits & 1 << i) != 0) {
+						peer.acknowledge((ack - 1 - i) & 0xFFFF, now);
+					}
+				}
+			}
+		}
+	}
+
+	public byte[] wrap(int playerId, byte[] bytes, long now) {
+		var peer = peer(playerId);
+		synchronized (peer) {
+			int seq = peer.nextSeq;
+			peer.nextSeq = (seq + 1) & 0xFFFF;
+			var wrapped = new byte[3 + bytes.length];
+			wrapped[0] = MessageType.RELIABLE.id();
+			wrapped[1] = (byte) seq;
+			wrapped[2] = (byte) (seq >> 8);
+			System.arraycopy(bytes, 0, wrapped, 3, bytes.length);
+			if (peer.pending.size() >= MAX_PENDING) {
+				var oldest = peer.pending.keySet().iterator();
+				oldest.next();
+				oldest.remove();
+				expired.incrementAndGet();
+			}
+			peer.pending.put(seq, new Pending(wrapped, now, now + peer.rto));
+			return wrapped;
+		}
+	}
+
+	// False for a device event that was already processed
+	public boolean acceptEvent(int playerId, int seq) {
+		var peer = peer(playerId);
+		synchronized (peer) {
+			if (peer.window.accept(seq)) {
+				return true;
+			}
+		}
+		duplicates.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Ping reply carrying the selective ack of the device's events: [PING, flags, ackLo, ackHi, bits x4],
+	 * followed by the stats multicast group when one is given.
+	 */
+	public byte[] ackBytes(int playerId, byte[] multicastGroup) {
+		var peer = peer(playerId);
+		synchronized (peer) {
+			var bytes = new byte[multicastGroup == null ? 8 : 8 + multicastGroup.length];
+			bytes[0] = MessageType.PING.id();
+			if (multicastGroup != null) {
+				System.arraycopy(multicastGroup, 0, bytes, 8, multicastGroup.length);
+			}
+			byte groupFlag = multicastGroup == null ? 0 : PING_FLAG_MULTICAST;
+			if (peer.window.isEmpty()) {
+				bytes[1] = (byte) (PING_FLAG_RELIABLE | groupFlag);
+				return bytes;
+			}
+			int ack = peer.window.highest();
+			int bits = peer.window.ackBits();
+			bytes[1] = (byte) (PING_FLAG_RELIABLE | PING_FLAG_ACK | groupFlag);
+			bytes[2] = (byte) ack;
+			bytes[3] = (byte) (ack >> 8);
+			bytes[4] = (byte) bits;
+			bytes[5] = (byte) (bits >> 8);
+			bytes[6] = (byte) (bits >> 16);
+			bytes[7] = (byte) (bits >> 24);
+			return bytes;
+		}
+	}
+
+	public void retransmitDue(long now, BiConsumer<Integer, byte[]> resend) {
+		for (int playerId = 0; playerId < peers.length; playerId++) {
+			var peer = peers[playerId];
+			if (peer == null) {
+				continue;
+			}
+			synchronized (peer) {
+				Iterator<Pending> iterator = peer.pending.values().iterator();
+				while (iterator.hasNext()) {
+					var pending = iterator.next();
+					if (now < pending.deadline) {
+						continue;
+					}
+					if (pending.retries >= maxRetries) {
+						iterator.remove();
+						expired.incrementAndGet();
+						log.warn("Player {} did not ack reliable event type={} after {} retries", playerId, pending.bytes[3], maxRetries);
+						continue;
+					}
+					pending.retries++;
+					pending.deadline = now + Math.min(MAX_RTO_MILLIS, peer.rto << pending.retries);
+					retransmitted.incrementAndGet();
+					resend.accept(playerId, pending.bytes);
+				}
+			}
+		}
+	}
+
+	// Drops everything kept for a player that left the roster, including events it never acked
+	public synchronized void forget(int playerId) {
+		peers[playerId & 0xFF] = null;
+	}
+
+	private synchronized Peer peer(int playerId) {
+		var peer = peers[playerId & 0xFF];
+		if (peer == null) {
+			peer = new Peer();
+			peers[playerId & 0xFF] = peer;
+		}
+		return peer;
+	}
+
+	private static class Peer {
+		private final SequenceWindow window = new SequenceWindow();
+		private final Map<Integer, Pending> pending = new LinkedHashMap<>();
+		private volatile boolean capable;
+		private int nextSeq;
+		private double srtt = -1;
+		private double rttvar;
+		private long rto = INITIAL_RTO_MILLIS;
+
+		private void acknowledge(int seq, long now) {
+			var acked = pending.remove(seq);
+			// Karn's rule: only first transmissions give an unambiguous round trip
+			if (acked != null && acked.retries == 0) {
+				sampleRtt(now - acked.firstSent);
+			}
+		}
+
+		private void sampleRtt(long rtt) {
+			if (srtt < 0) {
+				srtt = rtt;
+				rttvar = rtt / 2.0;
+			} else {
+				rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rtt);
+				srtt = 0.875 * srtt + 0.125 * rtt;
+			}
+			rto = Math.max(MIN_RTO_MILLIS, Math.min(MAX_RTO_MILLIS, (long) (srtt + Math.max(TICK_MILLIS, 4 * rttvar))));
+		}
+	}
+
+	private static class Pending {
+		private final byte[] bytes;
+		private final long firstSent;
+		private long deadline;
+		private int retries;
+
+		private Pending(byte[] bytes, long firstSent, long deadline) {
+			this.bytes = bytes;
+			this.firstSent = firstSent;
+			this.deadline = deadline;
+		}
+	}
+}
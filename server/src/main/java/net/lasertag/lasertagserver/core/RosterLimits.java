@@ -0,0 +1,15 @@
+package net.lasertag.lasertagserver.core;
+
+/**
+ * Bounds on the devices an arena registers by itself, from the {@code lasertag.roster.*} properties.
+ * The players configured for the arena are always kept; devices beyond them register on their
+ * first ping while below these limits.
+ *
+ * @param maxPlayers           players in the roster, configured ones included
+ * @param maxDispensersPerType health and ammo dispensers each
+ * @param evictIdleMillis      self-registered devices offline this long are dropped, 0 keeps them
+ */
+public record RosterLimits(int maxPlayers, int maxDispensersPerType, long evictIdleMillis) {
+
+	public static final RosterLimits DEFAULT = new RosterLimits(64, 16, 30 * 60_000L);
+}
@@ -0,0 +1,58 @@
+package net.lasertag.lasertagserver.core;
+
+/**
+ * Receive window over the last 64 16-bit sequence numbers of one sender, used to drop duplicates
+ * and to build selective acks: the highest sequence seen plus a bitmap of the 32 before it.
+ */
+public class SequenceWindow {
+
+	private int highest = -1;
+	private long received;
+
+	/**
+	 * True the first time a sequence is seen, false for duplicates. A sequence far behind the window
+	 * means the sender restarted its numbering, so the window starts over from it.
+	 */
+	public boolean accept(int seq) {
+		if (highest < 0) {
+			highest = seq;
+			received = 1;
+			return true;
+		}
+		int diff = (short) (seq - highest);
+		if (diff > 0) {
+			received = diff >= 64 ? 1 : received << diff | 1;
+			highest = seq;
+			return true;
+		}
+		int back = -diff;
+		if (back >= 64) {
+			highest = seq;
+			received = 1;
+			return true;
+		}
+		if ((received & 1L << back) != 0) {
+			return false;
+		}
+		received |= 1L << back;
+		return true;
+	}
+
+	public boolean isEmpty() {
+		return highest < 0;
+	}
+
+	public int highest() {
+		return highest;
+	}
+
+	// Bit i set when highest - 1 - i was received
+	public int ackBits() {
+		return (int) (received >>> 1);
+	}
+
+	public void reset() {
+		highest = -1;
+		received = 0;
+	}
+}
@@ -0,0 +1,87 @@
+package net.lasertag.lasertagserver.core;
+
+import net.lasertag.lasertagserver.model.PlayerState;
+import net.lasertag.lasertagserver.model.StatsFrame;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static net.lasertag.lasertagserver.model.Messaging.NO_STATS_SEQ;
+import static net.lasertag.lasertagserver.model.Messaging.STATS_ACK_UNSUPPORTED;
+
+/**
+ * Remembers recently sent stats frames and the last frame each player acknowledged in its ping,
+ * so stats can be sent as a delta against that frame. Sent keyframes are confirmed on the outbound
+ * sender thread; everything else, acks included, runs on the arena game thread.
+ */
+public class StatsDeltaTracker {
+
+	public static final int HISTORY_SIZE = 128;
+	public static final long KEYFRAME_INTERVAL_MILLIS = 5000;
+
+	private final StatsFrame[] history = new StatsFrame[HISTORY_SIZE];
+	private final int[] ackByPlayerId = new int[256];
+	private final AtomicLongArray lastKeyframeByPlayerId = new AtomicLongArray(256);
+
+	// Random start, so a client still holding frames of a previous server run does not match them
+	private int nextSeq = ThreadLocalRandom.current().nextInt(NO_STATS_SEQ);
+	private int rosterVersion;
+	private StatsFrame latest;
+
+	public StatsDeltaTracker() {
+		Arrays.fill(ackByPlayerId, STATS_ACK_UNSUPPORTED);
+	}
+
+	public void onPing(int playerId, int statsAck) {
+		ackByPlayerId[playerId & 0xFF] = statsAck;
+	}
+
+	public boolean isDeltaCapable(int playerId) {
+		return ackByPlayerId[playerId & 0xFF] != STATS_ACK_UNSUPPORTED;
+	}
+
+	public StatsFrame record(List<PlayerState> players) {
+		var frame = StatsFrame.of(nextSeq, rosterVersion, players);
+		if (latest != null && !frame.sameRosterAs(latest)) {
+			rosterVersion = (rosterVersion + 1) & 0xFF;
+			frame = new StatsFrame(frame.seq(), rosterVersion, frame.ids(), frame.fields(), frame.names());
+		}
+		history[frame.seq() % HISTORY_SIZE] = frame;
+		latest = frame;
+		nextSeq = (nextSeq + 1) % NO_STATS_SEQ;
+		return frame;
+	}
+
+	/**
+	 * Frame the player's next stats can be encoded against, or null when it needs a keyframe: it
+	 * holds no frame, its frame fell out of history, the roster changed since, or a keyframe is due.
+	 */
+	public StatsFrame baseFor(int playerId, StatsFrame frame, long now) {
+		int ack = ackByPlayerId[playerId & 0xFF];
+		if (ack == NO_STATS_SEQ || ack == STATS_ACK_UNSUPPORTED
+			|| now - lastKeyframeByPlayerId.get(playerId & 0xFF) >= KEYFRAME_INTERVAL_MILLIS) {
+			return null;
+		}
+		var base = history[ack % HISTORY_SIZE];
+		if (base == null || base.seq() != ack || base.rosterVersion() != frame.rosterVersion()) {
+			return null;
+		}
+		return base;
+	}
+
+	// Whether the player acked a frame of the same roster, so it holds the names and a keyframe can omit them
+	public boolean holdsRoster(int playerId, StatsFrame frame) {
+		int ack = ackByPlayerId[playerId & 0xFF];
+		if (ack == NO_STATS_SEQ || ack == STATS_ACK_UNSUPPORTED) {
+			return false;
+		}
+		var acked = history[ack % HISTORY_SIZE];
+		return acked != null && acked.seq() == ack && acked.rosterVersion() == frame.rosterVersion();
+	}
+
+	public void keyframeSent(int playerId, long now) {
+		lastKeyframeByPlayerId.set(playerId & 0xFF, now);
+	}
+}
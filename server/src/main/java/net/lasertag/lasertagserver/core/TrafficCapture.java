@@ -0,0 +1,141 @@
+package net.lasertag.lasertagserver.core;
+
+import net.lasertag.lasertagserver.model.Actor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Binary capture of every datagram an arena receives or sends, for replaying real matches with
+ * {@link net.lasertag.lasertagserver.tools.TrafficReplayer}.
+ * <p>
+ * File: magic "LTCP", version (short), capture start in epoch millis (long), then records of
+ * nanos since start (long), direction (byte), actor type ordinal or -1 (byte), unsigned actor id
+ * (byte), IPv4 address (int), length (short) and the datagram bytes. Big-endian throughout.
+ */
+public class TrafficCapture implements Closeable {
+	private static final Logger log = LoggerFactory.getLogger(TrafficCapture.class);
+
+	public static final int MAGIC = 0x4C544350;
+	public static final short VERSION = 1;
+	public static final byte INBOUND = 0;
+	public static final byte OUTBOUND = 1;
+	// Actor type, and id when read back, of datagrams from or to a sender that was not registered
+	public static final int NO_ACTOR = -1;
+	private static final long FLUSH_INTERVAL_NANOS = 1_000_000_000L;
+
+	private final DataOutputStream out;
+	private final long startNanos = System.nanoTime();
+	private long lastFlush = startNanos;
+	// Set once writing failed or the capture was closed
+	private boolean failed;
+
+	public TrafficCapture(Path file) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeLong(System.currentTimeMillis());
+		log.info("Capturing UDP traffic to {}", file.toAbsolutePath());
+	}
+
+	// Called from the receive and sender threads
+	public synchronized void record(byte direction, InetAddress ip, Actor actor, byte[] data, int length) {
+		if (failed) {
+			return;
+		}
+		try {
+			long now = System.nanoTime();
+			out.writeLong(now - startNanos);
+			out.writeByte(direction);
+			out.writeByte(actor != null ? actor.getType().ordinal() : NO_ACTOR);
+			out.writeByte(actor != null ? actor.getId() : 0);
+			out.writeInt(ip instanceof Inet4Address ? toInt(ip.getAddress()) : 0);
+			out.writeShort(length);
+			out.write(data, 0, length);
+			if (now - lastFlush > FLUSH_INTERVAL_NANOS) {
+				out.flush();
+				lastFlush = now;
+			}
+		} catch (IOException e) {
+			failed = true;
+			log.error("Traffic capture stopped: {}", e.getMessage());
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		failed = true;
+		try {
+			out.close();
+		} catch (IOException e) {
+			log.warn("Error closing traffic capture: {}", e.getMessage());
+		}
+	}
+
+	private static int toInt(byte[] address) {
+		return (address[0] & 0xFF) << 24 | (address[1] & 0xFF) << 16 | (address[2] & 0xFF) << 8 | (address[3] & 0xFF);
+	}
+
+	public record Record(long nanos, byte direction, int actorType, int actorId, int ipv4, byte[] data) {
+		public boolean isInbound() {
+			return direction == INBOUND;
+		}
+	}
+
+	/**
+	 * Sequential reader of a capture file.
+	 */
+	public static class Reader implements Closeable {
+		private final DataInputStream in;
+		private final long startEpochMillis;
+
+		public Reader(Path file) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+			if (in.readInt() != MAGIC) {
+				in.close();
+				throw new IOException("Not a traffic capture: " + file);
+			}
+			short version = in.readShort();
+			if (version != VERSION) {
+				in.close();
+				throw new IOException("Unsupported capture version " + version + ": " + file);
+			}
+			this.startEpochMillis = in.readLong();
+		}
+
+		public long getStartEpochMillis() {
+			return startEpochMillis;
+		}
+
+		// null at the end of the file, also when the last record was cut short by a crash
+		public Record next() throws IOException {
+			try {
+				long nanos = in.readLong();
+				byte direction = in.readByte();
+				int actorType = in.readByte();
+				int actorId = in.readUnsignedByte();
+				if (actorType == NO_ACTOR) {
+					actorId = NO_ACTOR;
+				}
+				int ipv4 = in.readInt();
+				var data = new byte[in.readUnsignedShort()];
+				in.readFully(data);
+				return new Record(nanos, direction, actorType, actorId, ipv4, data);
+			} catch (EOFException e) {
+				return null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
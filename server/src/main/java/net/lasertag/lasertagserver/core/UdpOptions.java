@@ -0,0 +1,23 @@
+package net.lasertag.lasertagserver.core;
+
+import java.net.InetAddress;
+import java.nio.file.Path;
+
+/**
+ * Device protocol options shared by all arenas, from the {@code lasertag.comm.*} and
+ * {@code lasertag.capture.*} properties.
+ *
+ * @param reliable   wrap critical events to players that support it as RELIABLE and retransmit until acked
+ * @param maxRetries retransmissions of a reliable event before it is given up
+ * @param captureDir directory for {@link TrafficCapture} files, null when capture is off
+ * @param receivers  receive threads, each on its own SO_REUSEPORT socket; 1 keeps the single blocking receiver
+ * @param multicastGroup group stats are sent to once for all players that joined it, null to unicast only
+ * @param broadcastTickMillis stats and console refreshes go out at most once per tick, 0 sends them per event
+ */
+public record UdpOptions(boolean reliable, int maxRetries, Path captureDir, int receivers, InetAddress multicastGroup,
+						 long broadcastTickMillis) {
+
+	public UdpOptions withoutMulticast() {
+		return new UdpOptions(reliable, maxRetries, captureDir, receivers, null, broadcastTickMillis);
+	}
+}
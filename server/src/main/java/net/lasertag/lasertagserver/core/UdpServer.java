@@ -1,172 +1,539 @@
 package net.lasertag.lasertagserver.core;
 
-import jakarta.annotation.PostConstruct;
+import lombok.Getter;
 import lombok.Setter;
-import net.lasertag.lasertagserver.LanIpUtils;
 import net.lasertag.lasertagserver.model.*;
 
 import static net.lasertag.lasertagserver.model.Messaging.*;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.boot.context.event.ApplicationReadyEvent;
-import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
-import org.springframework.stereotype.Component;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.IOException;
 import java.net.InetAddress;
-import java.net.SocketTimeoutException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
-@Component
 public class UdpServer {
 	private static final Logger log = LoggerFactory.getLogger(UdpServer.class);
 
+	private static final int MAX_DATAGRAM_SIZE = 1472;
+	private static final int RECEIVE_BUFFER_SIZE = 64;
+	private static final byte[] ACK_BYTES = new byte[] {MessageType.PING.id()};
+	private static final Path PROC_NET_UDP = Path.of("/proc/net/udp");
+
 	@Setter
 	private GameEventsListener gameEventsListener;
+	// Records all traffic while set, see TrafficCapture
+	@Setter
+	private volatile TrafficCapture capture;
 
 	private final ActorRegistry actorRegistry;
 	private final GameSettings gameSettings;
-	private final Map<Actor, Long> lastPingTime;
+	private final LivenessWheel liveness;
+	@Getter
+	private final IngressLimiter limiter;
+	// Off only for replays compressed in time, which would otherwise trip the per-device limits
+	@Setter
+	private boolean ingressLimits = true;
 
-	private final long pingTimeout = 10000;
+	// Stats sent to the group only when it saves at least one datagram
+	private static final int MULTICAST_MIN_RECIPIENTS = 2;
+
+	// Players ping every 2 s, dispensers and flags about every 4 s: two missed pings mean offline
+	private static final long PLAYER_TIMEOUT_MILLIS = 5000;
+	private static final long DEVICE_TIMEOUT_MILLIS = 9000;
+	// Queue keys of full stats to the multicast group; deltas are keyed by their base seq
+	private static final int GROUP_KEY_FULL_STATS = -1;
+	private static final int GROUP_KEY_KEYFRAME = -2;
+	private static final int GROUP_KEY_NAMELESS_KEYFRAME = -3;
 
 	private volatile boolean running = true;
+	@Getter
 	private final int port;
 	private final int devicePort;
 
-	private final ThreadPoolTaskExecutor daemonExecutor;
+	private final ThreadFactory threadFactory;
+	// Game logic of the arena runs here, never on the receive thread
+	private final Executor gameExecutor;
+
+	// Sockets bound to the server port; the first also sends, so devices see replies from 9878
+	private final List<DatagramChannel> channels = new ArrayList<>();
+	private DatagramChannel channel;
+	private final int receivers;
+	private final List<Selector> selectors = new ArrayList<>();
+	private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+	@Getter
+	private final OutboundDispatcher outbound;
+	// Flyweight for injected datagrams; each receive thread has its own
+	private final MessageFromClient decoder = new MessageFromClient();
+	private final StatsDeltaTracker statsTracker = new StatsDeltaTracker();
+	// null when reliable delivery is disabled
+	@Getter
+	private final ReliableDelivery reliable;
+	// null when stats are unicast only; otherwise 1 per player id whose last ping said it joined the group
+	private final InetAddress multicastGroup;
+	private final AtomicIntegerArray multicastMembers = new AtomicIntegerArray(256);
+	private final byte[] multicastGroupBytes;
+	// Reply to players without reliable delivery: [PING, flags, 0 x6, group x4]
+	private final byte[] groupAckBytes;
+	private final AtomicLong multicastStats = new AtomicLong();
+	private final AtomicLong multicastSavedDatagrams = new AtomicLong();
+	// One per actor slot, see PendingPing
+	private final PendingPing[] pendingPings;
 
-	public UdpServer(ActorRegistry actorRegistry, GameSettings gameSettings, ThreadPoolTaskExecutor daemonExecutor) {
-		this.port = 9878;
+	public UdpServer(ActorRegistry actorRegistry, GameSettings gameSettings, int port, UdpOptions options,
+					 ThreadFactory threadFactory, Executor gameExecutor) {
+		this.port = port;
 		this.devicePort = 1234;
+		this.outbound = new OutboundDispatcher(devicePort, this::transmit);
 		this.actorRegistry = actorRegistry;
 		this.gameSettings = gameSettings;
-		this.daemonExecutor = daemonExecutor;
-		this.lastPingTime = new HashMap<>();
+		this.threadFactory = threadFactory;
+		this.gameExecutor = gameExecutor;
+		this.liveness = new LivenessWheel(actorRegistry.getCapacity(), this::onActorTimedOut);
+		this.limiter = new IngressLimiter(actorRegistry.getCapacity());
+		this.reliable = options.reliable() ? new ReliableDelivery(options.maxRetries()) : null;
+		this.receivers = Math.max(1, options.receivers());
+		this.multicastGroup = options.multicastGroup();
+		this.multicastGroupBytes = multicastGroup != null ? multicastGroup.getAddress() : null;
+		this.groupAckBytes = multicastGroupBytes != null ? groupAckBytes(multicastGroupBytes) : null;
+		this.pendingPings = new PendingPing[actorRegistry.getCapacity()];
+		for (int slot = 0; slot < pendingPings.length; slot++) {
+			pendingPings[slot] = new PendingPing();
+		}
+		actorRegistry.setSlotListener(this::onSlotAssigned);
 	}
 
-	@org.springframework.context.event.EventListener(ApplicationReadyEvent.class)
-	public void logLanIp() {
-		String webConsoleUrl = "http://" + LanIpUtils.findLanIp().orElse("<unknown>") + ":8080";
-		log.info("Web console is available at: {}", webConsoleUrl);
+	public void init() throws IOException {
+		channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		boolean sharded = receivers > 1 && channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+		if (receivers > 1 && !sharded) {
+			log.warn("SO_REUSEPORT is not supported here, receiving on a single thread");
+		}
+		if (sharded) {
+			channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+		}
+		channel.bind(new InetSocketAddress(port));
+		channels.add(channel);
+		outbound.start("UdpSender-" + port + "-");
+		if (multicastGroup != null) {
+			log.info("Stats to players that joined {} go to the group once", multicastGroup.getHostAddress());
+		}
+		if (!sharded) {
+			threadFactory.newThread(new Receiver(channel, null)::receiveBlocking).start();
+			return;
+		}
+		// Bound to the port the first socket got, which matters when port is 0
+		int boundPort = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+		for (int i = 1; i < receivers; i++) {
+			var shard = DatagramChannel.open(StandardProtocolFamily.INET);
+			shard.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+			shard.bind(new InetSocketAddress(boundPort));
+			channels.add(shard);
+		}
+		for (DatagramChannel shard : channels) {
+			shard.configureBlocking(false);
+			var selector = Selector.open();
+			shard.register(selector, SelectionKey.OP_READ);
+			selectors.add(selector);
+			threadFactory.newThread(new Receiver(shard, selector)::receiveBatches).start();
+		}
+		log.info("Receiving on port {} with {} SO_REUSEPORT sockets", boundPort, channels.size());
 	}
 
-	@PostConstruct
-	public void init() {
-		daemonExecutor.execute(this::startUdpServer);
-		Runtime.getRuntime().addShutdownHook(new Thread(this::stopUdpServer));
-		
-		
-	}
+	/**
+	 * Receive loop of one socket, with its own buffers and decoder. With several sockets the kernel
+	 * hashes each source address and port to one of them, so every device is always read by the same
+	 * thread and its datagrams reach the game loop in the order they arrived.
+	 */
+	private final class Receiver {
+		private final DatagramChannel channel;
+		// null for the blocking receiver
+		private final Selector selector;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+		private final byte[] bytes = new byte[RECEIVE_BUFFER_SIZE];
+		private final MessageFromClient decoder = new MessageFromClient();
 
-	private void startUdpServer() {
-		try (DatagramSocket serverSocket = new DatagramSocket(port)) {
-			serverSocket.setSoTimeout(1000);
+		private Receiver(DatagramChannel channel, Selector selector) {
+			this.channel = channel;
+			this.selector = selector;
+		}
+
+		private void receiveBlocking() {
 			log.info("Game Server started on port: {} thread: {}", port, Thread.currentThread().getName());
-			byte[] receiveBuffer = new byte[64];
 			while (running) {
-				DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
 				try {
-					serverSocket.receive(receivePacket);
-					processPacketFromClient(receivePacket);
-				} catch (SocketTimeoutException ignored) {}
+					receive();
+				} catch (ClosedChannelException e) {
+					break;
+				} catch (Exception e) {
+					log.error("Error receiving packet: {}", e.getMessage(), e);
+				}
 			}
 			log.info("Game Server stopped");
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
-	}
 
-	private void sendAckToClient(InetAddress ip) {
-		try (DatagramSocket clientSocket = new DatagramSocket()) {
-			byte[] sendData = new byte[] {MessageType.PING.id()};
-			DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, ip, devicePort);
-			clientSocket.send(sendPacket);
-		} catch (Exception e) {
-			log.error("Error sending command to client: {}", e.getMessage(), e);
+		// Drains everything queued on the socket per wakeup instead of one datagram per wakeup
+		private void receiveBatches() {
+			log.info("Game Server receiver started on port: {} thread: {}", port, Thread.currentThread().getName());
+			while (running) {
+				try {
+					selector.select();
+					selector.selectedKeys().clear();
+					while (running && receive()) {
+						// keep draining
+					}
+				} catch (ClosedChannelException | ClosedSelectorException e) {
+					break;
+				} catch (Exception e) {
+					log.error("Error receiving packet: {}", e.getMessage(), e);
+				}
+			}
+			log.info("Game Server receiver stopped");
+		}
+
+		// False when a non-blocking socket had nothing queued
+		private boolean receive() throws IOException {
+			buffer.clear();
+			var sender = (InetSocketAddress) channel.receive(buffer);
+			if (sender == null) {
+				return false;
+			}
+			buffer.flip();
+			int length = buffer.remaining();
+			buffer.get(bytes, 0, length);
+			processPacketFromClient(decoder, sender, bytes, length);
+			return true;
 		}
 	}
 
-	private void sendBytesToClient(InetAddress ip, byte[] bytes) {
-		if (ip == null) {
-			return;
+	private void sendAckToClient(Actor actor) {
+		outbound.enqueue(actor.getClientIp(), pingReplyBytes(actor), OutboundDispatcher.Priority.BULK);
+	}
+
+	// Players are told the stats group in every reply, so they never join a group of another server or arena
+	private byte[] pingReplyBytes(Actor actor) {
+		if (isReliablePlayer(actor)) {
+			return reliable.ackBytes(actor.getId(), multicastGroupBytes);
 		}
-		try (DatagramSocket clientSocket = new DatagramSocket()) {
-			DatagramPacket sendPacket = new DatagramPacket(bytes, bytes.length, ip, devicePort);
-			clientSocket.send(sendPacket);
-			log.debug("Bytes to {}:{} len={}, data: {}", sendPacket.getAddress(), sendPacket.getPort(), sendPacket.getLength(), Arrays.toString(sendPacket.getData()));
+		return multicastGroupBytes != null && actor.getType() == Actor.Type.PLAYER ? groupAckBytes : ACK_BYTES;
+	}
+
+	private static byte[] groupAckBytes(byte[] group) {
+		var bytes = new byte[8 + group.length];
+		bytes[0] = MessageType.PING.id();
+		bytes[1] = PING_FLAG_MULTICAST;
+		System.arraycopy(group, 0, bytes, 8, group.length);
+		return bytes;
+	}
+
+	private boolean isReliablePlayer(Actor actor) {
+		return reliable != null && actor.getType() == Actor.Type.PLAYER && reliable.isCapable(actor.getId());
+	}
+
+	// Called only from the outbound dispatcher thread
+	private boolean transmit(InetSocketAddress destination, byte[] bytes) {
+		try {
+			if (bytes.length > MAX_DATAGRAM_SIZE) {
+				channel.send(ByteBuffer.wrap(bytes), destination);
+			} else {
+				sendBuffer.clear();
+				sendBuffer.put(bytes).flip();
+				channel.send(sendBuffer, destination);
+			}
+			var capture = this.capture;
+			if (capture != null) {
+				capture.record(TrafficCapture.OUTBOUND, destination.getAddress(), actorRegistry.findActorByIp(destination.getAddress()), bytes, bytes.length);
+			}
+			if (log.isDebugEnabled() && bytes != ACK_BYTES) {
+				log.debug("Bytes to {}:{} len={}, data: {}", destination.getAddress(), destination.getPort(), bytes.length, Arrays.toString(bytes));
+			}
+			return true;
 		} catch (Exception e) {
 			log.error("Error sending command to client: {}", e.getMessage(), e);
+			return false;
 		}
 	}
 
 	public void stopUdpServer() {
 		running = false;
-		daemonExecutor.shutdown();
+		outbound.stop();
+		for (Selector selector : selectors) {
+			try {
+				selector.close();
+			} catch (IOException e) {
+				log.warn("Error closing UDP selector: {}", e.getMessage());
+			}
+		}
+		for (DatagramChannel open : channels) {
+			try {
+				open.close();
+			} catch (IOException e) {
+				log.warn("Error closing UDP channel: {}", e.getMessage());
+			}
+		}
 		log.info("{}: Stopping UDP Server...", this.getClass().getSimpleName());
 	}
 
-	private void processPacketFromClient(DatagramPacket packet) {
+	/**
+	 * Feeds a datagram through the receive path as if it came from {@code sender}, used to replay
+	 * captures in-process. Not safe alongside live traffic: use an arena whose port receives nothing.
+	 */
+	public void injectPacket(InetSocketAddress sender, byte[] data, int length) {
+		processPacketFromClient(decoder, sender, data, length);
+	}
+
+	// Receive thread: only admits and decodes, everything the datagram changes is done by the game thread
+	private void processPacketFromClient(MessageFromClient decoder, InetSocketAddress sender, byte[] data, int length) {
+		var address = sender.getAddress();
+		var capture = this.capture;
+		if (capture != null && length > 1) {
+			capture.record(TrafficCapture.INBOUND, address, actorRegistry.findActor(ActorRegistry.actorTypeOf(data[0]), data[1]), data, length);
+		}
 		try {
-			var message = new MessageFromClient(packet.getData(), packet.getLength());
-			var actor = actorRegistry.getActorByMessage(message);
-			if (actor.getClientIp() == null || message.isFirstEverMessage()) {
-				actor.setClientIp(packet.getAddress());
-				log.info("Connected {} ip = {} ", actor, actor.getClientIp());
-				gameEventsListener.refreshConsoleTable();
-				if (actor.getType() == Actor.Type.PLAYER) {
-					gameEventsListener.onPlayerJoinedOrLeft();
-				}
-				if (actor.getType() == Actor.Type.HEALTH || actor.getType() == Actor.Type.AMMO) {
-					sendSettingsToAllDispensers();
+			long nanos = System.nanoTime();
+			boolean ping = length > 0 && isPing(data[0]);
+			if (ingressLimits && !limiter.admitFromSource(sender, ping, nanos)) {
+				return;
+			}
+			var message = decoder.wrap(data, length);
+			long now = System.currentTimeMillis();
+			var actorType = ActorRegistry.actorTypeOf(message.getTypeId());
+			var actor = actorRegistry.findActor(actorType, message.getActorId());
+			if (actor == null) {
+				// Unknown devices join with their ping, events from them are dropped
+				if (ping) {
+					var first = message.copy();
+					gameExecutor.execute(() -> registerOnPing(actorType, first, address, now));
+				} else {
+					log.debug("Dropped {} from unregistered {}-{}", message.getType().name(), actorType, message.getActorId() & 0xFF);
 				}
-				if (actor.getType() == Actor.Type.FLAG) {
-					byte flagState = gameEventsListener != null
-						? gameEventsListener.getFlagDeviceStateOnConnect(actor)
-						: Messaging.FLAG_OFF;
-					sendEventToClient(MessageType.DEVICE_STATE, actor, flagState);
+				return;
+			}
+			if (ingressLimits && !limiter.admitFromActor(actor, ping, nanos)) {
+				return;
+			}
+			if (ping) {
+				var pending = pendingPings[actor.getSlot()];
+				if (pending.offer(actor, message, address, now)) {
+					gameExecutor.execute(pending);
 				}
+			} else {
+				log.info("Event {} from {} len={}, data: {}", message.getType().name(), actor, length, message);
+				var event = message.copy();
+				gameExecutor.execute(() -> onEvent(actor, event, address, now));
+			}
+		} catch (Exception e) {
+			log.error("Error parsing message from {}: {}", address.getHostAddress(), e.getMessage(), e);
+		}
+	}
+
+	// Game thread from here on
+
+	private void registerOnPing(Actor.Type type, MessageFromClient ping, InetAddress address, long now) {
+		var actor = actorRegistry.register(type, ping.getActorId());
+		if (actor != null) {
+			onPing(actor, address, ping.isFirstEverMessage(), ping.getStatsAck(), ping.getPingFlags(),
+				ping.getReliableAck(), ping.getReliableAckBits(), now);
+		}
+	}
+
+	private void onPing(Actor actor, InetAddress address, boolean firstEver, int statsAck, byte pingFlags,
+						int reliableAck, int reliableAckBits, long now) {
+		if (!onContact(actor, address, firstEver, now)) {
+			return;
+		}
+		if (actor.getType() == Actor.Type.PLAYER) {
+			statsTracker.onPing(actor.getId(), statsAck);
+			if (multicastGroup != null) {
+				multicastMembers.set(actor.getId() & 0xFF, (pingFlags & PING_FLAG_MULTICAST) != 0 ? 1 : 0);
+			}
+			if (reliable != null) {
+				reliable.onPing(actor.getId(), firstEver, pingFlags, reliableAck, reliableAckBits, now);
 			}
-			lastPingTime.put(actor, System.currentTimeMillis());
+		}
+		sendAckToClient(actor);
+	}
 
-			if (PING_GROUP.contains(message.getTypeId())) {
-				sendAckToClient(actor.getClientIp());
+	private void onEvent(Actor actor, MessageFromClient event, InetAddress address, long now) {
+		if (!onContact(actor, address, false, now)) {
+			return;
+		}
+		if (reliable != null && event.getEventSeq() != NO_EVENT_SEQ) {
+			boolean fresh = reliable.acceptEvent(actor.getId(), event.getEventSeq());
+			// Acked right away, also for duplicates whose earlier ack may have been lost
+			outbound.enqueue(actor.getClientIp(), pingReplyBytes(actor), OutboundDispatcher.Priority.CRITICAL);
+			if (!fresh) {
+				log.info("Duplicate event {} from {} dropped, data: {}", event.getType().name(), actor, event);
+				return;
+			}
+		}
+		gameEventsListener.onMessageFromPlayer((Player) actor, event);
+	}
+
+	/**
+	 * Connects an offline actor, and reconnects one that restarted unless it did so within the
+	 * cooldown, then pushes back its liveness deadline. False when the actor was evicted after the
+	 * datagram was received.
+	 */
+	private boolean onContact(Actor actor, InetAddress address, boolean firstEver, long now) {
+		if (actorRegistry.getActorBySlot(actor.getSlot()) != actor) {
+			return false;
+		}
+		if (actor.getClientIp() == null) {
+			actor.setClientIp(address);
+			limiter.onConnected(actor, now);
+			log.info("Connected {} ip = {} ", actor, address);
+			onActorConnected(actor);
+		} else if (firstEver) {
+			actor.setClientIp(address);
+			if (limiter.admitReconnect(actor, now)) {
+				log.info("Reconnected {} ip = {} ", actor, address);
+				onActorConnected(actor);
 			} else {
-				log.info("Event {} from {} len={}, data: {}", message.getType().name(), actor, packet.getLength(), message);
-				gameEventsListener.onMessageFromPlayer((Player)actor, message);
+				log.debug("{} reconnected again within cooldown, address refreshed only", actor);
 			}
-		} catch (Exception e) {
-			log.error("Error parsing message from {}: {}", packet.getAddress().getHostAddress(), e.getMessage(), e);
-		}
-	}
-
-	@Scheduled(fixedDelay = 1000)
-	private void checkConnectedClients() {
-		var currentTime = System.currentTimeMillis();
-		actorRegistry.getActors().forEach(actor -> {
-			var lastPing = lastPingTime.getOrDefault(actor, 0L);
-			if (currentTime - lastPing > pingTimeout) {
-				if (actor.getClientIp() != null) {
-					log.warn("Lost connection to {}", actor);
-					actor.setClientIp(null);
-					if (gameEventsListener != null) {
-						gameEventsListener.refreshConsoleTable();
-						if (actor.getType() == Actor.Type.PLAYER) {
-							gameEventsListener.onPlayerOfflineDuringGame((Player) actor);
-							gameEventsListener.onPlayerJoinedOrLeft();
-						}
-					}
+		}
+		liveness.touch(actor.getSlot(), now + (actor.getType() == Actor.Type.PLAYER ? PLAYER_TIMEOUT_MILLIS : DEVICE_TIMEOUT_MILLIS));
+		return true;
+	}
+
+	private void onActorConnected(Actor actor) {
+		gameSettings.syncToActor(actor);
+		gameEventsListener.refreshConsoleTable();
+		if (actor.getType() == Actor.Type.PLAYER) {
+			gameEventsListener.onPlayerJoinedOrLeft();
+		}
+		if (actor.getType() == Actor.Type.HEALTH || actor.getType() == Actor.Type.AMMO) {
+			sendSettingsToAllDispensers();
+		}
+		if (actor.getType() == Actor.Type.FLAG) {
+			byte flagState = gameEventsListener != null
+				? gameEventsListener.getFlagDeviceStateOnConnect(actor)
+				: Messaging.FLAG_OFF;
+			sendEventToClient(MessageType.DEVICE_STATE, actor, flagState);
+		}
+	}
+
+	// A slot freed by an evicted device must not pass its budgets or deadline on to the next one
+	private void onSlotAssigned(int slot) {
+		limiter.resetSlot(slot);
+		liveness.forget(slot);
+	}
+
+	// Game thread; per-player delivery state must not outlive the actor
+	public void onActorsEvicted(List<Actor> evicted) {
+		for (Actor actor : evicted) {
+			if (actor.getType() != Actor.Type.PLAYER) {
+				continue;
+			}
+			if (reliable != null) {
+				reliable.forget(actor.getId());
+			}
+			multicastMembers.set(actor.getId() & 0xFF, 0);
+		}
+	}
+
+	// Called every LivenessWheel tick on the game thread
+	public void checkConnectedClients() {
+		long now = System.currentTimeMillis();
+		liveness.advance(now);
+		outbound.removeIdle(now);
+	}
+
+	private void onActorTimedOut(int slot) {
+		var actor = actorRegistry.getActorBySlot(slot);
+		if (actor == null || actor.getClientIp() == null) {
+			return;
+		}
+		log.warn("Lost connection to {}", actor);
+		actor.setClientIp(null);
+		if (gameEventsListener != null) {
+			gameEventsListener.refreshConsoleTable();
+			if (actor.getType() == Actor.Type.PLAYER) {
+				gameEventsListener.onPlayerOfflineDuringGame((Player) actor);
+				gameEventsListener.onPlayerJoinedOrLeft();
+			}
+		}
+	}
+
+	public Map<String, Long> getDiagnostics() {
+		Map<String, Long> diagnostics = new LinkedHashMap<>();
+		diagnostics.put("receivers", (long) channels.size());
+		var kernel = kernelSocketStats();
+		if (kernel != null) {
+			diagnostics.put("kernelDrops", kernel[0]);
+			diagnostics.put("kernelQueuedBytes", kernel[1]);
+		}
+		diagnostics.put("shedSourcePings", limiter.getShedSourcePings().get());
+		diagnostics.put("shedSourceEvents", limiter.getShedSourceEvents().get());
+		diagnostics.put("shedActorPings", limiter.getShedActorPings().get());
+		diagnostics.put("shedActorEvents", limiter.getShedActorEvents().get());
+		diagnostics.put("suppressedReconnects", limiter.getSuppressedReconnects().get());
+		diagnostics.put("rosterSize", (long) actorRegistry.getActors().size());
+		diagnostics.put("rejectedRegistrations", actorRegistry.getRejectedRegistrations().get());
+		diagnostics.put("outboundQueued", (long) outbound.getQueuedCount());
+		diagnostics.put("outboundDestinations", (long) outbound.getDestinationCount());
+		diagnostics.put("outboundDroppedCritical", outbound.getDroppedCritical().get());
+		diagnostics.put("outboundDroppedBulk", outbound.getDroppedBulk().get());
+		diagnostics.put("outboundCoalescedStats", outbound.getCoalescedStats().get());
+		if (multicastGroup != null) {
+			diagnostics.put("multicastStats", multicastStats.get());
+			diagnostics.put("multicastSavedDatagrams", multicastSavedDatagrams.get());
+		}
+		if (reliable != null) {
+			diagnostics.put("reliableRetransmitted", reliable.getRetransmitted().get());
+			diagnostics.put("reliableExpired", reliable.getExpired().get());
+			diagnostics.put("reliableDuplicates", reliable.getDuplicates().get());
+		}
+		return diagnostics;
+	}
+
+	// Drops and queued receive bytes the kernel reports for the sockets on our port, null without /proc
+	private long[] kernelSocketStats() {
+		if (channel == null || !Files.isReadable(PROC_NET_UDP)) {
+			return null;
+		}
+		try {
+			int boundPort = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+			long drops = 0;
+			long queued = 0;
+			// sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode ref pointer drops
+			for (String line : Files.readAllLines(PROC_NET_UDP)) {
+				String[] fields = line.trim().split("\\s+");
+				if (fields.length < 13 || !fields[0].endsWith(":")) {
+					continue;
+				}
+				String local = fields[1];
+				if (Integer.parseInt(local.substring(local.indexOf(':') + 1), 16) == boundPort) {
+					queued += Long.parseLong(fields[4].substring(fields[4].indexOf(':') + 1), 16);
+					drops += Long.parseLong(fields[12]);
 				}
 			}
-		});
+			return new long[] {drops, queued};
+		} catch (IOException | RuntimeException e) {
+			log.debug("Cannot read kernel UDP counters: {}", e.getMessage());
+			return null;
+		}
 	}
 
-	@Scheduled(fixedRate = 10000)
-	private void syncDispenserSettings() {
+	public void syncDispenserSettings() {
 		if (gameEventsListener != null) {
 			sendSettingsToAllDispensers();
 		}
@@ -175,22 +542,192 @@ public class UdpServer {
 	public void sendEventToClient(MessageType type, Actor actor, byte... values) {
 		log.info("Event to {}: type={}, data: {}", actor.toString(), type.name(), Arrays.toString(values));
 		var bytes = Messaging.eventToBytes(type.id(), values);
-		sendBytesToClient(actor.getClientIp(), bytes);
+		var priority = OutboundDispatcher.priorityOf(type);
+		if (priority == OutboundDispatcher.Priority.CRITICAL && actor.getClientIp() != null && isReliablePlayer(actor)) {
+			bytes = reliable.wrap(actor.getId(), bytes, System.currentTimeMillis());
+		}
+		outbound.enqueue(actor.getClientIp(), bytes, priority);
 	}
 
-	public void sendStatsToAll(boolean includeNames, boolean isGameRunning, int gameTypeOrdinal, int timeSeconds, int redScore, int blueScore) {
-		var players = actorRegistry.getPlayersSortedByScore();
-		var onlinePlayers = players.stream().filter(Player::isOnline).toList();
-		log.info("Stats to players: {}, withNames={}, isGameRunning={}, gameType={}, timeSeconds={}, redScore={}, blueScore={}",
-			Arrays.toString(onlinePlayers.stream().map(p -> p.getId()).toArray()), includeNames, isGameRunning, gameTypeOrdinal, timeSeconds, redScore, blueScore);
-		var bytes = Messaging.playerStatsToBytes(includeNames, players, isGameRunning, gameTypeOrdinal, timeSeconds, redScore, blueScore);
-		onlinePlayers.forEach(player -> sendBytesToClient(player.getClientIp(), bytes));
+	public void retransmitReliable() {
+		if (reliable == null) {
+			return;
+		}
+		reliable.retransmitDue(System.currentTimeMillis(), (playerId, bytes) -> {
+			var player = actorRegistry.findActor(Actor.Type.PLAYER, playerId);
+			if (player != null && player.getClientIp() != null) {
+				outbound.enqueue(player.getClientIp(), bytes, OutboundDispatcher.Priority.CRITICAL);
+			}
+		});
+	}
+
+	// Delta-capable players get only what changed since the frame they acked, others the full stats
+	public void sendStatsToAll(GameSnapshot snapshot, boolean includeNames) {
+		var players = snapshot.playersByScore();
+		var frame = statsTracker.record(players);
+		boolean isGameRunning = snapshot.gamePlaying();
+		int gameTypeOrdinal = snapshot.gameType().ordinal();
+		int timeSeconds = snapshot.timeLeftSeconds();
+		int redScore = snapshot.redScore();
+		int blueScore = snapshot.blueScore();
+		log.info("Stats #{} (snapshot {}) to players: {}, withNames={}, isGameRunning={}, gameType={}, timeSeconds={}, redScore={}, blueScore={}",
+			frame.seq(), snapshot.version(), Arrays.toString(players.stream().filter(PlayerState::isOnline).map(PlayerState::id).toArray()),
+			includeNames, isGameRunning, gameTypeOrdinal, timeSeconds, redScore, blueScore);
+		long now = System.currentTimeMillis();
+		byte[] legacyBytes = null;
+		byte[] keyframeBytes = null;
+		byte[] namelessKeyframeBytes = null;
+		Map<Integer, byte[]> deltaByBaseSeq = new HashMap<>();
+		Map<byte[], GroupStats> multicastRecipients = multicastGroup != null ? new IdentityHashMap<>() : null;
+		for (PlayerState player : players) {
+			if (!player.isOnline()) {
+				continue;
+			}
+			byte[] bytes;
+			int key;
+			boolean keyframe = false;
+			if (!statsTracker.isDeltaCapable(player.id())) {
+				if (legacyBytes == null) {
+					legacyBytes = Messaging.playerStatsToBytes(includeNames, players, isGameRunning, gameTypeOrdinal, timeSeconds, redScore, blueScore,
+						frame.seq(), frame.rosterVersion());
+				}
+				bytes = legacyBytes;
+				key = GROUP_KEY_FULL_STATS;
+			} else {
+				var base = statsTracker.baseFor(player.id(), frame, now);
+				if (base == null && (includeNames || !statsTracker.holdsRoster(player.id(), frame))) {
+					if (keyframeBytes == null) {
+						keyframeBytes = Messaging.playerStatsToBytes(true, players, isGameRunning, gameTypeOrdinal, timeSeconds, redScore, blueScore,
+							frame.seq(), frame.rosterVersion());
+					}
+					bytes = keyframeBytes;
+					key = GROUP_KEY_KEYFRAME;
+					keyframe = true;
+				} else if (base == null) {
+					// The player already has the names of this roster
+					if (namelessKeyframeBytes == null) {
+						namelessKeyframeBytes = Messaging.playerStatsToBytes(false, players, isGameRunning, gameTypeOrdinal, timeSeconds, redScore, blueScore,
+							frame.seq(), frame.rosterVersion());
+					}
+					bytes = namelessKeyframeBytes;
+					key = GROUP_KEY_NAMELESS_KEYFRAME;
+					keyframe = true;
+				} else {
+					bytes = deltaByBaseSeq.computeIfAbsent(base.seq(), seq ->
+						Messaging.statsDeltaToBytes(base, frame, isGameRunning, gameTypeOrdinal, timeSeconds, redScore, blueScore));
+					key = base.seq();
+				}
+			}
+			if (multicastRecipients != null && multicastMembers.get(player.id() & 0xFF) != 0) {
+				int groupKey = key;
+				boolean groupKeyframe = keyframe;
+				multicastRecipients.computeIfAbsent(bytes, b -> new GroupStats(groupKey, groupKeyframe, new ArrayList<>())).recipients().add(player);
+			} else {
+				sendStats(player, bytes, keyframe, now);
+			}
+		}
+		if (multicastRecipients != null) {
+			multicastRecipients.forEach((bytes, group) -> sendStatsToGroup(bytes, group, now));
+		}
+	}
+
+	// A keyframe counts as sent once it went out, not when a newer datagram replaced it in the queue
+	private void sendStats(PlayerState player, byte[] bytes, boolean keyframe, long now) {
+		if (keyframe) {
+			int playerId = player.id();
+			outbound.enqueueStats(player.clientIp(), bytes, 0, () -> statsTracker.keyframeSent(playerId, now));
+		} else {
+			outbound.enqueue(player.clientIp(), bytes, OutboundDispatcher.Priority.STATS);
+		}
+	}
+
+	// Group members also get stats meant for others; a delta against a frame they lack is ignored by them
+	private void sendStatsToGroup(byte[] bytes, GroupStats group, long now) {
+		var recipients = group.recipients();
+		if (recipients.size() < MULTICAST_MIN_RECIPIENTS) {
+			for (PlayerState player : recipients) {
+				sendStats(player, bytes, group.keyframe(), now);
+			}
+			return;
+		}
+		// Keyed so the datagrams of one broadcast do not replace each other, only those of an earlier one
+		outbound.enqueueStats(multicastGroup, bytes, group.key(), () -> {
+			multicastStats.incrementAndGet();
+			multicastSavedDatagrams.addAndGet(recipients.size() - 1);
+			if (group.keyframe()) {
+				recipients.forEach(player -> statsTracker.keyframeSent(player.id(), now));
+			}
+		});
+	}
+
+	private record GroupStats(int key, boolean keyframe, List<PlayerState> recipients) {
+	}
+
+	/**
+	 * Latest ping of one actor slot not yet handled by the game thread. Pings arriving before it runs
+	 * are merged in, so a ping costs no allocation and a slow game thread sees each device once.
+	 */
+	private final class PendingPing implements Runnable {
+		private Actor actor;
+		private InetAddress address;
+		private boolean firstEver;
+		private int statsAck;
+		private byte pingFlags;
+		private int reliableAck;
+		private int reliableAckBits;
+		private long receivedMillis;
+		private boolean queued;
+
+		// Receive thread; true when the caller has to queue it
+		private synchronized boolean offer(Actor actor, MessageFromClient ping, InetAddress address, long now) {
+			if (queued && this.actor != actor) {
+				// The slot was reused meanwhile, the ping of the evicted actor is dropped when run
+				firstEver = false;
+			}
+			this.actor = actor;
+			this.address = address;
+			firstEver |= ping.isFirstEverMessage();
+			statsAck = ping.getStatsAck();
+			pingFlags = ping.getPingFlags();
+			reliableAck = ping.getReliableAck();
+			reliableAckBits = ping.getReliableAckBits();
+			receivedMillis = now;
+			if (queued) {
+				return false;
+			}
+			queued = true;
+			return true;
+		}
+
+		@Override
+		public void run() {
+			Actor actor;
+			InetAddress address;
+			boolean firstEver;
+			int statsAck;
+			byte pingFlags;
+			int reliableAck;
+			int reliableAckBits;
+			long receivedMillis;
+			synchronized (this) {
+				actor = this.actor;
+				address = this.address;
+				firstEver = this.firstEver;
+				statsAck = this.statsAck;
+				pingFlags = this.pingFlags;
+				reliableAck = this.reliableAck;
+				reliableAckBits = this.reliableAckBits;
+				receivedMillis = this.receivedMillis;
+				this.firstEver = false;
+				queued = false;
+			}
+			onPing(actor, address, firstEver, statsAck, pingFlags, reliableAck, reliableAckBits, receivedMillis);
+		}
 	}
 
 	public void sendSettingsToAllDispensers() {
 		byte state = gameEventsListener.isGamePlaying() ? Messaging.FLAG_ON : Messaging.FLAG_OFF;
-		Stream.concat(actorRegistry.streamByType(Actor.Type.AMMO), actorRegistry.streamByType(Actor.Type.HEALTH))
-		.filter(Actor::isOnline)
+		Stream.concat(actorRegistry.getOnlineActors(Actor.Type.AMMO).stream(), actorRegistry.getOnlineActors(Actor.Type.HEALTH).stream())
 		.forEach(actor -> {
 			int timeout = gameSettings.getCurrent().getDispenserSettings(actor.getType()).getTimeout();
 			sendEventToClient(MessageType.DISPENSER_SET_TIMEOUT, actor, (byte)(timeout / 10));
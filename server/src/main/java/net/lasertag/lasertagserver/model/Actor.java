@@ -1,5 +1,6 @@
 package net.lasertag.lasertagserver.model;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -19,14 +20,29 @@ public abstract class Actor {
 	private final int id;
 	private final Type type;
 
+	// Changed by the arena game thread, read from web threads too
+	private volatile InetAddress clientIp;
+	// Dense index assigned by the registry, for per-actor primitive arrays
 	@Setter
-	private InetAddress clientIp;
+	private int slot = -1;
+	// Told when the actor goes online or offline, so the registry can refresh its online views
+	@Getter(AccessLevel.NONE)
+	@Setter
+	private Runnable onlineListener;
 
 	public Actor(int id, Type type) {
 		this.id = id;
 		this.type = type;
 	}
 
+	public void setClientIp(InetAddress clientIp) {
+		boolean wasOnline = this.clientIp != null;
+		this.clientIp = clientIp;
+		if (wasOnline != (clientIp != null) && onlineListener != null) {
+			onlineListener.run();
+		}
+	}
+
 	public boolean isOnline() {
 		return getClientIp() != null;
 	}
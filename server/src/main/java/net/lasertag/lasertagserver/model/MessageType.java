@@ -1,6 +1,5 @@
 package net.lasertag.lasertagserver.model;
 
-import java.util.HashMap;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import static  net.lasertag.lasertagserver.model.MessageType.Direction.*;
@@ -20,6 +19,8 @@ public record MessageType(byte id, String name, Direction directionFlag) {
 	public static final MessageType YOU_KILLED = new MessageType((byte) 9, "YOU_KILLED", SERVER_TO_CLIENT);
 	public static final MessageType YOU_SCORED = new MessageType((byte) 10, "YOU_SCORED", SERVER_TO_CLIENT);
 	public static final MessageType FULL_STATS = new MessageType((byte) 11, "FULL_STATS", SERVER_TO_CLIENT);
+	public static final MessageType STATS_DELTA = new MessageType((byte) 22, "STATS_DELTA", SERVER_TO_CLIENT);
+	public static final MessageType RELIABLE = new MessageType((byte) 23, "RELIABLE", SERVER_TO_CLIENT);
 
 	public static final MessageType DEVICE_PLAYER_STATE = new MessageType((byte) 13, "DEVICE_PLAYER_STATE", CLIENT_TO_SERVER);
 	public static final MessageType DEVICE_CONNECTED = new MessageType((byte)14, "DEVICE_CONNECTED", CLIENT_TO_SERVER);
@@ -59,8 +60,9 @@ public record MessageType(byte id, String name, Direction directionFlag) {
 		return directionFlag == SERVER_TO_CLIENT || directionFlag == BOTH_DIRECTIONS;
 	}
 
-	static HashMap<Integer, MessageType> populateMessageTypeByIdMap() {
-		HashMap<Integer, MessageType> messageTypeMap = new HashMap<>();
+	// Dense table indexed by the unsigned type id byte
+	static MessageType[] populateMessageTypeTable() {
+		MessageType[] messageTypeTable = new MessageType[256];
 		try {
 			Field[] fields = MessageType.class.getDeclaredFields();
 
@@ -69,12 +71,12 @@ public record MessageType(byte id, String name, Direction directionFlag) {
 					field.getType() == MessageType.class) {
 
 					MessageType messageType = (MessageType) field.get(null);
-					messageTypeMap.put((int) messageType.id(), messageType);
+					messageTypeTable[messageType.id() & 0xFF] = messageType;
 				}
 			}
 		} catch (IllegalAccessException e) {
 			throw new RuntimeException(e);
 		}
-		return messageTypeMap;
+		return messageTypeTable;
 	}
 }
@@ -19,48 +19,133 @@ public abstract class Messaging {
 	public static final byte FLAG_OFF = 0;
 	public static final byte FLAG_ON = 1;
 
-	public static final Set<Byte> PING_GROUP = new HashSet<>(Arrays.asList(PLAYER_PING.id(), HEALTH_DISPENSER_PING.id(), AMMO_DISPENSER_PING.id(), FLAG_PING.id()));
+	// Stats sequence a player acks when it holds no stats frame yet; never used as a real sequence
+	public static final int NO_STATS_SEQ = 0xFFFF;
+	// Stats ack of a legacy client whose ping carries no sequence; such clients only get FULL_STATS
+	public static final int STATS_ACK_UNSUPPORTED = -1;
 
-	private static final Map<Integer, MessageType> MESSAGE_TYPE_BY_ID = MessageType.populateMessageTypeByIdMap();
+	// Ping flags byte: sender supports RELIABLE delivery, and the ping carries an ack of the peer's sequences
+	public static final byte PING_FLAG_RELIABLE = 1;
+	public static final byte PING_FLAG_ACK = 2;
+	// Player pings: the client has joined the stats multicast group. Replies to players: the group
+	// address follows the ack, clients join only that group
+	public static final byte PING_FLAG_MULTICAST = 4;
+	// Sequence of a device event sent without one
+	public static final int NO_EVENT_SEQ = -1;
+
+	private static final boolean[] PING_GROUP = pingGroupTable(PLAYER_PING, HEALTH_DISPENSER_PING, AMMO_DISPENSER_PING, FLAG_PING);
+
+	private static final MessageType[] MESSAGE_TYPE_BY_ID = MessageType.populateMessageTypeTable();
 
 	public static MessageType getMessageTypeById(int id) {
-		var messageType = MESSAGE_TYPE_BY_ID.get(id);
+		var messageType = MESSAGE_TYPE_BY_ID[id & 0xFF];
 		if (messageType == null) {
 			throw new NoSuchElementException("Message type not found for id: " + id);
 		}
 		return messageType;
 	}
 
+	public static boolean isPing(byte typeId) {
+		return PING_GROUP[typeId & 0xFF];
+	}
+
+	private static boolean[] pingGroupTable(MessageType... pingTypes) {
+		var table = new boolean[256];
+		for (MessageType type : pingTypes) {
+			table[type.id() & 0xFF] = true;
+		}
+		return table;
+	}
+
+	/**
+	 * Decoded datagram from a device. Instances are flyweights: the receive loop keeps one and
+	 * re-{@link #wrap wraps} it for every packet, so decoding allocates nothing. Use {@link #copy()}
+	 * before handing a message to another thread.
+	 */
 	@Getter
 	public static class MessageFromClient extends Messaging {
 
-		private final byte typeId;
-		private final MessageType type;
-		private final byte actorId;
-		private final byte extraValue;
-		private final byte health;
-		private final boolean firstEverMessage;
-
+		private byte typeId;
+		private MessageType type;
+		private byte actorId;
+		private byte extraValue;
+		private byte health;
+		private boolean firstEverMessage;
+		private int statsAck;
+		private byte pingFlags;
+		private int reliableAck;
+		private int reliableAckBits;
+		private int eventSeq;
 
+		public MessageFromClient() {
+		}
 
 		public MessageFromClient(byte[] bytes, int length) {
+			wrap(bytes, length);
+		}
+
+		public MessageFromClient wrap(byte[] bytes, int length) {
 			if (length < 2) {
-				throw new IllegalArgumentException("Invalid message, too short: " + Arrays.toString(Arrays.copyOfRange(bytes, 0, length)));
+				throw invalid("Invalid message, too short: ", bytes, length);
+			}
+			byte typeId = bytes[0];
+			var type = MESSAGE_TYPE_BY_ID[typeId & 0xFF];
+			if (type == null) {
+				throw new NoSuchElementException("Message type not found for id: " + typeId);
 			}
-			this.typeId = bytes[0];
+			this.typeId = typeId;
+			this.type = type;
 			this.actorId = bytes[1];
-			this.type = getMessageTypeById(this.typeId);
-			if (PING_GROUP.contains(this.typeId)) {
+			if (isPing(typeId)) {
+				if (length < 3) {
+					throw invalid("Invalid ping, too short: ", bytes, length);
+				}
 				this.firstEverMessage = bytes[2] != 0;
+				this.statsAck = length >= 5 ? (bytes[3] & 0xFF) | (bytes[4] & 0xFF) << 8 : STATS_ACK_UNSUPPORTED;
+				// [.., flags, ackLo, ackHi, ackBits x4] from devices supporting reliable delivery
+				this.pingFlags = length >= 6 ? bytes[5] : 0;
+				if ((pingFlags & PING_FLAG_ACK) != 0 && length < 12) {
+					throw invalid("Invalid ping ack, too short: ", bytes, length);
+				}
+				this.reliableAck = length >= 12 ? (bytes[6] & 0xFF) | (bytes[7] & 0xFF) << 8 : 0;
+				this.reliableAckBits = length >= 12
+					? (bytes[8] & 0xFF) | (bytes[9] & 0xFF) << 8 | (bytes[10] & 0xFF) << 16 | (bytes[11] & 0xFF) << 24 : 0;
+				this.eventSeq = NO_EVENT_SEQ;
 				this.extraValue = 0;
 				this.health = 0;
-			} else if (length == 4) {
+			} else if (length == 4 || length == 6) {
 				this.extraValue = bytes[2];
 				this.health = bytes[3];
+				this.eventSeq = length == 6 ? (bytes[4] & 0xFF) | (bytes[5] & 0xFF) << 8 : NO_EVENT_SEQ;
 				this.firstEverMessage = false;
+				this.statsAck = STATS_ACK_UNSUPPORTED;
+				this.pingFlags = 0;
+				this.reliableAck = 0;
+				this.reliableAckBits = 0;
 			} else {
-				throw new IllegalArgumentException("Invalid message: " + Arrays.toString(Arrays.copyOfRange(bytes, 0, length)));
+				throw invalid("Invalid message: ", bytes, length);
 			}
+			return this;
+		}
+
+		public MessageFromClient copy() {
+			var copy = new MessageFromClient();
+			copy.typeId = typeId;
+			copy.type = type;
+			copy.actorId = actorId;
+			copy.extraValue = extraValue;
+			copy.health = health;
+			copy.firstEverMessage = firstEverMessage;
+			copy.statsAck = statsAck;
+			copy.pingFlags = pingFlags;
+			copy.reliableAck = reliableAck;
+			copy.reliableAckBits = reliableAckBits;
+			copy.eventSeq = eventSeq;
+			return copy;
+		}
+
+		private static IllegalArgumentException invalid(String reason, byte[] bytes, int length) {
+			return new IllegalArgumentException(reason + Arrays.toString(Arrays.copyOfRange(bytes, 0, length)));
 		}
 
 		@Override
@@ -71,6 +156,7 @@ public abstract class Messaging {
 				", extraValue=" + extraValue +
 				", h=" + health +
 				", first=" + firstEverMessage +
+				(eventSeq != NO_EVENT_SEQ ? ", seq=" + eventSeq : "") +
 				'}';
 		}
 	}
@@ -82,8 +168,9 @@ public abstract class Messaging {
 		return result;
 	}
 
-	public static byte[] playerStatsToBytes(boolean includeNames, List<Player> players, boolean gameRunning, int gameTypeOrdinal, int timeSeconds, int redScore, int blueScore) {
-		var size = 8 + getPlayersSize(players, includeNames);
+	public static byte[] playerStatsToBytes(boolean includeNames, List<PlayerState> players, boolean gameRunning, int gameTypeOrdinal, int timeSeconds, int redScore, int blueScore,
+											int seq, int rosterVersion) {
+		var size = 8 + getPlayersSize(players, includeNames) + 3;
 		ByteBuffer data = ByteBuffer.allocate(size);
 		data.order(java.nio.ByteOrder.LITTLE_ENDIAN);
 		data.put(FULL_STATS.id()); //byte 1
@@ -93,29 +180,79 @@ public abstract class Messaging {
 		data.put((byte)players.size()); //byte 6
 		data.put((byte) redScore); //byte 7
 		data.put((byte) blueScore); //byte 8
-		for (Player player : players) {
-			data.put((byte)player.getId()); //byte 1
-			data.put((byte)player.getHealth()); //byte 2
-			data.put((byte)player.getScore()); //byte 3
-			data.put((byte)player.getTeamId()); //byte 4
-			data.put((byte)player.getDamage()); //byte 5
-			data.put((byte)player.getBulletsMax()); //byte 6
-			data.put((byte)player.getAssignedRespawnPoint()); //byte 7
-			data.put(player.isFlagCarrier() ? (byte) 1 : (byte) 0); //byte 8
+		for (PlayerState player : players) {
+			data.put((byte)player.id()); //byte 1
+			data.put((byte)player.health()); //byte 2
+			data.put((byte)player.score()); //byte 3
+			data.put((byte)player.teamId()); //byte 4
+			data.put((byte)player.damage()); //byte 5
+			data.put((byte)player.bulletsMax()); //byte 6
+			data.put((byte)player.assignedRespawnPoint()); //byte 7
+			data.put(player.flagCarrier() ? (byte) 1 : (byte) 0); //byte 8
 			if (includeNames) {
-				data.put((byte) player.getName().length()); //byte 9
-				data.put(player.getName().getBytes());
+				data.put((byte) player.name().length()); //byte 9
+				data.put(player.name().getBytes());
 			} else {
 				data.put((byte) 0); //byte 9
 			}
 		}
+		// Trailer ignored by old clients: frame sequence and roster version for delta-capable ones
+		data.putShort((short) seq);
+		data.put((byte) rosterVersion);
 		return data.array();
 	}
 
-	private static int getPlayersSize(List<Player> players, boolean includeNames) {
+	/**
+	 * Encodes only the player fields of {@code frame} that differ from {@code base}. Both frames must
+	 * have the same roster, so names are never repeated here.
+	 * Per changed player: id, bit mask of changed fields (bit i = {@link StatsFrame} field i), the fields.
+	 */
+	public static byte[] statsDeltaToBytes(StatsFrame base, StatsFrame frame, boolean gameRunning, int gameTypeOrdinal, int timeSeconds, int redScore, int blueScore) {
+		ByteBuffer data = ByteBuffer.allocate(13 + frame.size() * (2 + StatsFrame.FIELD_COUNT));
+		data.order(java.nio.ByteOrder.LITTLE_ENDIAN);
+		data.put(STATS_DELTA.id());
+		data.putShort((short) frame.seq());
+		data.putShort((short) base.seq());
+		data.put((byte)(gameRunning ? 1 : 0));
+		data.put((byte) gameTypeOrdinal);
+		data.putShort((short) timeSeconds);
+		data.put((byte) redScore);
+		data.put((byte) blueScore);
+		data.put((byte) frame.rosterVersion());
+		int countPosition = data.position();
+		data.put((byte) 0);
+		int changed = 0;
+		var fields = frame.fields();
+		var baseFields = base.fields();
+		for (int i = 0; i < frame.size(); i++) {
+			int offset = i * StatsFrame.FIELD_COUNT;
+			int baseOffset = base.indexOf(frame.ids()[i]) * StatsFrame.FIELD_COUNT;
+			int mask = 0;
+			for (int f = 0; f < StatsFrame.FIELD_COUNT; f++) {
+				if (fields[offset + f] != baseFields[baseOffset + f]) {
+					mask |= 1 << f;
+				}
+			}
+			if (mask == 0) {
+				continue;
+			}
+			changed++;
+			data.put(frame.ids()[i]);
+			data.put((byte) mask);
+			for (int f = 0; f < StatsFrame.FIELD_COUNT; f++) {
+				if ((mask & 1 << f) != 0) {
+					data.put(fields[offset + f]);
+				}
+			}
+		}
+		data.put(countPosition, (byte) changed);
+		return Arrays.copyOf(data.array(), data.position());
+	}
+
+	private static int getPlayersSize(List<PlayerState> players, boolean includeNames) {
 		int size = 0;
-		for (Player player : players) {
-			size += 9 + (includeNames ? player.getName().length() : 0);
+		for (PlayerState player : players) {
+			size += 9 + (includeNames ? player.name().length() : 0);
 		}
 		return size;
 	}
@@ -1,5 +1,6 @@
 package net.lasertag.lasertagserver.model;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import net.lasertag.lasertagserver.core.Game;
@@ -11,7 +12,6 @@ public class Player extends Actor {
 	private String name;
 	@Setter
 	private int health;
-	@Setter
 	private int score;
 	@Setter
 	private int teamId;
@@ -23,6 +23,15 @@ public class Player extends Actor {
 	private int assignedRespawnPoint;
 	@Setter
 	private boolean flagCarrier;
+	// Keeps the leaderboard sorted: score changes go through it
+	@Getter(AccessLevel.NONE)
+	@Setter
+	private ScoreListener scoreListener;
+
+	public interface ScoreListener {
+		// Must run update, which changes the score, while the player is out of any sorted structure
+		void updateScore(Player player, Runnable update);
+	}
 
 	public Player(int id, String name) {
 		super(id, Type.PLAYER);
@@ -36,6 +45,17 @@ public class Player extends Actor {
 		this.flagCarrier = false;
 	}
 
+	public void setScore(int score) {
+		if (this.score == score) {
+			return;
+		}
+		if (scoreListener != null) {
+			scoreListener.updateScore(this, () -> this.score = score);
+		} else {
+			this.score = score;
+		}
+	}
+
 	public boolean updateHealth(int health) {
 		if (this.health == health) {
 			return false; // no change
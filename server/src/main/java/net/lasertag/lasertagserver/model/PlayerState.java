@@ -0,0 +1,20 @@
+package net.lasertag.lasertagserver.model;
+
+import java.net.InetAddress;
+
+/**
+ * Immutable copy of a {@link Player}'s values, as held by a game snapshot.
+ */
+public record PlayerState(int id, Actor.Type type, String name, int health, int score, int teamId, int damage,
+						  int bulletsMax, int assignedRespawnPoint, boolean flagCarrier, InetAddress clientIp) {
+
+	public static PlayerState of(Player player) {
+		return new PlayerState(player.getId(), player.getType(), player.getName(), player.getHealth(), player.getScore(),
+			player.getTeamId(), player.getDamage(), player.getBulletsMax(), player.getAssignedRespawnPoint(),
+			player.isFlagCarrier(), player.getClientIp());
+	}
+
+	public boolean isOnline() {
+		return clientIp != null;
+	}
+}
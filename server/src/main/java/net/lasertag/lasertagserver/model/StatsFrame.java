@@ -0,0 +1,62 @@
+package net.lasertag.lasertagserver.model;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Player values carried by one stats message, kept so that later stats can be sent as a delta
+ * against the last frame a client acknowledged.
+ */
+public record StatsFrame(int seq, int rosterVersion, byte[] ids, byte[] fields, String[] names) {
+
+	// health, score, team, damage, bulletsMax, respawnPoint, flagCarrier
+	public static final int FIELD_COUNT = 7;
+
+	public static StatsFrame of(int seq, int rosterVersion, List<PlayerState> players) {
+		int count = players.size();
+		var ids = new byte[count];
+		var fields = new byte[count * FIELD_COUNT];
+		var names = new String[count];
+		for (int i = 0; i < count; i++) {
+			var player = players.get(i);
+			int offset = i * FIELD_COUNT;
+			ids[i] = (byte) player.id();
+			fields[offset] = (byte) player.health();
+			fields[offset + 1] = (byte) player.score();
+			fields[offset + 2] = (byte) player.teamId();
+			fields[offset + 3] = (byte) player.damage();
+			fields[offset + 4] = (byte) player.bulletsMax();
+			fields[offset + 5] = (byte) player.assignedRespawnPoint();
+			fields[offset + 6] = player.flagCarrier() ? (byte) 1 : (byte) 0;
+			names[i] = player.name();
+		}
+		return new StatsFrame(seq, rosterVersion, ids, fields, names);
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	public int indexOf(byte id) {
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] == id) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// Same player ids with the same names, in any order
+	public boolean sameRosterAs(StatsFrame other) {
+		if (other == null || other.size() != size()) {
+			return false;
+		}
+		for (int i = 0; i < ids.length; i++) {
+			int index = other.indexOf(ids[i]);
+			if (index < 0 || !Objects.equals(names[i], other.names[index])) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,168 @@
+package net.lasertag.lasertagserver.tools;
+
+import net.lasertag.lasertagserver.core.ActorRegistry;
+import net.lasertag.lasertagserver.core.Arena;
+import net.lasertag.lasertagserver.core.RosterLimits;
+import net.lasertag.lasertagserver.core.TrafficCapture;
+import net.lasertag.lasertagserver.core.UdpOptions;
+import net.lasertag.lasertagserver.model.Actor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays the inbound datagrams of a {@link TrafficCapture} file with their original timing,
+ * either over UDP to a running server or straight into a fresh in-process arena.
+ * <pre>
+ * java -cp target/classes:target/lib/* net.lasertag.lasertagserver.tools.TrafficReplayer capture.bin
+ *     [--speed=1|N|max] [--target=host:port] [--in-process]
+ * </pre>
+ * In-process replay feeds the arena's receive path directly and reports how fast the game thread
+ * processed the capture. Each device keeps its own source address, moved into 127.0.0.0/8 so
+ * replies never reach real devices. Ingress rate limits are off unless replaying at 1x; over UDP
+ * the target server's limits always apply and all packets share one source.
+ */
+public class TrafficReplayer {
+	private static final Logger log = LoggerFactory.getLogger(TrafficReplayer.class);
+
+	private static final String REPLAY_ARENA_ID = "replay";
+
+	private final Path file;
+	// 0 replays as fast as possible
+	private final double speed;
+
+	public TrafficReplayer(Path file, double speed) {
+		this.file = file;
+		this.speed = speed;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("Usage: TrafficReplayer <capture.bin> [--speed=1|N|max] [--target=host:port] [--in-process]");
+			System.exit(1);
+		}
+		Path file = Path.of(args[0]);
+		double speed = 1;
+		String target = "localhost:9878";
+		boolean inProcess = false;
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.startsWith("--speed=")) {
+				String value = arg.substring("--speed=".length());
+				speed = value.equals("max") ? 0 : Double.parseDouble(value);
+			} else if (arg.startsWith("--target=")) {
+				target = arg.substring("--target=".length());
+			} else if (arg.equals("--in-process")) {
+				inProcess = true;
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+		var replayer = new TrafficReplayer(file, speed);
+		if (inProcess) {
+			replayer.replayInProcess();
+		} else {
+			String[] hostPort = target.split(":");
+			replayer.replayOverUdp(new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1])));
+		}
+	}
+
+	public void replayOverUdp(InetSocketAddress target) throws IOException {
+		try (var socket = new DatagramSocket()) {
+			replay((record) -> socket.send(new DatagramPacket(record.data(), record.data().length, target)));
+		}
+	}
+
+	public void replayInProcess() throws IOException {
+		int playerCount = Math.max(ActorRegistry.PLAYER_COUNT, maxPlayerId() + 1);
+		var arena = new Arena(REPLAY_ARENA_ID, 0, playerCount, false, new UdpOptions(true, 5, null, 1, null, 0), RosterLimits.DEFAULT);
+		arena.start();
+		try {
+			var udpServer = arena.getUdpServer();
+			udpServer.setIngressLimits(speed == 1);
+			Map<Integer, InetSocketAddress> senders = new HashMap<>();
+			long start = System.nanoTime();
+			replay((record) -> {
+				var sender = senders.computeIfAbsent(record.ipv4(), TrafficReplayer::loopbackSender);
+				udpServer.injectPacket(sender, record.data(), record.data().length);
+			});
+			// Everything handed to the game thread is done once this returns
+			arena.call(() -> null);
+			long elapsed = System.nanoTime() - start;
+			log.info("Game thread drained after {} ms, diagnostics: {}", elapsed / 1_000_000, udpServer.getDiagnostics());
+		} finally {
+			arena.stop();
+		}
+	}
+
+	private void replay(PacketSink sink) throws IOException {
+		long packets = 0;
+		long firstNanos = -1;
+		long start = System.nanoTime();
+		try (var reader = new TrafficCapture.Reader(file)) {
+			TrafficCapture.Record record;
+			while ((record = reader.next()) != null) {
+				if (!record.isInbound()) {
+					continue;
+				}
+				if (firstNanos < 0) {
+					firstNanos = record.nanos();
+				}
+				if (speed > 0) {
+					long due = start + (long) ((record.nanos() - firstNanos) / speed);
+					long wait;
+					while ((wait = due - System.nanoTime()) > 0) {
+						LockSupport.parkNanos(wait);
+					}
+				}
+				sink.accept(record);
+				packets++;
+			}
+		}
+		long elapsed = Math.max(1, System.nanoTime() - start);
+		log.info("Replayed {} packets from {} in {} ms ({} packets/s)",
+			packets, file, elapsed / 1_000_000, packets * 1_000_000_000L / elapsed);
+	}
+
+	private static InetSocketAddress loopbackSender(int ipv4) {
+		try {
+			var address = InetAddress.getByAddress(new byte[] {127, (byte) (ipv4 >> 16), (byte) (ipv4 >> 8), (byte) ipv4});
+			return new InetSocketAddress(address, 1234);
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private int maxPlayerId() throws IOException {
+		int max = 0;
+		try (var reader = new TrafficCapture.Reader(file)) {
+			TrafficCapture.Record record;
+			while ((record = reader.next()) != null) {
+				if (record.actorType() == Actor.Type.PLAYER.ordinal()) {
+					max = Math.max(max, record.actorId());
+				} else if (record.actorType() == TrafficCapture.NO_ACTOR && record.isInbound() && record.data().length > 1
+					&& ActorRegistry.actorTypeOf(record.data()[0]) == Actor.Type.PLAYER) {
+					// Sent before the player registered, its id is only in the datagram header
+					max = Math.max(max, record.data()[1] & 0xFF);
+				}
+			}
+		}
+		return max;
+	}
+
+	@FunctionalInterface
+	private interface PacketSink {
+		void accept(TrafficCapture.Record record) throws IOException;
+	}
+}
@@ -0,0 +1,119 @@
+package net.lasertag.lasertagserver.web;
+
+import net.lasertag.lasertagserver.core.ActorRegistry;
+import net.lasertag.lasertagserver.core.GameSnapshot;
+import net.lasertag.lasertagserver.model.PlayerState;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary frames of the console WebSocket, little-endian like the device messages. The first byte
+ * is the topic.
+ * <pre>
+ * TIME:       topic, playing, gameType ordinal, timeLeft (2), redScore, blueScore
+ * PLAYERS:    topic, playersVersion (4), count, per player: id, health, score, teamId, damage,
+ *             bulletsMax, assignedRespawnPoint, flags (bit 0 flag carrier, bit 1 online), name length, name
+ * DISPENSERS: topic, health count, health ids, ammo count, ammo ids
+ * FLAGS:      topic, count, per flag: teamId, flags (bit 0 online, bit 1 on)
+ * </pre>
+ */
+public final class ConsoleFrames {
+
+	public static final int TIME = 0;
+	public static final int PLAYERS = 1;
+	public static final int DISPENSERS = 2;
+	public static final int FLAGS = 3;
+	public static final int TOPIC_COUNT = 4;
+	public static final String[] TOPIC_NAMES = {"time", "players", "dispensers", "flags"};
+	// Bytes before the first player record of a PLAYERS frame
+	public static final int PLAYERS_HEADER = 6;
+
+	private ConsoleFrames() {
+	}
+
+	public static byte[] time(GameSnapshot snapshot, int timeLeft) {
+		ByteBuffer data = ByteBuffer.allocate(7).order(ByteOrder.LITTLE_ENDIAN);
+		data.put((byte) TIME);
+		data.put((byte) (snapshot.gamePlaying() ? 1 : 0));
+		data.put((byte) snapshot.gameType().ordinal());
+		data.putShort((short) timeLeft);
+		data.put((byte) snapshot.redScore());
+		data.put((byte) snapshot.blueScore());
+		return data.array();
+	}
+
+	// Only the players accepted by filter, all when it is null
+	public static byte[] players(long playersVersion, List<PlayerState> players, boolean[] filter) {
+		int count = 0;
+		int size = PLAYERS_HEADER;
+		for (PlayerState player : players) {
+			if (accepts(filter, player.id())) {
+				count++;
+				size += 9 + nameBytes(player).length;
+			}
+		}
+		ByteBuffer data = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		data.put((byte) PLAYERS);
+		data.putInt((int) playersVersion);
+		data.put((byte) count);
+		for (PlayerState player : players) {
+			if (!accepts(filter, player.id())) {
+				continue;
+			}
+			data.put((byte) player.id());
+			data.put((byte) player.health());
+			data.put((byte) player.score());
+			data.put((byte) player.teamId());
+			data.put((byte) player.damage());
+			data.put((byte) player.bulletsMax());
+			data.put((byte) player.assignedRespawnPoint());
+			data.put((byte) ((player.flagCarrier() ? 1 : 0) | (player.isOnline() ? 2 : 0)));
+			var name = nameBytes(player);
+			data.put((byte) name.length);
+			data.put(name);
+		}
+		return data.array();
+	}
+
+	@SuppressWarnings("unchecked")
+	public static byte[] dispensers(GameSnapshot snapshot) {
+		var health = (List<Integer>) snapshot.dispensers().getOrDefault("health", List.of());
+		var ammo = (List<Integer>) snapshot.dispensers().getOrDefault("ammo", List.of());
+		ByteBuffer data = ByteBuffer.allocate(3 + health.size() + ammo.size());
+		data.put((byte) DISPENSERS);
+		data.put((byte) health.size());
+		health.forEach(id -> data.put(id.byteValue()));
+		data.put((byte) ammo.size());
+		ammo.forEach(id -> data.put(id.byteValue()));
+		return data.array();
+	}
+
+	@SuppressWarnings("unchecked")
+	public static byte[] flags(GameSnapshot snapshot) {
+		var flags = (List<ActorRegistry.FlagUiState>) snapshot.dispensers().getOrDefault("flags", List.of());
+		ByteBuffer data = ByteBuffer.allocate(2 + flags.size() * 2);
+		data.put((byte) FLAGS);
+		data.put((byte) flags.size());
+		for (var flag : flags) {
+			data.put((byte) flag.teamId());
+			data.put((byte) ((flag.online() ? 1 : 0) | ("on".equals(flag.state()) ? 2 : 0)));
+		}
+		return data.array();
+	}
+
+	private static boolean accepts(boolean[] filter, int playerId) {
+		return filter == null || (playerId < filter.length && filter[playerId]);
+	}
+
+	private static byte[] nameBytes(PlayerState player) {
+		if (player.name() == null) {
+			return new byte[0];
+		}
+		var name = player.name().getBytes(StandardCharsets.UTF_8);
+		return name.length <= 255 ? name : Arrays.copyOf(name, 255);
+	}
+}
@@ -0,0 +1,215 @@
+package net.lasertag.lasertagserver.web;
+
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.Session;
+import lombok.extern.slf4j.Slf4j;
+import net.lasertag.lasertagserver.core.GameSnapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An arena's console state as {@link ConsoleFrames} for WebSocket subscribers, fed alongside the
+ * SSE events. A frame is only sent when it differs from the previous one of its topic. Each
+ * subscriber has one outstanding asynchronous send and one pending frame per topic that newer
+ * frames replace, so a slow scoreboard skips frames instead of queueing them.
+ */
+@Slf4j
+public class ConsoleSocketChannel {
+
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+	// Last frame of each topic, sent to subscribers as they connect
+	private final AtomicReferenceArray<byte[]> frames = new AtomicReferenceArray<>(ConsoleFrames.TOPIC_COUNT);
+	private volatile GameSnapshot snapshot;
+	private volatile int timeLeft;
+
+	// topics is a mask of 1 << ConsoleFrames topic; players limits the players frame to those ids, null for all
+	public Subscriber subscribe(Session session, int topics, boolean[] players, GameSnapshot current) {
+		if (snapshot == null) {
+			update(current);
+		}
+		var subscriber = new Subscriber(session);
+		subscribers.add(subscriber);
+		subscriber.setFilter(topics, players);
+		log.info("Console WebSocket {} subscribed to {}. Total subscribers: {}",
+			session.getId(), topicNames(topics), subscribers.size());
+		return subscriber;
+	}
+
+	public void unsubscribe(Subscriber subscriber) {
+		subscribers.remove(subscriber);
+	}
+
+	public void update(GameSnapshot snapshot) {
+		var previous = this.snapshot;
+		this.snapshot = snapshot;
+		publish(ConsoleFrames.TIME, ConsoleFrames.time(snapshot, timeLeft));
+		if (previous == null || previous.playersVersion() != snapshot.playersVersion()) {
+			publish(ConsoleFrames.PLAYERS, ConsoleFrames.players(snapshot.playersVersion(), snapshot.players(), null));
+		}
+		publish(ConsoleFrames.DISPENSERS, ConsoleFrames.dispensers(snapshot));
+		publish(ConsoleFrames.FLAGS, ConsoleFrames.flags(snapshot));
+	}
+
+	public void updateTime(int timeLeft) {
+		this.timeLeft = timeLeft;
+		var current = snapshot;
+		if (current != null) {
+			publish(ConsoleFrames.TIME, ConsoleFrames.time(current, timeLeft));
+		}
+	}
+
+	public void closeAll() {
+		for (Subscriber subscriber : subscribers) {
+			subscriber.close(CloseReason.CloseCodes.GOING_AWAY);
+		}
+	}
+
+	public List<Map<String, Object>> getSubscriberStats() {
+		return subscribers.stream().map(Subscriber::stats).toList();
+	}
+
+	private void publish(int topic, byte[] frame) {
+		if (Arrays.equals(frames.getAndSet(topic, frame), frame)) {
+			return;
+		}
+		for (Subscriber subscriber : subscribers) {
+			subscriber.offer(topic, frame);
+		}
+	}
+
+	private static String topicNames(int topics) {
+		var names = new StringBuilder();
+		for (int topic = 0; topic < ConsoleFrames.TOPIC_COUNT; topic++) {
+			if ((topics & (1 << topic)) != 0) {
+				names.append(names.isEmpty() ? "" : ",").append(ConsoleFrames.TOPIC_NAMES[topic]);
+			}
+		}
+		return names.toString();
+	}
+
+	// Compares the player records, not the playersVersion that changes with any player
+	private static boolean samePlayers(byte[] a, byte[] b) {
+		return Arrays.equals(a, ConsoleFrames.PLAYERS_HEADER, a.length, b, ConsoleFrames.PLAYERS_HEADER, b.length);
+	}
+
+	public final class Subscriber {
+		private final Session session;
+		private final AtomicReferenceArray<byte[]> pending = new AtomicReferenceArray<>(ConsoleFrames.TOPIC_COUNT);
+		private final AtomicBoolean sending = new AtomicBoolean();
+		private volatile int topics;
+		private volatile boolean[] players;
+		// Players frame last offered under a filter, to skip changes of players outside it
+		private volatile byte[] filteredPlayers;
+		private volatile long framesSent;
+		private volatile long bytesSent;
+		private final LongAdder framesSkipped = new LongAdder();
+
+		private Subscriber(Session session) {
+			this.session = session;
+		}
+
+		// Replaces the subscription and sends the current frame of every subscribed topic
+		public void setFilter(int topics, boolean[] players) {
+			this.topics = topics;
+			this.players = players;
+			filteredPlayers = null;
+			for (int topic = 0; topic < ConsoleFrames.TOPIC_COUNT; topic++) {
+				var frame = frames.get(topic);
+				if (frame != null) {
+					offer(topic, frame);
+				}
+			}
+		}
+
+		private void offer(int topic, byte[] frame) {
+			if ((topics & (1 << topic)) == 0) {
+				return;
+			}
+			var filter = players;
+			var current = snapshot;
+			if (topic == ConsoleFrames.PLAYERS && filter != null && current != null) {
+				frame = ConsoleFrames.players(current.playersVersion(), current.players(), filter);
+				var previous = filteredPlayers;
+				if (previous != null && samePlayers(previous, frame)) {
+					return;
+				}
+				filteredPlayers = frame;
+			}
+			if (pending.getAndSet(topic, frame) != null) {
+				framesSkipped.increment();
+			}
+			sendNext();
+		}
+
+		private void sendNext() {
+			while (sending.compareAndSet(false, true)) {
+				byte[] frame = null;
+				for (int topic = 0; topic < ConsoleFrames.TOPIC_COUNT && frame == null; topic++) {
+					frame = pending.getAndSet(topic, null);
+				}
+				if (frame == null) {
+					sending.set(false);
+					// A frame offered after the scan but before the flag was cleared is picked up here
+					if (hasPending()) {
+						continue;
+					}
+					return;
+				}
+				if (!session.isOpen()) {
+					unsubscribe(this);
+					return;
+				}
+				int length = frame.length;
+				session.getAsyncRemote().sendBinary(ByteBuffer.wrap(frame), result -> {
+					if (result.isOK()) {
+						framesSent++;
+						bytesSent += length;
+						sending.set(false);
+						sendNext();
+					} else {
+						log.debug("Failed to send console frame (disconnected): {}", result.getException().getMessage());
+						close(CloseReason.CloseCodes.CLOSED_ABNORMALLY);
+					}
+				});
+				return;
+			}
+		}
+
+		private boolean hasPending() {
+			for (int topic = 0; topic < ConsoleFrames.TOPIC_COUNT; topic++) {
+				if (pending.get(topic) != null) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void close(CloseReason.CloseCode code) {
+			unsubscribe(this);
+			try {
+				session.close(new CloseReason(code, ""));
+			} catch (IOException e) {
+				log.debug("Failed to close console WebSocket: {}", e.getMessage());
+			}
+		}
+
+		private Map<String, Object> stats() {
+			Map<String, Object> stats = new LinkedHashMap<>();
+			stats.put("id", session.getId());
+			stats.put("topics", topicNames(topics));
+			stats.put("framesSent", framesSent);
+			stats.put("bytesSent", bytesSent);
+			stats.put("framesSkipped", framesSkipped.sum());
+			return stats;
+		}
+	}
+}
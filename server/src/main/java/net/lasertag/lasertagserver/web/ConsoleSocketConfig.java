@@ -0,0 +1,42 @@
+package net.lasertag.lasertagserver.web;
+
+import jakarta.servlet.ServletContext;
+import jakarta.websocket.DeploymentException;
+import jakarta.websocket.server.ServerContainer;
+import jakarta.websocket.server.ServerEndpointConfig;
+import lombok.extern.slf4j.Slf4j;
+import net.lasertag.lasertagserver.core.ArenaManager;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Registers {@link ConsoleSocketEndpoint} with the servlet container's WebSocket support when
+ * {@code lasertag.console.websocket.enabled} is set, next to the SSE event endpoints.
+ */
+@Component
+@ConditionalOnProperty(name = "lasertag.console.websocket.enabled", havingValue = "true")
+@Slf4j
+public class ConsoleSocketConfig {
+
+	public static final String[] PATHS = {"/api/ws", "/api/arenas/{arenaId}/ws"};
+
+	public ConsoleSocketConfig(ServletContext servletContext, ArenaManager arenaManager) throws DeploymentException {
+		var container = (ServerContainer) servletContext.getAttribute(ServerContainer.class.getName());
+		if (container == null) {
+			throw new IllegalStateException("The servlet container does not support WebSocket");
+		}
+		var configurator = new ServerEndpointConfig.Configurator() {
+			@Override
+			public <T> T getEndpointInstance(Class<T> endpointClass) {
+				return endpointClass.cast(new ConsoleSocketEndpoint(arenaManager));
+			}
+		};
+		for (String path : PATHS) {
+			container.addEndpoint(ServerEndpointConfig.Builder.create(ConsoleSocketEndpoint.class, path)
+				.configurator(configurator)
+				.build());
+		}
+		log.info("Console WebSocket listening on {}", String.join(", ", PATHS));
+	}
+}
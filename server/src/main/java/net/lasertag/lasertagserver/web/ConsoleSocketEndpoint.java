@@ -0,0 +1,119 @@
+package net.lasertag.lasertagserver.web;
+
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.Endpoint;
+import jakarta.websocket.EndpointConfig;
+import jakarta.websocket.MessageHandler;
+import jakarta.websocket.Session;
+import lombok.extern.slf4j.Slf4j;
+import net.lasertag.lasertagserver.core.Arena;
+import net.lasertag.lasertagserver.core.ArenaManager;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Console WebSocket for scoreboards and tablets, see {@link ConsoleFrames}. The subscription is
+ * given as a query string when connecting and can be replaced by sending one as a text message:
+ * {@code topics=time,players&players=1,4,7}. Without topics every topic is sent, without players
+ * every player.
+ */
+@Slf4j
+public class ConsoleSocketEndpoint extends Endpoint {
+
+	private static final int ALL_TOPICS = (1 << ConsoleFrames.TOPIC_COUNT) - 1;
+
+	private final ArenaManager arenaManager;
+	private ConsoleSocketChannel channel;
+	private ConsoleSocketChannel.Subscriber subscriber;
+
+	public ConsoleSocketEndpoint(ArenaManager arenaManager) {
+		this.arenaManager = arenaManager;
+	}
+
+	@Override
+	public void onOpen(Session session, EndpointConfig config) {
+		Arena arena;
+		try {
+			arena = arenaManager.getArena(session.getPathParameters().get("arenaId"));
+		} catch (NoSuchElementException e) {
+			log.warn("Console WebSocket rejected: {}", e.getMessage());
+			close(session, new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT, e.getMessage()));
+			return;
+		}
+		channel = arena.getSseEventService().getSocketChannel();
+		var subscription = new Subscription(session.getQueryString());
+		subscriber = channel.subscribe(session, subscription.topics, subscription.players, arena.getGame().getSnapshot());
+		session.addMessageHandler(String.class, (MessageHandler.Whole<String>) text -> {
+			var changed = new Subscription(text);
+			subscriber.setFilter(changed.topics, changed.players);
+		});
+	}
+
+	@Override
+	public void onClose(Session session, CloseReason closeReason) {
+		if (subscriber != null) {
+			channel.unsubscribe(subscriber);
+		}
+	}
+
+	@Override
+	public void onError(Session session, Throwable error) {
+		log.debug("Console WebSocket error: {}", error.getMessage());
+	}
+
+	private static void close(Session session, CloseReason reason) {
+		try {
+			session.close(reason);
+		} catch (IOException e) {
+			log.debug("Failed to close console WebSocket: {}", e.getMessage());
+		}
+	}
+
+	private static final class Subscription {
+		private int topics = ALL_TOPICS;
+		private boolean[] players;
+
+		private Subscription(String query) {
+			if (query == null || query.isBlank()) {
+				return;
+			}
+			for (String parameter : query.trim().split("&")) {
+				String[] keyValue = parameter.split("=", 2);
+				String value = keyValue.length > 1 ? keyValue[1] : "";
+				if (keyValue[0].equals("topics")) {
+					topics = parseTopics(value);
+				} else if (keyValue[0].equals("players")) {
+					players = parsePlayers(value);
+				}
+			}
+		}
+
+		private static int parseTopics(String value) {
+			int topics = 0;
+			for (String name : value.split(",")) {
+				for (int topic = 0; topic < ConsoleFrames.TOPIC_COUNT; topic++) {
+					if (ConsoleFrames.TOPIC_NAMES[topic].equalsIgnoreCase(name.trim())) {
+						topics |= 1 << topic;
+					}
+				}
+			}
+			return topics;
+		}
+
+		private static boolean[] parsePlayers(String value) {
+			var players = new boolean[256];
+			for (String id : value.split(",")) {
+				try {
+					int playerId = Integer.parseInt(id.trim());
+					if (playerId >= 0 && playerId < players.length) {
+						players[playerId] = true;
+					}
+				} catch (NumberFormatException e) {
+					log.debug("Ignoring player id {} in console subscription", id);
+				}
+			}
+			return players;
+		}
+	}
+}
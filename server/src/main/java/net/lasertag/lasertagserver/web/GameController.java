@@ -3,188 +3,280 @@ package net.lasertag.lasertagserver.web;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import net.lasertag.lasertagserver.core.ActorRegistry;
-import net.lasertag.lasertagserver.core.Game;
-import net.lasertag.lasertagserver.core.GameEventsListener;
+import net.lasertag.lasertagserver.core.Arena;
+import net.lasertag.lasertagserver.core.ArenaManager;
 import net.lasertag.lasertagserver.core.GameSettingsPreset;
-import net.lasertag.lasertagserver.core.GameSettings;
+import net.lasertag.lasertagserver.core.GameSnapshot;
 import net.lasertag.lasertagserver.core.GameType;
-import net.lasertag.lasertagserver.core.UdpServer;
 import net.lasertag.lasertagserver.model.Actor;
 import net.lasertag.lasertagserver.model.MessageType;
 import net.lasertag.lasertagserver.model.Player;
+import net.lasertag.lasertagserver.model.PlayerState;
 import net.lasertag.lasertagserver.model.RespawnPointColor;
 
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 
+/**
+ * Console API. Every endpoint is available both un-prefixed, acting on the default arena,
+ * and under {@code /api/arenas/{arenaId}/...} for a specific arena.
+ */
 @RestController
 @RequestMapping("/api")
 @Slf4j
 public class GameController {
 
-	private final ActorRegistry actorRegistry;
-	private final GameEventsListener gameEventsListener;
-	private final UdpServer udpServer;
-	private final SseEventService sseEventService;
-	private final GameSettings gameSettings;
-	private final Game game;
-
-	public GameController(ActorRegistry actorRegistry, GameEventsListener gameEventsListener, 
-						  SseEventService sseEventService, GameSettings gameSettings, UdpServer udpServer, Game game) {
-		this.actorRegistry = actorRegistry;
-		this.gameEventsListener = gameEventsListener;
-		this.sseEventService = sseEventService;
-		this.gameSettings = gameSettings;
-		this.udpServer = udpServer;
-		this.game = game;
-	}
-
-	@GetMapping("/events")
-	public SseEmitter initEventStreaming() {
-		SseEmitter emitter = sseEventService.createEmitter();
-		
-		try {
-			sseEventService.sendPlayersUpdate(actorRegistry.getPlayers());
-			sseEventService.sendDispensersUpdate(
-				actorRegistry.getDispensersForUi(game.isGamePlaying(), gameSettings.getCurrent().getGameType())
-			);
-			sseEventService.sendSettingsUpdate(gameSettings.getAllSettingsWithMetadata());
-		} catch (Exception e) {}
-		
-		return emitter;
+	private final ArenaManager arenaManager;
+
+	public GameController(ArenaManager arenaManager) {
+		this.arenaManager = arenaManager;
+	}
+
+	@GetMapping("/arenas")
+	public List<ArenaResponse> listArenas() {
+		return arenaManager.getArenas().stream()
+			.map(arena -> new ArenaResponse(arena.getId(), arena.getPort(), arena.getGame().isGamePlaying()))
+			.toList();
+	}
+
+	@GetMapping({"/events", "/arenas/{arenaId}/events"})
+	public SseEmitter initEventStreaming(@PathVariable(required = false) String arenaId,
+										 @RequestHeader(name = "Last-Event-ID", required = false) String lastEventIdHeader,
+										 @RequestParam(name = "lastEventId", required = false) String lastEventIdParam,
+										 HttpServletRequest request) {
+		Arena arena = arena(arenaId);
+		// Browsers send the header when they reconnect by themselves, the console passes the parameter when it does
+		String lastEventId = lastEventIdHeader != null ? lastEventIdHeader : lastEventIdParam;
+		return arena.getSseEventService().createEmitter(request.getRemoteAddr(), lastEventId,
+			arena.getGame().getSnapshot());
 	}
 
-	@GetMapping("/game/snapshot")
-	public GameSnapshotResponse getGameSnapshot() {
+	@GetMapping({"/game/snapshot", "/arenas/{arenaId}/game/snapshot"})
+	public GameSnapshotResponse getGameSnapshot(@PathVariable(required = false) String arenaId) {
+		Arena arena = arena(arenaId);
+		GameSnapshot snapshot = arena.getGame().getSnapshot();
 		GameStateResponse gameState = new GameStateResponse(
-			game.isGamePlaying(),
-			game.getTimeLeftSeconds(),
-			actorRegistry.getTeamScores()
+			snapshot.gamePlaying(),
+			snapshot.timeLeftSeconds(),
+			snapshot.teamScores()
 		);
 
 		return new GameSnapshotResponse(
+			snapshot.version(),
 			gameState,
-			actorRegistry.getPlayers(),
-			actorRegistry.getDispensersForUi(game.isGamePlaying(), gameSettings.getCurrent().getGameType()),
-			gameSettings.getAllSettingsWithMetadata()
+			snapshot.players(),
+			snapshot.playersVersion(),
+			snapshot.dispensers(),
+			snapshot.settings()
 		);
 	}
 
-	@PostMapping("/game/start")
-	public ResponseEntity<Map<String, String>> startGame(@RequestBody GeneralSettingsRequest request) {
-		applyGeneralSettings(request);
-		gameEventsListener.eventConsoleStartGame(
-			request.getTimeLimit(),
-			request.getFragLimit(),
-			GameType.valueOf(request.getGameType())
-		);
+	@PostMapping({"/game/start", "/arenas/{arenaId}/game/start"})
+	public ResponseEntity<Map<String, String>> startGame(@PathVariable(required = false) String arenaId,
+														 @RequestBody GeneralSettingsRequest request) {
+		Arena arena = arena(arenaId);
+		arena.run(() -> {
+			applyGeneralSettings(arena, request);
+			arena.getGame().eventConsoleStartGame(
+				request.getTimeLimit(),
+				request.getFragLimit(),
+				GameType.valueOf(request.getGameType())
+			);
+			publishSettings(arena);
+		});
 		return ResponseEntity.ok(Map.of("status", "Game started"));
 	}
 
-	@PutMapping("/settings/general")
-	public ResponseEntity<Map<String, String>> updateGeneralSettings(@RequestBody GeneralSettingsRequest request) {
-		applyGeneralSettings(request);
+	@PutMapping({"/settings/general", "/arenas/{arenaId}/settings/general"})
+	public ResponseEntity<Map<String, String>> updateGeneralSettings(@PathVariable(required = false) String arenaId,
+																	 @RequestBody GeneralSettingsRequest request) {
+		Arena arena = arena(arenaId);
+		arena.run(() -> {
+			applyGeneralSettings(arena, request);
+			publishSettings(arena);
+		});
 		return ResponseEntity.ok(Map.of("status", "Settings updated"));
 	}
 
-	private void applyGeneralSettings(GeneralSettingsRequest request) {
+	private void applyGeneralSettings(Arena arena, GeneralSettingsRequest request) {
+		var gameSettings = arena.getGameSettings();
 		gameSettings.getCurrent().setTimeLimitMinutes(request.getTimeLimit());
 		gameSettings.getCurrent().setFragLimit(request.getFragLimit());
 		gameSettings.getCurrent().setGameType(GameType.valueOf(request.getGameType()));
 		gameSettings.syncToActors();
 	}
 
-	@PostMapping("/game/end")
-	public ResponseEntity<Map<String, String>> endGame() {
-		gameEventsListener.eventConsoleEndGame();
+	@PostMapping({"/game/end", "/arenas/{arenaId}/game/end"})
+	public ResponseEntity<Map<String, String>> endGame(@PathVariable(required = false) String arenaId) {
+		Arena arena = arena(arenaId);
+		arena.run(() -> arena.getGame().eventConsoleEndGame());
 		return ResponseEntity.ok(Map.of("status", "Game ended"));
 	}
 
-	@PutMapping("/players/{id}")
-	public ResponseEntity<Player> updatePlayer(@PathVariable int id, @RequestBody GameSettingsPreset.PlayerSettings request) {
-		GameSettingsPreset.PlayerSettings existingSettings = gameSettings.getCurrent().getPlayerSettings(id);
-		boolean nameUpdated = existingSettings != null && !Objects.equals(existingSettings.getName(), request.getName());
+	@PutMapping({"/players/{id}", "/arenas/{arenaId}/players/{id}"})
+	public ResponseEntity<PlayerState> updatePlayer(@PathVariable(required = false) String arenaId, @PathVariable int id,
+											   @RequestBody GameSettingsPreset.PlayerSettings request) {
+		Arena arena = arena(arenaId);
+		arena.run(() -> {
+			var updated = (Player) arena.getActorRegistry().findActor(Actor.Type.PLAYER, id);
+			if (updated == null) {
+				throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Player not found: " + id);
+			}
+			var gameSettings = arena.getGameSettings();
+			GameSettingsPreset.PlayerSettings existingSettings = gameSettings.getCurrent().getPlayerSettings(id);
+			boolean nameUpdated = existingSettings != null && !Objects.equals(existingSettings.getName(), request.getName());
 
-		gameSettings.getCurrent().setPlayerSettings(id, request);
-		gameSettings.syncToActors();
+			gameSettings.getCurrent().setPlayerSettings(id, request);
+			gameSettings.syncToActors();
+			arena.getGame().onPlayerDataUpdated(updated, nameUpdated);
+			publishSettings(arena);
+		});
 
-		Player player = actorRegistry.getPlayerById(id);
-		gameEventsListener.onPlayerDataUpdated(player, nameUpdated);
-		
-		return ResponseEntity.ok(player);
+		return ResponseEntity.ok(arena.getGame().getSnapshot().player(id));
 	}
 
-	@PostMapping("/players/{id}/devevent")
+	@PostMapping({"/players/{id}/devevent", "/arenas/{arenaId}/players/{id}/devevent"})
 	public ResponseEntity<Map<String, String>> sendDevEvent(
+		@PathVariable(required = false) String arenaId,
 		@PathVariable int id,
 		@RequestParam int type,
 		@RequestParam int payload
 	) {
-		Player player = actorRegistry.getPlayerById(id);
-		if (player == null || !player.isOnline()) {
-			return ResponseEntity.badRequest().body(Map.of("error", "Player not found or offline"));
+		Arena arena = arena(arenaId);
+		boolean sent = arena.call(() -> {
+			var player = arena.getActorRegistry().findActor(Actor.Type.PLAYER, id);
+			if (player == null) {
+				throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Player not found: " + id);
+			}
+			if (!player.isOnline()) {
+				return false;
+			}
+			arena.getUdpServer().sendEventToClient(MessageType.MOCK_DEVICE_EVENT, player, (byte) type, (byte) payload);
+			return true;
+		});
+		if (!sent) {
+			return ResponseEntity.badRequest().body(Map.of("error", "Player offline"));
 		}
-		udpServer.sendEventToClient(MessageType.MOCK_DEVICE_EVENT, player, (byte) type, (byte) payload);
 		return ResponseEntity.ok(Map.of("status", "Mock device event sent"));
 	}
 
-	@PutMapping("/settings/respawn-points")
-	public ResponseEntity<Map<String, String>> updateRespawnPoints(@RequestBody UpdateRespawnPointsRequest request) {
-		gameSettings.getCurrent().setRespawnPoints(request.getColors());
-		sseEventService.sendSettingsUpdate(gameSettings.getAllSettingsWithMetadata());
+	@GetMapping({"/diagnostics/udp", "/arenas/{arenaId}/diagnostics/udp"})
+	public Map<String, Long> getUdpDiagnostics(@PathVariable(required = false) String arenaId) {
+		return arena(arenaId).getUdpServer().getDiagnostics();
+	}
+
+	@GetMapping({"/diagnostics/game-loop", "/arenas/{arenaId}/diagnostics/game-loop"})
+	public Map<String, Long> getGameLoopDiagnostics(@PathVariable(required = false) String arenaId) {
+		return arena(arenaId).getGameLoop().getDiagnostics();
+	}
+
+	@GetMapping({"/diagnostics/sse", "/arenas/{arenaId}/diagnostics/sse"})
+	public List<Map<String, Object>> getSseDiagnostics(@PathVariable(required = false) String arenaId) {
+		return arena(arenaId).getSseEventService().getClientStats();
+	}
+
+	@GetMapping({"/diagnostics/websocket", "/arenas/{arenaId}/diagnostics/websocket"})
+	public List<Map<String, Object>> getWebSocketDiagnostics(@PathVariable(required = false) String arenaId) {
+		return arena(arenaId).getSseEventService().getSocketChannel().getSubscriberStats();
+	}
+
+	@PutMapping({"/settings/respawn-points", "/arenas/{arenaId}/settings/respawn-points"})
+	public ResponseEntity<Map<String, String>> updateRespawnPoints(@PathVariable(required = false) String arenaId,
+																   @RequestBody UpdateRespawnPointsRequest request) {
+		Arena arena = arena(arenaId);
+		arena.run(() -> {
+			arena.getGameSettings().getCurrent().setRespawnPoints(request.getColors());
+			publishSettings(arena);
+		});
 		return ResponseEntity.ok(Map.of("status", "Respawn points updated"));
 	}
 
-	@PutMapping("/dispensers/{type}")
+	@PutMapping({"/dispensers/{type}", "/arenas/{arenaId}/dispensers/{type}"})
 	public ResponseEntity<Map<String, String>> updateDispensers(
-		@PathVariable String type, 
+		@PathVariable(required = false) String arenaId,
+		@PathVariable String type,
 		@RequestBody UpdateDispenserRequest request
 	) {
+		Arena arena = arena(arenaId);
 		Actor.Type dispenserType = Actor.Type.valueOf(type);
-		gameSettings.getCurrent().setDispenserTimeout(dispenserType, request.getTimeout());
-		gameSettings.getCurrent().setDispenserAmount(dispenserType, request.getAmount());
-		
-		gameSettings.syncToActors();
-		udpServer.sendSettingsToAllDispensers();
-		
+		arena.run(() -> {
+			var gameSettings = arena.getGameSettings();
+			gameSettings.getCurrent().setDispenserTimeout(dispenserType, request.getTimeout());
+			gameSettings.getCurrent().setDispenserAmount(dispenserType, request.getAmount());
+
+			gameSettings.syncToActors();
+			arena.getUdpServer().sendSettingsToAllDispensers();
+			publishSettings(arena);
+		});
+
 		return ResponseEntity.ok(Map.of("status", "Dispensers updated"));
 	}
 
-	@GetMapping("/presets")
-	public List<String> listPresets() throws IOException {
-		return gameSettings.listPresets();
+	@GetMapping({"/presets", "/arenas/{arenaId}/presets"})
+	public List<String> listPresets(@PathVariable(required = false) String arenaId) throws IOException {
+		return arena(arenaId).getGameSettings().listPresets();
 	}
 
-	@PostMapping("/presets/{name}")
-	public ResponseEntity<Map<String, String>> savePreset(@PathVariable String name) throws IOException {
-		gameSettings.savePreset(name);
-		sseEventService.sendSettingsUpdate(gameSettings.getAllSettingsWithMetadata());
+	@PostMapping({"/presets/{name}", "/arenas/{arenaId}/presets/{name}"})
+	public ResponseEntity<Map<String, String>> savePreset(@PathVariable(required = false) String arenaId,
+														  @PathVariable String name) {
+		Arena arena = arena(arenaId);
+		arena.call(() -> {
+			arena.getGameSettings().savePreset(name);
+			publishSettings(arena);
+			return null;
+		});
 		return ResponseEntity.ok(Map.of("status", "Preset saved"));
 	}
 
-	@PostMapping("/presets/{name}/load")
-	public ResponseEntity<Map<String, String>> loadPreset(@PathVariable String name) throws IOException {
-		gameSettings.loadPreset(name);
-		sseEventService.sendSettingsUpdate(gameSettings.getAllSettingsWithMetadata());
-		sseEventService.sendPlayersUpdate(actorRegistry.getPlayers());
-		sseEventService.sendDispensersUpdate(
-			actorRegistry.getDispensersForUi(game.isGamePlaying(), gameSettings.getCurrent().getGameType())
-		);
+	@PostMapping({"/presets/{name}/load", "/arenas/{arenaId}/presets/{name}/load"})
+	public ResponseEntity<Map<String, String>> loadPreset(@PathVariable(required = false) String arenaId,
+														  @PathVariable String name) {
+		Arena arena = arena(arenaId);
+		arena.call(() -> {
+			arena.getGameSettings().loadPreset(name);
+			// Players and dispensers reach SSE and WebSocket consoles on the next refresh
+			publishSettings(arena);
+			return null;
+		});
 		return ResponseEntity.ok(Map.of("status", "Preset loaded"));
 	}
 
+	// Game thread only: snapshots carry the settings, so each change is versioned and reaches consoles through one
+	private void publishSettings(Arena arena) {
+		arena.getGameSettings().changed();
+		arena.getSseEventService().refreshUI(arena.getGame().publishSnapshot());
+	}
+
+	private Arena arena(String arenaId) {
+		try {
+			return arenaManager.getArena(arenaId);
+		} catch (NoSuchElementException e) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+		}
+	}
+
 	@ExceptionHandler(IOException.class)
 	public void handleIOException(IOException e) {
 		log.warn("Client disconnected: {}", e.getMessage());
 	}
 
+	@ExceptionHandler(UncheckedIOException.class)
+	public void handleUncheckedIOException(UncheckedIOException e) {
+		handleIOException(e.getCause());
+	}
+
 	@Getter
 	@Setter
 	public static class GeneralSettingsRequest {
@@ -206,9 +298,17 @@ public class GameController {
 		private List<RespawnPointColor> colors;
 	}
 
+	public record ArenaResponse(
+		String id,
+		int udpPort,
+		boolean playing
+	) {}
+
 	public record GameSnapshotResponse(
+		long version,
 		GameStateResponse gameState,
-		List<Player> players,
+		List<PlayerState> players,
+		long playersVersion,
 		Map<String, Object> dispensers,
 		Map<String, Object> settings
 	) {}
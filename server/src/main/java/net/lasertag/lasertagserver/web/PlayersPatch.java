@@ -0,0 +1,88 @@
+package net.lasertag.lasertagserver.web;
+
+import net.lasertag.lasertagserver.model.PlayerState;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Console players stream: a full {@code players} event, then {@code playersPatch} events holding an
+ * RFC 7386 merge patch of the players keyed by id. Only changed fields of changed players are in a
+ * patch; a removed player is {@code null}. Both carry the players version, a patch also the version
+ * it applies to, so the console can tell when it missed one.
+ */
+public final class PlayersPatch implements SseDispatcher.Delta {
+
+	public static final PlayersPatch INSTANCE = new PlayersPatch();
+
+	private PlayersPatch() {
+	}
+
+	@Override
+	public Object full(long version, Object state) {
+		Map<String, Object> full = new LinkedHashMap<>();
+		full.put("version", version);
+		full.put("players", state);
+		return full;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Object patch(long baseVersion, Object baseState, long version, Object state) {
+		Map<String, Object> patch = new LinkedHashMap<>();
+		patch.put("version", version);
+		patch.put("baseVersion", baseVersion);
+		patch.put("patch", diff((List<PlayerState>) baseState, (List<PlayerState>) state));
+		return patch;
+	}
+
+	// Both lists are ordered by id
+	static Map<String, Object> diff(List<PlayerState> from, List<PlayerState> to) {
+		Map<String, Object> patch = new LinkedHashMap<>();
+		int i = 0;
+		int j = 0;
+		while (i < from.size() || j < to.size()) {
+			var before = i < from.size() ? from.get(i) : null;
+			var after = j < to.size() ? to.get(j) : null;
+			if (after == null || (before != null && before.id() < after.id())) {
+				patch.put(String.valueOf(before.id()), null);
+				i++;
+			} else if (before == null || after.id() < before.id()) {
+				patch.put(String.valueOf(after.id()), after);
+				j++;
+			} else {
+				if (!before.equals(after)) {
+					patch.put(String.valueOf(after.id()), diff(before, after));
+				}
+				i++;
+				j++;
+			}
+		}
+		return patch;
+	}
+
+	// Field names as the players are serialized in the full event
+	private static Map<String, Object> diff(PlayerState from, PlayerState to) {
+		Map<String, Object> fields = new LinkedHashMap<>();
+		changed(fields, "type", from.type(), to.type());
+		changed(fields, "name", from.name(), to.name());
+		changed(fields, "health", from.health(), to.health());
+		changed(fields, "score", from.score(), to.score());
+		changed(fields, "teamId", from.teamId(), to.teamId());
+		changed(fields, "damage", from.damage(), to.damage());
+		changed(fields, "bulletsMax", from.bulletsMax(), to.bulletsMax());
+		changed(fields, "assignedRespawnPoint", from.assignedRespawnPoint(), to.assignedRespawnPoint());
+		changed(fields, "flagCarrier", from.flagCarrier(), to.flagCarrier());
+		changed(fields, "clientIp", from.clientIp(), to.clientIp());
+		changed(fields, "online", from.isOnline(), to.isOnline());
+		return fields;
+	}
+
+	private static void changed(Map<String, Object> fields, String name, Object from, Object to) {
+		if (!Objects.equals(from, to)) {
+			fields.put(name, to);
+		}
+	}
+}
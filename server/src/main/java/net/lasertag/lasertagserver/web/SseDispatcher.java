@@ -0,0 +1,514 @@
+package net.lasertag.lasertagserver.web;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Delivers SSE events of one arena off the publishing thread. Every client has its own queue and a
+ * virtual thread writing to its emitter, so a stalled browser only delays itself. State events keep
+ * one slot per name, a newer value replaces it and moves to the back; other events queue up to a
+ * limit, oldest dropped first. A client stuck in one write for too long is disconnected.
+ * <p>
+ * Events are numbered as published and every client receives them in that order, so the id of the
+ * last one a browser saw tells which it missed. The most recent events are kept for clients that
+ * reconnect with it. Ids are prefixed with an epoch unique to this dispatcher, so an id from before
+ * a restart, or from another arena, is not mistaken for one of its own. They end with the version of
+ * each {@link Delta} state the client holds after that event, since coalescing may have skipped the
+ * last one published before it.
+ * <p>
+ * The last value of every state event is kept with its JSON, so a value equal to it is not sent
+ * again and clients connecting later get it without another serialization. State registered with a
+ * {@link Delta} is published as {@link Versioned}; a client gets it in full once, then patches from
+ * the version it was last sent.
+ */
+@Slf4j
+public class SseDispatcher {
+
+	public static final int MAX_QUEUED_EVENTS = 256;
+	private static final long STALL_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(15);
+	private static final AtomicLong EPOCHS = new AtomicLong(System.currentTimeMillis());
+
+	private final String arenaId;
+	private final ObjectMapper objectMapper;
+	private final List<Client> clients = new CopyOnWriteArrayList<>();
+	private final Map<String, Event> latestState = new ConcurrentHashMap<>();
+	private final Map<String, Delta> deltas = new ConcurrentHashMap<>();
+	// Order of the versions at the end of event ids
+	private final List<String> deltaNames = new CopyOnWriteArrayList<>();
+	private final AtomicInteger clientIds = new AtomicInteger();
+	private final String epoch = Long.toString(EPOCHS.incrementAndGet(), 36);
+
+	// Numbering, replay buffer and the order events reach clients in are guarded by publishLock
+	private final ReentrantLock publishLock = new ReentrantLock();
+	private final Event[] replay;
+	private long lastId;
+
+	public SseDispatcher(String arenaId, ObjectMapper objectMapper, int replayCapacity) {
+		this.arenaId = arenaId;
+		this.objectMapper = objectMapper;
+		this.replay = new Event[replayCapacity];
+	}
+
+	/**
+	 * A client that last saw the event with id lastEventId gets the events published since, if they are
+	 * all still kept: logs in order, and the latest value of each state event that changed. Otherwise,
+	 * and for a new client (lastEventId null), it gets the current value of the state events named in
+	 * initialState, which also supplies the values of those never published.
+	 */
+	public SseEmitter connect(String remoteAddress, String lastEventId, Map<String, Object> initialState) {
+		long lastSeen = sequenceOf(lastEventId);
+		var emitter = newEmitter();
+		var client = new Client(clientIds.incrementAndGet(), remoteAddress, emitter);
+		emitter.onCompletion(client::close);
+		emitter.onTimeout(client::close);
+		emitter.onError(e -> client.close());
+		boolean resumed;
+		publishLock.lock();
+		try {
+			initialState.forEach((name, data) -> {
+				if (!latestState.containsKey(name)) {
+					publishLocked(name, data, true);
+				}
+			});
+			resumed = lastSeen >= 0 && lastSeen <= lastId && lastSeen >= lastId - replay.length;
+			if (resumed) {
+				resume(client, lastSeen, heldVersions(lastEventId));
+			} else {
+				// Stamped with the current id: the client has the state as of here, and nothing published earlier
+				for (String name : initialState.keySet()) {
+					client.offer(latestState.get(name), true, lastId);
+				}
+			}
+			clients.add(client);
+		} finally {
+			publishLock.unlock();
+		}
+		Thread.ofVirtual().name("Sse-" + arenaId + "-" + client.id).start(client::deliver);
+		if (resumed) {
+			log.info("SSE client resumed after event {}. Total clients: {}", lastEventId, clients.size());
+		} else if (lastEventId != null) {
+			log.info("SSE client reconnected after unknown event {}, sending full state. Total clients: {}", lastEventId, clients.size());
+		} else {
+			log.info("New SSE client connected. Total clients: {}", clients.size());
+		}
+		return emitter;
+	}
+
+	// Overridden by tests to see what clients are sent
+	SseEmitter newEmitter() {
+		return new SseEmitter(Long.MAX_VALUE);
+	}
+
+	// Sequence number of an event id of this epoch, -1 for any other id
+	private long sequenceOf(String eventId) {
+		if (eventId == null) {
+			return -1;
+		}
+		String prefix = epoch + "-";
+		if (!eventId.startsWith(prefix)) {
+			return -1;
+		}
+		int end = eventId.indexOf('.', prefix.length());
+		try {
+			return Long.parseLong(eventId.substring(prefix.length(), end < 0 ? eventId.length() : end));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	// Delta state versions at the end of an event id: ".<version>" per delta name, empty when none was sent
+	private Map<String, Long> heldVersions(String eventId) {
+		Map<String, Long> versions = new HashMap<>();
+		var parts = eventId.split("\\.", -1);
+		for (int i = 1; i < parts.length && i <= deltaNames.size(); i++) {
+			try {
+				if (!parts[i].isEmpty()) {
+					versions.put(deltaNames.get(i - 1), Long.parseLong(parts[i]));
+				}
+			} catch (NumberFormatException e) {
+				return Map.of();
+			}
+		}
+		return versions;
+	}
+
+	private void resume(Client client, long lastEventId, Map<String, Long> heldVersions) {
+		// Delta state is patched from the version the client holds, when that is still kept
+		for (String name : deltaNames) {
+			var version = heldVersions.get(name);
+			var held = version != null ? findVersion(name, version) : null;
+			if (held != null) {
+				client.delivered.put(name, held);
+			}
+			// Not replayed below, so a version that cannot be proven is replaced here, in full if unknown
+			var latest = latestState.get(name);
+			if (latest != null && latest.id <= lastEventId && (held == null || held.version() != latest.version())) {
+				client.offer(latest, true, lastEventId);
+			}
+		}
+		for (long id = lastEventId + 1; id <= lastId; id++) {
+			var event = replay[(int) (id % replay.length)];
+			client.offer(event, event.state, event.id);
+		}
+	}
+
+	private Versioned findVersion(String name, long version) {
+		var latest = latestState.get(name);
+		if (latest != null && latest.version() == version) {
+			return (Versioned) latest.data;
+		}
+		for (long id = lastId; id > lastId - replay.length && id > 0; id--) {
+			var event = replay[(int) (id % replay.length)];
+			if (event.name.equals(name) && event.version() == version) {
+				return (Versioned) event.data;
+			}
+		}
+		return null;
+	}
+
+	// Patches of the named state are sent as the event name followed by "Patch"
+	public void registerDelta(String name, Delta delta) {
+		deltas.put(name, delta);
+		deltaNames.add(name);
+	}
+
+	public void publish(String name, Object data, boolean state) {
+		publishLock.lock();
+		try {
+			publishLocked(name, data, state);
+		} finally {
+			publishLock.unlock();
+		}
+		long now = System.nanoTime();
+		for (Client client : clients) {
+			if (client.isStalled(now)) {
+				// Closed before logging, the warning itself is published to the remaining clients
+				client.close();
+				client.emitter.completeWithError(new IOException("SSE client stalled"));
+				log.warn("SSE client {} ({}) stalled, disconnected", client.id, client.remoteAddress);
+			}
+		}
+	}
+
+	private void publishLocked(String name, Object data, boolean state) {
+		var previous = state ? latestState.get(name) : null;
+		var delta = deltas.get(name);
+		if (previous != null && (delta != null
+			? previous.version() == ((Versioned) data).version() : Objects.equals(previous.data, data))) {
+			return;
+		}
+		var event = new Event(++lastId, name, data, state, delta);
+		replay[(int) (event.id % replay.length)] = event;
+		if (state) {
+			if (previous != null && delta != null) {
+				event.base = (Versioned) previous.data;
+			}
+			latestState.put(name, event);
+		}
+		for (Client client : clients) {
+			client.offer(event, state, event.id);
+		}
+	}
+
+	public void closeAll() {
+		for (Client client : clients) {
+			client.emitter.complete();
+			client.close();
+		}
+	}
+
+	public List<Map<String, Object>> getClientStats() {
+		long now = System.nanoTime();
+		return clients.stream().map(client -> client.stats(now)).toList();
+	}
+
+	/**
+	 * Encodes a versioned state in full and as the change from an earlier version.
+	 */
+	public interface Delta {
+		Object full(long version, Object state);
+
+		Object patch(long baseVersion, Object baseState, long version, Object state);
+	}
+
+	public record Versioned(long version, Object state) {
+	}
+
+	/**
+	 * Published event, serialized once by whichever client sends it first. A delta event also keeps
+	 * the state published before it, so the patch between the two is shared by all clients.
+	 */
+	private final class Event {
+		private final long id;
+		private final String name;
+		private final Object data;
+		private final boolean state;
+		private final Delta delta;
+		private Versioned base;
+		private volatile String json;
+		private volatile String patchJson;
+
+		private Event(long id, String name, Object data, boolean state, Delta delta) {
+			this.id = id;
+			this.name = name;
+			this.data = data;
+			this.state = state;
+			this.delta = delta;
+		}
+
+		private long version() {
+			return ((Versioned) data).version();
+		}
+
+		private String json() throws JsonProcessingException {
+			var result = json;
+			if (result == null) {
+				var versioned = delta != null ? (Versioned) data : null;
+				result = objectMapper.writeValueAsString(
+					versioned != null ? delta.full(versioned.version(), versioned.state()) : data);
+				json = result;
+			}
+			return result;
+		}
+
+		private String patchJson(Versioned from) throws JsonProcessingException {
+			if (base == null || from.version() != base.version()) {
+				return patchJsonFrom(from);
+			}
+			var result = patchJson;
+			if (result == null) {
+				result = patchJsonFrom(from);
+				patchJson = result;
+			}
+			return result;
+		}
+
+		private String patchJsonFrom(Versioned from) throws JsonProcessingException {
+			var to = (Versioned) data;
+			return objectMapper.writeValueAsString(delta.patch(from.version(), from.state(), to.version(), to.state()));
+		}
+	}
+
+	// A queued event with the id it is sent under
+	private static final class Pending {
+		private Event event;
+		private long id;
+		private final boolean state;
+
+		private Pending(Event event, long id, boolean state) {
+			this.event = event;
+			this.id = id;
+			this.state = state;
+		}
+	}
+
+	private final class Client {
+		private final int id;
+		private final String remoteAddress;
+		private final SseEmitter emitter;
+		private final long connectedNanos = System.nanoTime();
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition ready = lock.newCondition();
+		private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+		private final Map<String, Pending> stateSlots = new HashMap<>();
+		private int queuedEvents;
+		private boolean closed;
+
+		// Written by the delivery thread, read for stats and stall checks
+		private volatile long sendStartedNanos;
+		private volatile long lastSentNanos;
+		private volatile long sent;
+		private volatile long coalesced;
+		private volatile long dropped;
+		private volatile long patches;
+		// Delivery thread only once it started: the version of each delta state this client was last sent
+		private final Map<String, Versioned> delivered = new HashMap<>();
+
+		private Client(int id, String remoteAddress, SseEmitter emitter) {
+			this.id = id;
+			this.remoteAddress = remoteAddress;
+			this.emitter = emitter;
+		}
+
+		// Called in id order, so the queue stays ordered by id
+		private void offer(Event event, boolean state, long id) {
+			lock.lock();
+			try {
+				if (closed) {
+					return;
+				}
+				if (state) {
+					var slot = stateSlots.get(event.name);
+					if (slot != null) {
+						queue.remove(slot);
+						slot.event = event;
+						slot.id = id;
+						coalesced++;
+					} else {
+						slot = new Pending(event, id, true);
+						stateSlots.put(event.name, slot);
+					}
+					queue.addLast(slot);
+				} else {
+					if (queuedEvents >= MAX_QUEUED_EVENTS) {
+						dropOldestEvent();
+					}
+					queue.addLast(new Pending(event, id, false));
+					queuedEvents++;
+				}
+				ready.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void dropOldestEvent() {
+			for (Iterator<Pending> it = queue.iterator(); it.hasNext(); ) {
+				if (!it.next().state) {
+					it.remove();
+					queuedEvents--;
+					dropped++;
+					return;
+				}
+			}
+		}
+
+		private Pending take() throws InterruptedException {
+			lock.lock();
+			try {
+				while (queue.isEmpty() && !closed) {
+					ready.await();
+				}
+				if (closed) {
+					return null;
+				}
+				var pending = queue.pollFirst();
+				if (pending.state) {
+					stateSlots.remove(pending.event.name);
+				} else {
+					queuedEvents--;
+				}
+				return pending;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void deliver() {
+			try {
+				Pending pending;
+				while ((pending = take()) != null) {
+					var event = pending.event;
+					if (event.delta == null) {
+						send(pending.id, event.name, event.json());
+					} else {
+						sendDelta(pending.id, event);
+					}
+				}
+			} catch (IOException e) {
+				log.debug("Failed to send SSE event to client (disconnected): {}", e.getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException e) {
+				log.error("SSE delivery to client {} failed", id, e);
+			}
+			close();
+		}
+
+		private void sendDelta(long id, Event event) throws IOException {
+			var target = (Versioned) event.data;
+			var previous = delivered.get(event.name);
+			// Recorded first, so the id sent with it already names the new version
+			delivered.put(event.name, target);
+			if (previous == null) {
+				send(id, event.name, event.json());
+			} else if (previous.version() != target.version()) {
+				send(id, event.name + "Patch", event.patchJson(previous));
+				patches++;
+			}
+		}
+
+		private void send(long id, String name, String json) throws IOException {
+			sendStartedNanos = System.nanoTime();
+			emitter.send(SseEmitter.event().id(eventId(id)).name(name).data(json));
+			lastSentNanos = System.nanoTime();
+			sendStartedNanos = 0;
+			sent++;
+		}
+
+		private String eventId(long id) {
+			var eventId = new StringBuilder(epoch).append('-').append(id);
+			for (String name : deltaNames) {
+				eventId.append('.');
+				var held = delivered.get(name);
+				if (held != null) {
+					eventId.append(held.version());
+				}
+			}
+			return eventId.toString();
+		}
+
+		private boolean isStalled(long now) {
+			long started = sendStartedNanos;
+			return started != 0 && now - started > STALL_TIMEOUT_NANOS;
+		}
+
+		private void close() {
+			lock.lock();
+			try {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				queue.clear();
+				stateSlots.clear();
+				ready.signal();
+			} finally {
+				lock.unlock();
+			}
+			clients.remove(this);
+		}
+
+		private Map<String, Object> stats(long now) {
+			Map<String, Object> stats = new LinkedHashMap<>();
+			stats.put("id", id);
+			stats.put("remoteAddress", remoteAddress);
+			stats.put("connectedSeconds", TimeUnit.NANOSECONDS.toSeconds(now - connectedNanos));
+			stats.put("sent", sent);
+			stats.put("coalesced", coalesced);
+			stats.put("dropped", dropped);
+			stats.put("patches", patches);
+			lock.lock();
+			try {
+				stats.put("queued", queue.size());
+			} finally {
+				lock.unlock();
+			}
+			long last = lastSentNanos;
+			stats.put("lastSentMillisAgo", last == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(now - last));
+			long started = sendStartedNanos;
+			stats.put("blockedMillis", started == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(now - started));
+			return stats;
+		}
+	}
+}
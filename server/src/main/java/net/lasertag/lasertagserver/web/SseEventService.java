@@ -1,66 +1,85 @@
 package net.lasertag.lasertagserver.web;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import jakarta.annotation.PostConstruct;
-import lombok.extern.slf4j.Slf4j;
-import net.lasertag.lasertagserver.core.ActorRegistry;
-import net.lasertag.lasertagserver.core.GameSettings;
+import lombok.Getter;
+import net.lasertag.lasertagserver.core.GameSnapshot;
 
-import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.IOException;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-@Service
-@Slf4j
 public class SseEventService {
 
-	private final CopyOnWriteArrayList<SseEmitter> emitters = new CopyOnWriteArrayList<>();
-	private final ObjectMapper objectMapper = new ObjectMapper();
-
-	private final ActorRegistry actorRegistry;
-	private final GameSettings gameSettings;
-
-	public SseEventService(ActorRegistry actorRegistry, GameSettings gameSettings) {
-		this.actorRegistry = actorRegistry;
-		this.gameSettings = gameSettings;
+	public static final long REFRESH_WINDOW_MILLIS = 100;
+	// Events kept for consoles that reconnect with Last-Event-ID, a few minutes of a busy match
+	public static final int REPLAY_EVENTS = 4096;
+
+	private final String arenaId;
+	private final SseDispatcher dispatcher;
+	// Binary alternative to the events below, for WebSocket subscribers
+	@Getter
+	private final ConsoleSocketChannel socketChannel = new ConsoleSocketChannel();
+	// Game thread only: snapshot version the console was last refreshed with, and the one waiting for flushRefresh
+	private long refreshedVersion = -1;
+	private GameSnapshot pendingRefresh;
+	private long sentSettingsVersion = -1;
+
+	public SseEventService(String arenaId) {
+		this.arenaId = arenaId;
+		this.dispatcher = new SseDispatcher(arenaId, new ObjectMapper(), REPLAY_EVENTS);
+		dispatcher.registerDelta("players", PlayersPatch.INSTANCE);
 	}
 
-	@PostConstruct
 	public void init() {
-		SseLogAppender.setSseEventService(this);
+		SseLogAppender.registerSseEventService(arenaId, this);
 	}
 
-	public void refreshUI(boolean isPlaying, Object dispensers) {
-		sendGameIsPlaying(isPlaying);
-		sendPlayersUpdate(actorRegistry.getPlayers());
-		sendDispensersUpdate(dispensers);
-		sendSettingsUpdate(gameSettings.getAllSettingsWithMetadata());
+	// Remembers the snapshot for the next flushRefresh; skipped when the console already has it.
+	// Settings only move on their own endpoints, so they are sent here once per version instead.
+	public void refreshUI(GameSnapshot snapshot) {
+		if (snapshot.settingsVersion() != sentSettingsVersion) {
+			sentSettingsVersion = snapshot.settingsVersion();
+			sendSettingsUpdate(snapshot.settings());
+		}
+		pendingRefresh = snapshot.version() == refreshedVersion ? null : snapshot;
 	}
 
-	public SseEmitter createEmitter() {
-		SseEmitter emitter = new SseEmitter(Long.MAX_VALUE);
-		emitters.add(emitter);
-
-		emitter.onCompletion(() -> {
-			removeEmitter(emitter);
-		});
-
-		emitter.onTimeout(() -> {
-			removeEmitter(emitter);
-		});
+	/**
+	 * Sends the console whatever changed since the last flush, at most once per {@link #REFRESH_WINDOW_MILLIS}.
+	 * State events equal to the last sent value are skipped by the dispatcher.
+	 */
+	public void flushRefresh() {
+		var snapshot = pendingRefresh;
+		if (snapshot == null) {
+			return;
+		}
+		pendingRefresh = null;
+		refreshedVersion = snapshot.version();
+		sendGameIsPlaying(snapshot.gamePlaying());
+		sendPlayersUpdate(snapshot);
+		sendDispensersUpdate(snapshot.dispensers());
+		socketChannel.update(snapshot);
+	}
 
-		emitter.onError(e -> {
-			removeEmitter(emitter);
-		});
+	// A console reconnecting with the id of the last event it saw gets only what it missed, when still kept
+	public SseEmitter createEmitter(String remoteAddress, String lastEventId, GameSnapshot snapshot) {
+		Map<String, Object> initialState = new LinkedHashMap<>();
+		initialState.put("isPlaying", snapshot.gamePlaying());
+		initialState.put("players", new SseDispatcher.Versioned(snapshot.playersVersion(), snapshot.players()));
+		initialState.put("dispensers", snapshot.dispensers());
+		initialState.put("settings", snapshot.settings());
+		return dispatcher.connect(remoteAddress, lastEventId, initialState);
+	}
 
-		log.info("New SSE client connected. Total clients: {}", emitters.size());
-		return emitter;
+	public List<Map<String, Object>> getClientStats() {
+		return dispatcher.getClientStats();
 	}
 
-	private void removeEmitter(SseEmitter emitter) {
-		emitters.remove(emitter);
+	public void close() {
+		dispatcher.closeAll();
+		socketChannel.closeAll();
 	}
 
 	public void sendGameIsPlaying(boolean isPlaying) {
@@ -69,10 +88,12 @@ public class SseEventService {
 
 	public void sendGameTimeLeft(int timeLeft) {
 		sendEvent("timeLeft", timeLeft);
+		socketChannel.updateTime(timeLeft);
 	}
 
-	public void sendPlayersUpdate(Object players) {
-		sendEvent("players", players);
+	// Sent in full to new clients, as a merge patch to clients that have earlier players, see PlayersPatch
+	public void sendPlayersUpdate(GameSnapshot snapshot) {
+		sendEvent("players", new SseDispatcher.Versioned(snapshot.playersVersion(), snapshot.players()));
 	}
 
 	public void sendDispensersUpdate(Object dispensers) {
@@ -84,33 +105,11 @@ public class SseEventService {
 	}
 
 	public void sendLogMessage(String logMessage) {
-		sendEvent("log", logMessage);
+		dispatcher.publish("log", logMessage, false);
 	}
 
+	// State events only matter in their latest value, a client that is behind skips the ones in between
 	private void sendEvent(String eventName, Object data) {
-		if (emitters.isEmpty()) {
-			return;
-		}
-		//log.info("Sending SSE event: {} with data: {}", eventName, data.toString());
-		try {
-			String jsonData = objectMapper.writeValueAsString(data);
-			CopyOnWriteArrayList<SseEmitter> deadEmitters = new CopyOnWriteArrayList<>();
-
-			for (SseEmitter emitter : emitters) {
-				try {
-					emitter.send(SseEmitter.event()
-						.name(eventName)
-						.data(jsonData));
-				} catch (IOException e) {
-					log.debug("Failed to send SSE event to client (disconnected): {}", e.getMessage());
-					deadEmitters.add(emitter);
-				}
-			}
-
-			emitters.removeAll(deadEmitters);
-		} catch (Exception e) {
-			log.error("Failed to serialize event data", e);
-		}
+		dispatcher.publish(eventName, data, true);
 	}
 }
-
@@ -3,45 +3,59 @@ package net.lasertag.lasertagserver.web;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.AppenderBase;
 
+import net.lasertag.lasertagserver.core.Arena;
+import net.lasertag.lasertagserver.core.GameEventLog;
+
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SseLogAppender extends AppenderBase<ILoggingEvent> {
 
 	private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
-	private static SseEventService sseEventService;
+	private static final Map<String, SseEventService> sseEventServices = new ConcurrentHashMap<>();
 
-	// Static method to register the SseEventService from Spring context
-	public static void setSseEventService(SseEventService service) {
-		sseEventService = service;
+	// Each arena registers its SseEventService; log lines are routed by the arena MDC key
+	public static void registerSseEventService(String arenaId, SseEventService service) {
+		sseEventServices.put(arenaId, service);
 	}
 
 	@Override
 	protected void append(ILoggingEvent event) {
-		if (sseEventService == null) {
+		if (sseEventServices.isEmpty()) {
 			return;
 		}
 
 		// Filter to only capture logs from UdpServer, Game, and GameEvents
 		String loggerName = event.getLoggerName();
+		boolean gameEvents = loggerName.startsWith(GameEventLog.LOGGER_NAME);
 		if (
 			//!loggerName.equals("net.lasertag.lasertagserver.core.UdpServer") &&
 			!loggerName.equals("net.lasertag.lasertagserver.core.Game") &&
-			!loggerName.equals("GameEvents")) {
+			!gameEvents) {
 			return;
 		}
 
 		// Format the log message
 		String timestamp = LocalDateTime.now().format(TIME_FORMATTER);
 		String level = event.getLevel().toString();
-		String simpleLoggerName = loggerName.substring(loggerName.lastIndexOf('.') + 1);
+		String simpleLoggerName = gameEvents
+			? GameEventLog.LOGGER_NAME
+			: loggerName.substring(loggerName.lastIndexOf('.') + 1);
 		String message = event.getFormattedMessage();
 		
 		String formattedLog = String.format("[%s] %s [%s]: %s", 
 			timestamp, level, simpleLoggerName, message);
 
-		// Send to SSE clients
-		sseEventService.sendLogMessage(formattedLog);
+		// Send to SSE clients of the arena that logged it, or to all arenas if unknown
+		String arenaId = event.getMDCPropertyMap().get(Arena.MDC_KEY);
+		SseEventService service = arenaId != null ? sseEventServices.get(arenaId) : null;
+		if (service != null) {
+			service.sendLogMessage(formattedLog);
+		} else {
+			sseEventServices.values().forEach(s -> s.sendLogMessage(formattedLog));
+		}
 	}
 }
 
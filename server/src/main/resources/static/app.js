@@ -1,10 +1,16 @@
 const { createApp } = Vue;
 
+// Open the console with ?arena=<id> to manage an arena other than the default one
+const arenaId = new URLSearchParams(window.location.search).get('arena');
+const apiBase = arenaId ? `/api/arenas/${encodeURIComponent(arenaId)}` : '/api';
+
 createApp({
     data() {
         return {
             connected: false,
             eventSource: null,
+            lastEventId: null,
+            arenaId: arenaId,
 
             gameState: {
                 playing: false,
@@ -13,6 +19,9 @@ createApp({
             },
 
             players: [],
+            // Version of the players above in the server's players stream
+            playersVersion: -1,
+            resyncingPlayers: false,
 
             dispensers: {
                 health: [],
@@ -175,49 +184,43 @@ createApp({
                 this.eventSource.close();
             }
 
-            this.eventSource = new EventSource('/api/events');
+            // Resumes after the last event seen; the browser sends Last-Event-ID itself when it reconnects
+            const resume = this.lastEventId !== null ? `?lastEventId=${encodeURIComponent(this.lastEventId)}` : '';
+            this.eventSource = new EventSource(`${apiBase}/events${resume}`);
 
-            this.eventSource.addEventListener('isPlaying', (event) => {
+            this.listen('isPlaying', (event) => {
                 this.gameState.playing = JSON.parse(event.data);
                 console.log('Got gameState.playing:', this.gameState.playing);
             });
 
-            this.eventSource.addEventListener('players', (event) => {
-                const incomingPlayers = JSON.parse(event.data);
-                console.log('Got players:', incomingPlayers);
-
-                const updatedPlayers = incomingPlayers.map(incomingPlayer => {
-                    const existingPlayer = this.players.find(p => p.id === incomingPlayer.id);
-                    
-                    if (existingPlayer) {
-                        const merged = { ...incomingPlayer };
-                        if (this.editingField.playerId === incomingPlayer.id) {
-                            const editedField = this.editingField.fieldName;
-                            if (editedField && existingPlayer.hasOwnProperty(editedField)) {
-                                merged[editedField] = existingPlayer[editedField];
-                            }
-                        }
-                        return merged;
-                    } else {
-                        return incomingPlayer;
-                    }
-                });
+            this.listen('players', (event) => {
+                const data = JSON.parse(event.data);
+                console.log('Got players:', data);
+                this.replacePlayers(data.players, data.version);
+            });
 
-                this.players = updatedPlayers;
+            this.listen('playersPatch', (event) => {
+                const data = JSON.parse(event.data);
+                if (data.baseVersion === this.playersVersion) {
+                    this.applyPlayersPatch(data.patch, data.version);
+                } else if (data.version > this.playersVersion) {
+                    console.log(`Missed players ${this.playersVersion} -> ${data.baseVersion}, refetching`);
+                    this.resyncPlayers();
+                }
             });
 
-            this.eventSource.addEventListener('timeLeft', (event) => {
+            this.listen('timeLeft', (event) => {
                 this.gameState.timeLeftSeconds = Number(event.data);
                 this.gameState.playing = this.gameState.timeLeftSeconds > 0;
                 console.log('Got timeLeft:', this.gameState.timeLeftSeconds);
             });
 
-            this.eventSource.addEventListener('dispensers', (event) => {
+            this.listen('dispensers', (event) => {
                 this.dispensers = JSON.parse(event.data);
                 console.log('Got dispensers:', this.dispensers);
             });
 
-            this.eventSource.addEventListener('settings', (event) => {
+            this.listen('settings', (event) => {
                 const settings = JSON.parse(event.data);
                 if (settings.presetName) {
                     this.selectedPreset = settings.presetName;
@@ -226,7 +229,7 @@ createApp({
                 console.log('Got settings:', this.settings);
             });
 
-            this.eventSource.addEventListener('log', (event) => {
+            this.listen('log', (event) => {
                 const logMessage = JSON.parse(event.data);
                 console.log('Got log:', logMessage);
                 console.log('Total logs:', this.logs.length);
@@ -248,7 +251,10 @@ createApp({
                 console.error('SSE error:', error);
                 this.connected = false;
                 
-                // Attempt to reconnect after 3 seconds
+                // The browser retries by itself unless it gave up; if it did, reconnect after 3 seconds
+                if (this.eventSource.readyState !== EventSource.CLOSED) {
+                    return;
+                }
                 setTimeout(() => {
                     if (!this.connected) {
                         console.log('Attempting to reconnect...');
@@ -258,9 +264,85 @@ createApp({
             };
         },
 
+        listen(eventName, handler) {
+            this.eventSource.addEventListener(eventName, (event) => {
+                if (event.lastEventId) {
+                    this.lastEventId = event.lastEventId;
+                }
+                handler(event);
+            });
+        },
+
+        replacePlayers(incomingPlayers, version) {
+            const updatedPlayers = incomingPlayers.map(incomingPlayer => {
+                const existingPlayer = this.players.find(p => p.id === incomingPlayer.id);
+
+                if (existingPlayer) {
+                    const merged = { ...incomingPlayer };
+                    if (this.editingField.playerId === incomingPlayer.id) {
+                        const editedField = this.editingField.fieldName;
+                        if (editedField && existingPlayer.hasOwnProperty(editedField)) {
+                            merged[editedField] = existingPlayer[editedField];
+                        }
+                    }
+                    return merged;
+                } else {
+                    return incomingPlayer;
+                }
+            });
+
+            this.players = updatedPlayers;
+            this.playersVersion = version;
+        },
+
+        // RFC 7386 merge patch keyed by player id; the field being edited keeps its local value
+        applyPlayersPatch(patch, version) {
+            for (const [key, changes] of Object.entries(patch)) {
+                const id = Number(key);
+                const index = this.players.findIndex(p => p.id === id);
+                if (changes === null) {
+                    if (index >= 0) {
+                        this.players.splice(index, 1);
+                    }
+                } else if (index < 0) {
+                    const insertAt = this.players.findIndex(p => p.id > id);
+                    this.players.splice(insertAt < 0 ? this.players.length : insertAt, 0, changes);
+                } else {
+                    const player = this.players[index];
+                    for (const [field, value] of Object.entries(changes)) {
+                        if (this.editingField.playerId === id && this.editingField.fieldName === field) {
+                            continue;
+                        }
+                        if (value === null) {
+                            delete player[field];
+                        } else {
+                            player[field] = value;
+                        }
+                    }
+                }
+            }
+            this.playersVersion = version;
+        },
+
+        async resyncPlayers() {
+            if (this.resyncingPlayers) {
+                return;
+            }
+            this.resyncingPlayers = true;
+            try {
+                const response = await fetch(`${apiBase}/game/snapshot`);
+                const snapshot = await response.json();
+                this.replacePlayers(snapshot.players, snapshot.playersVersion);
+            } catch (error) {
+                console.error('Error refetching players:', error);
+            } finally {
+                this.resyncingPlayers = false;
+            }
+        },
+
         async startGame() {
             try {
-                const response = await fetch('/api/game/start', {
+                const response = await fetch(`${apiBase}/game/start`, {
                     method: 'POST',
                     headers: {
                         'Content-Type': 'application/json'
@@ -285,7 +367,7 @@ createApp({
 
         async endGame() {
             try {
-                const response = await fetch('/api/game/end', {
+                const response = await fetch(`${apiBase}/game/end`, {
                     method: 'POST'
                 });
                 
@@ -302,7 +384,7 @@ createApp({
 
         async updateGeneralSettings() {
             try {
-                const response = await fetch('/api/settings/general', {
+                const response = await fetch(`${apiBase}/settings/general`, {
                     method: 'PUT',
                     headers: {
                         'Content-Type': 'application/json'
@@ -325,7 +407,7 @@ createApp({
 
         async updatePlayer(player) {
             try {
-                const response = await fetch(`/api/players/${player.id}`, {
+                const response = await fetch(`${apiBase}/players/${player.id}`, {
                     method: 'PUT',
                     headers: {
                         'Content-Type': 'application/json'
@@ -377,7 +459,7 @@ createApp({
 
         async updateRespawnPoints() {
             try {
-                const response = await fetch('/api/settings/respawn-points', {
+                const response = await fetch(`${apiBase}/settings/respawn-points`, {
                     method: 'PUT',
                     headers: { 'Content-Type': 'application/json' },
                     body: JSON.stringify({ colors: this.settings.respawnPoints })
@@ -396,7 +478,7 @@ createApp({
             const settings = this.settings.dispensers[typeKey];
 
             try {
-                const response = await fetch(`/api/dispensers/${type}`, {
+                const response = await fetch(`${apiBase}/dispensers/${type}`, {
                     method: 'PUT',
                     headers: {
                         'Content-Type': 'application/json'
@@ -444,7 +526,7 @@ createApp({
         async triggerRespawnPoint(player) {
             try {
                 const response = await fetch(
-                    `/api/players/${player.id}/devevent?type=6&payload=${player.assignedRespawnPoint}`,
+                    `${apiBase}/players/${player.id}/devevent?type=6&payload=${player.assignedRespawnPoint}`,
                     { method: 'POST' }
                 );
             } catch (error) {
@@ -483,7 +565,7 @@ createApp({
 
         async fetchPresets() {
             try {
-                const response = await fetch('/api/presets');
+                const response = await fetch(`${apiBase}/presets`);
                 if (response.ok) {
                     this.presets = await response.json();
                     console.log('Loaded presets:', this.presets);
@@ -499,7 +581,7 @@ createApp({
             }
 
             try {
-                const response = await fetch(`/api/presets/${encodeURIComponent(this.selectedPreset)}/load`, {
+                const response = await fetch(`${apiBase}/presets/${encodeURIComponent(this.selectedPreset)}/load`, {
                     method: 'POST'
                 });
                 
@@ -526,7 +608,7 @@ createApp({
             }
 
             try {
-                const response = await fetch(`/api/presets/${encodeURIComponent(presetName)}`, {
+                const response = await fetch(`${apiBase}/presets/${encodeURIComponent(presetName)}`, {
                     method: 'POST'
                 });
                 
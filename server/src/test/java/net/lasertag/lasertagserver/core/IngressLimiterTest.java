@@ -0,0 +1,104 @@
+package net.lasertag.lasertagserver.core;
+
+import net.lasertag.lasertagserver.model.Player;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IngressLimiterTest {
+
+	private static final long SECOND = 1_000_000_000L;
+	// Far from zero, like System.nanoTime
+	private static final long START = 123 * SECOND;
+
+	private final IngressLimiter limiter = new IngressLimiter(4);
+	private final InetSocketAddress source = new InetSocketAddress("10.0.0.2", 1234);
+
+	@Test
+	void admitsASourceBurstThenItsRate() {
+		assertEquals(80, admittedFromSource(false, START));
+		assertFalse(limiter.admitFromSource(source, false, START));
+
+		// 40 per second: one token back every 25 ms
+		assertFalse(limiter.admitFromSource(source, false, START + 24_000_000));
+		assertTrue(limiter.admitFromSource(source, false, START + 25_000_000));
+		assertFalse(limiter.admitFromSource(source, false, START + 25_000_000));
+		assertEquals(1000 - 80 + 3, limiter.getShedSourceEvents().get());
+	}
+
+	@Test
+	void keepsTheLowerHalfOfASourceBucketForEvents() {
+		assertEquals(40, admittedFromSource(true, START));
+		assertEquals(1000 - 40, limiter.getShedSourcePings().get());
+
+		assertEquals(40, admittedFromSource(false, START));
+	}
+
+	@Test
+	void refillsCompletelyAfterIdling() {
+		admittedFromSource(false, START);
+
+		assertEquals(80, admittedFromSource(false, START + 10 * SECOND));
+	}
+
+	@Test
+	void limitsPingsAndEventsOfAnActorSeparately() {
+		var player = player(1);
+
+		assertEquals(20, admittedFromActor(player, true, START));
+		assertEquals(40, admittedFromActor(player, false, START));
+		// 10 pings per second
+		assertTrue(limiter.admitFromActor(player, true, START + SECOND / 10));
+		assertFalse(limiter.admitFromActor(player, true, START + SECOND / 10));
+	}
+
+	@Test
+	void givesANewActorInTheSlotAFullBucket() {
+		admittedFromActor(player(2), true, START);
+
+		limiter.resetSlot(2);
+		assertEquals(20, admittedFromActor(player(2), true, START));
+	}
+
+	@Test
+	void suppressesReconnectsWithinTheCooldown() {
+		var player = player(3);
+		limiter.onConnected(player, 10_000);
+
+		assertFalse(limiter.admitReconnect(player, 10_000 + IngressLimiter.RECONNECT_COOLDOWN_MILLIS - 1));
+		assertTrue(limiter.admitReconnect(player, 10_000 + IngressLimiter.RECONNECT_COOLDOWN_MILLIS));
+		assertEquals(1, limiter.getSuppressedReconnects().get());
+	}
+
+	// Datagrams admitted out of a flood of 1000 at the same instant
+	private int admittedFromSource(boolean ping, long nanos) {
+		int admitted = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (limiter.admitFromSource(source, ping, nanos)) {
+				admitted++;
+			}
+		}
+		return admitted;
+	}
+
+	private int admittedFromActor(Player player, boolean ping, long nanos) {
+		int admitted = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (limiter.admitFromActor(player, ping, nanos)) {
+				admitted++;
+			}
+		}
+		return admitted;
+	}
+
+	private static Player player(int slot) {
+		var player = new Player(slot, "Player-" + slot);
+		player.setSlot(slot);
+		return player;
+	}
+}
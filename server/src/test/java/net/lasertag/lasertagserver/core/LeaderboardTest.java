@@ -0,0 +1,82 @@
+package net.lasertag.lasertagserver.core;
+
+import net.lasertag.lasertagserver.model.Messaging;
+import net.lasertag.lasertagserver.model.Player;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LeaderboardTest {
+
+	private final Leaderboard leaderboard = new Leaderboard();
+	private final Player first = player(1);
+	private final Player second = player(2);
+	private final Player third = player(3);
+
+	@Test
+	void ordersByScoreThenById() {
+		assertEquals(List.of(first, second, third), leaderboard.getSorted());
+		assertTrue(leaderboard.isLeaderTied());
+		assertNull(leaderboard.getLeader());
+
+		third.setScore(2);
+		second.setScore(1);
+
+		assertEquals(List.of(third, second, first), leaderboard.getSorted());
+		assertEquals(third, leaderboard.getLeader());
+	}
+
+	@Test
+	void reordersAsScoresChange() {
+		first.setScore(5);
+		second.setScore(3);
+		assertEquals(first, leaderboard.getLeader());
+
+		second.setScore(5);
+		assertNull(leaderboard.getLeader());
+		assertEquals(List.of(first, second, third), leaderboard.getSorted());
+
+		second.setScore(6);
+		first.setScore(0);
+		assertEquals(List.of(second, first, third), leaderboard.getSorted());
+		assertEquals(List.of(second), leaderboard.getTop(1));
+	}
+
+	@Test
+	void forgetsRemovedPlayers() {
+		second.setScore(4);
+		leaderboard.remove(second);
+		second.setScore(9);
+
+		assertEquals(List.of(first, third), leaderboard.getSorted());
+		assertTrue(leaderboard.isLeaderTied());
+	}
+
+	@Test
+	void ranksTeamsInPlay() {
+		first.setTeamId(Messaging.TEAM_RED);
+		second.setTeamId(Messaging.TEAM_BLUE);
+		third.setTeamId(Messaging.TEAM_BLUE);
+		leaderboard.resetTeams(List.of(first, second, third));
+		assertEquals(-1, leaderboard.getLeadTeam());
+
+		leaderboard.incrementTeamScore(Messaging.TEAM_BLUE);
+
+		assertEquals(Messaging.TEAM_BLUE, leaderboard.getLeadTeam());
+		assertEquals(Map.of(Messaging.TEAM_BLUE, 1, Messaging.TEAM_RED, 0), leaderboard.getTeamScores());
+		assertEquals(List.of(Messaging.TEAM_BLUE, Messaging.TEAM_RED), List.copyOf(leaderboard.getTeamScores().keySet()));
+	}
+
+	private Player player(int id) {
+		var player = new Player(id, "Player-" + id);
+		player.setScoreListener(leaderboard);
+		leaderboard.add(player);
+		return player;
+	}
+}
@@ -0,0 +1,62 @@
+package net.lasertag.lasertagserver.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LivenessWheelTest {
+
+	private final List<Integer> expired = new ArrayList<>();
+	private final LivenessWheel wheel = new LivenessWheel(8, expired::add);
+
+	@Test
+	void expiresASlotOnceItsDeadlinePassed() {
+		wheel.advance(0);
+		wheel.touch(1, 1000);
+
+		wheel.advance(999);
+		assertEquals(List.of(), expired);
+		wheel.advance(1000);
+		assertEquals(List.of(1), expired);
+		wheel.advance(60_000);
+		assertEquals(List.of(1), expired);
+	}
+
+	@Test
+	void keepsASlotWhoseDeadlineWasPushedBack() {
+		wheel.advance(0);
+		wheel.touch(2, 1000);
+		wheel.advance(500);
+		wheel.touch(2, 3000);
+
+		wheel.advance(2900);
+		assertEquals(List.of(), expired);
+		wheel.advance(3000);
+		assertEquals(List.of(2), expired);
+	}
+
+	@Test
+	void waitsOutDeadlinesBeyondOneTurnOfTheWheel() {
+		wheel.advance(0);
+		wheel.touch(3, 40_000);
+
+		wheel.advance(39_900);
+		assertEquals(List.of(), expired);
+		wheel.advance(40_000);
+		assertEquals(List.of(3), expired);
+	}
+
+	@Test
+	void tracksASlotAgainAfterItExpired() {
+		wheel.advance(0);
+		wheel.touch(4, 100);
+		wheel.advance(100);
+		wheel.touch(4, 500);
+
+		wheel.advance(500);
+		assertEquals(List.of(4, 4), expired);
+	}
+}
@@ -0,0 +1,113 @@
+package net.lasertag.lasertagserver.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.lasertag.lasertagserver.model.Messaging.PING_FLAG_ACK;
+import static net.lasertag.lasertagserver.model.Messaging.PING_FLAG_RELIABLE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReliableDeliveryTest {
+
+	private static final int PLAYER = 3;
+	private static final byte[] EVENT = {42, 7};
+
+	private final ReliableDelivery reliable = new ReliableDelivery(2);
+	private final List<byte[]> resent = new ArrayList<>();
+
+	@Test
+	void retransmitsAfterTheInitialTimeout() {
+		reliable.wrap(PLAYER, EVENT, 0);
+
+		retransmitDue(ReliableDelivery.INITIAL_RTO_MILLIS - 1);
+		assertEquals(0, resent.size());
+		retransmitDue(ReliableDelivery.INITIAL_RTO_MILLIS);
+		assertEquals(1, resent.size());
+	}
+
+	@Test
+	void derivesTheTimeoutFromMeasuredRoundTrips() {
+		reliable.wrap(PLAYER, EVENT, 0);
+		ack(0, 100);
+
+		// srtt 100, rttvar 50: 100 + 4 * 50
+		reliable.wrap(PLAYER, EVENT, 1000);
+		retransmitDue(1299);
+		assertEquals(0, resent.size());
+		retransmitDue(1300);
+		assertEquals(1, resent.size());
+	}
+
+	@Test
+	void ignoresRoundTripsOfRetransmittedEvents() {
+		reliable.wrap(PLAYER, EVENT, 0);
+		retransmitDue(500);
+		// Acked just before the second retransmission; sampling it would push the timeout to the maximum
+		ack(0, 1490);
+
+		reliable.wrap(PLAYER, EVENT, 2000);
+		retransmitDue(2000 + ReliableDelivery.INITIAL_RTO_MILLIS);
+		assertEquals(2, resent.size());
+	}
+
+	@Test
+	void expiresAfterMaxRetries() {
+		reliable.wrap(PLAYER, EVENT, 0);
+
+		// Backing off from 500: due at 500, then 500 + 1000
+		retransmitDue(500);
+		retransmitDue(1500);
+		retransmitDue(100_000);
+
+		assertEquals(2, resent.size());
+		assertEquals(1, reliable.getExpired().get());
+		retransmitDue(200_000);
+		assertEquals(2, resent.size());
+	}
+
+	@Test
+	void stopsRetransmittingWhatTheAckBitsCover() {
+		reliable.wrap(PLAYER, EVENT, 0);
+		reliable.wrap(PLAYER, EVENT, 0);
+		reliable.wrap(PLAYER, EVENT, 0);
+
+		// Ack of 2 with bit 1 set: 0 received, 1 still missing
+		reliable.onPing(PLAYER, false, (byte) (PING_FLAG_RELIABLE | PING_FLAG_ACK), 2, 0b10, 50);
+		retransmitDue(1000);
+
+		assertEquals(1, resent.size());
+		assertEquals(1, resent.get(0)[1]);
+	}
+
+	@Test
+	void forgetsPendingEventsOfAnAppRestart() {
+		reliable.wrap(PLAYER, EVENT, 0);
+		reliable.onPing(PLAYER, true, PING_FLAG_RELIABLE, 0, 0, 10);
+
+		retransmitDue(10_000);
+		assertEquals(0, resent.size());
+		assertTrue(reliable.isCapable(PLAYER));
+	}
+
+	@Test
+	void dropsDuplicateDeviceEvents() {
+		assertTrue(reliable.acceptEvent(PLAYER, 1));
+		assertFalse(reliable.acceptEvent(PLAYER, 1));
+		assertEquals(1, reliable.getDuplicates().get());
+
+		reliable.forget(PLAYER);
+		assertTrue(reliable.acceptEvent(PLAYER, 1));
+	}
+
+	private void ack(int seq, long now) {
+		reliable.onPing(PLAYER, false, (byte) (PING_FLAG_RELIABLE | PING_FLAG_ACK), seq, 0, now);
+	}
+
+	private void retransmitDue(long now) {
+		reliable.retransmitDue(now, (playerId, bytes) -> resent.add(bytes));
+	}
+}
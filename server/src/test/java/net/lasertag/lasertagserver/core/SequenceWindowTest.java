@@ -0,0 +1,69 @@
+package net.lasertag.lasertagserver.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SequenceWindowTest {
+
+	private final SequenceWindow window = new SequenceWindow();
+
+	@Test
+	void dropsDuplicatesAndAcksWhatWasSeen() {
+		assertTrue(window.isEmpty());
+		assertTrue(window.accept(10));
+		assertTrue(window.accept(12));
+		assertTrue(window.accept(9));
+		assertFalse(window.accept(10));
+		assertFalse(window.accept(12));
+
+		assertEquals(12, window.highest());
+		// 11 missing, 10 and 9 received
+		assertEquals(0b110, window.ackBits());
+	}
+
+	@Test
+	void followsTheSequenceAcrossTheWrap() {
+		assertTrue(window.accept(0xFFFE));
+		assertTrue(window.accept(0xFFFF));
+		assertTrue(window.accept(0));
+		assertTrue(window.accept(1));
+
+		assertEquals(1, window.highest());
+		assertEquals(0b111, window.ackBits());
+		assertFalse(window.accept(0xFFFF));
+		assertFalse(window.accept(0));
+	}
+
+	@Test
+	void startsOverFromASequenceFarBehind() {
+		window.accept(1000);
+		window.accept(999);
+
+		// The sender restarted its numbering
+		assertTrue(window.accept(1000 - 64));
+		assertEquals(1000 - 64, window.highest());
+		assertEquals(0, window.ackBits());
+		assertTrue(window.accept(999));
+		assertTrue(window.accept(1000));
+	}
+
+	@Test
+	void keepsSequencesJustInsideTheWindow() {
+		window.accept(1000);
+		assertTrue(window.accept(1000 - 63));
+		assertFalse(window.accept(1000 - 63));
+		assertEquals(1000, window.highest());
+	}
+
+	@Test
+	void forgetsEverythingOnReset() {
+		window.accept(5);
+		window.reset();
+
+		assertTrue(window.isEmpty());
+		assertTrue(window.accept(5));
+	}
+}
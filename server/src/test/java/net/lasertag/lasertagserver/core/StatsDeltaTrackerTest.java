@@ -0,0 +1,264 @@
+package net.lasertag.lasertagserver.core;
+
+import net.lasertag.lasertagserver.model.Actor;
+import net.lasertag.lasertagserver.model.MessageType;
+import net.lasertag.lasertagserver.model.Messaging;
+import net.lasertag.lasertagserver.model.PlayerState;
+import net.lasertag.lasertagserver.model.StatsFrame;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.lasertag.lasertagserver.model.Messaging.NO_STATS_SEQ;
+import static net.lasertag.lasertagserver.model.Messaging.STATS_ACK_UNSUPPORTED;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stats frames tracked per player and their encoding, decoded by {@link Client}, which follows the
+ * Android app's parser (net.lasertag.model.Messaging) field by field.
+ */
+class StatsDeltaTrackerTest {
+
+	private static final int PLAYER = 1;
+	private static final long NOW = 100_000;
+
+	private final StatsDeltaTracker tracker = new StatsDeltaTracker();
+	private final Client client = new Client();
+
+	@Test
+	void sendsKeyframesUntilAFrameIsAcked() {
+		var frame = tracker.record(List.of(state(1, 100, 0), state(2, 100, 0)));
+
+		assertFalse(tracker.isDeltaCapable(PLAYER));
+		tracker.onPing(PLAYER, NO_STATS_SEQ);
+		assertTrue(tracker.isDeltaCapable(PLAYER));
+		assertNull(tracker.baseFor(PLAYER, frame, NOW));
+		tracker.onPing(PLAYER, STATS_ACK_UNSUPPORTED);
+		assertFalse(tracker.isDeltaCapable(PLAYER));
+	}
+
+	@Test
+	void deltaAgainstTheAckedFrameRebuildsTheNewFrame() {
+		var keyframe = tracker.record(List.of(state(1, 100, 0), state(2, 100, 0)));
+		client.apply(full(keyframe, true));
+		tracker.keyframeSent(PLAYER, NOW);
+		tracker.onPing(PLAYER, client.lastSeq);
+
+		var frame = tracker.record(List.of(state(1, 80, 0), state(2, 100, 1)));
+		var base = tracker.baseFor(PLAYER, frame, NOW + 100);
+		assertSame(keyframe, base);
+		var delta = delta(base, frame);
+
+		assertEquals(valuesOf(frame), client.apply(delta));
+		assertEquals(frame.seq(), client.lastSeq);
+		assertEquals(Map.of(1, "Player-1", 2, "Player-2"), client.names);
+	}
+
+	@Test
+	void deltasFollowTheSequenceAcrossTheWrap() {
+		var players = List.of(state(1, 100, 0), state(2, 100, 0));
+		var frame = tracker.record(players);
+		while (frame.seq() != NO_STATS_SEQ - 1) {
+			frame = tracker.record(players);
+		}
+		client.apply(full(frame, true));
+		tracker.keyframeSent(PLAYER, NOW);
+		tracker.onPing(PLAYER, client.lastSeq);
+
+		var wrapped = tracker.record(List.of(state(1, 90, 0), state(2, 100, 0)));
+		assertEquals(0, wrapped.seq());
+		var base = tracker.baseFor(PLAYER, wrapped, NOW);
+		assertSame(frame, base);
+		assertEquals(valuesOf(wrapped), client.apply(delta(base, wrapped)));
+		assertEquals(0, client.lastSeq);
+	}
+
+	@Test
+	void fallsBackToAKeyframeWhenTheAckedFrameLeftHistory() {
+		var players = List.of(state(1, 100, 0));
+		var acked = tracker.record(players);
+		tracker.keyframeSent(PLAYER, NOW);
+		tracker.onPing(PLAYER, acked.seq());
+
+		// Twice round, as sequences wrapping past NO_STATS_SEQ skip a history slot
+		StatsFrame frame = null;
+		for (int i = 0; i < 2 * StatsDeltaTracker.HISTORY_SIZE; i++) {
+			frame = tracker.record(players);
+		}
+
+		assertNull(tracker.baseFor(PLAYER, frame, NOW));
+	}
+
+	@Test
+	void fallsBackToAKeyframeWhenTheRosterChanged() {
+		var acked = tracker.record(List.of(state(1, 100, 0)));
+		tracker.keyframeSent(PLAYER, NOW);
+		tracker.onPing(PLAYER, acked.seq());
+
+		var frame = tracker.record(List.of(state(1, 100, 0), state(2, 100, 0)));
+
+		assertEquals((acked.rosterVersion() + 1) & 0xFF, frame.rosterVersion());
+		assertNull(tracker.baseFor(PLAYER, frame, NOW));
+		assertFalse(tracker.holdsRoster(PLAYER, frame));
+	}
+
+	@Test
+	void fallsBackToAKeyframeAtTheInterval() {
+		var players = List.of(state(1, 100, 0));
+		var acked = tracker.record(players);
+		tracker.keyframeSent(PLAYER, NOW);
+		tracker.onPing(PLAYER, acked.seq());
+		var frame = tracker.record(players);
+
+		assertNotNull(tracker.baseFor(PLAYER, frame, NOW + StatsDeltaTracker.KEYFRAME_INTERVAL_MILLIS - 1));
+		assertNull(tracker.baseFor(PLAYER, frame, NOW + StatsDeltaTracker.KEYFRAME_INTERVAL_MILLIS));
+		// A keyframe of the same roster may leave the names out
+		assertTrue(tracker.holdsRoster(PLAYER, frame));
+	}
+
+	@Test
+	void keyframeWithoutNamesKeepsTheNamesTheClientHolds() {
+		var keyframe = tracker.record(List.of(state(1, 100, 0)));
+		client.apply(full(keyframe, true));
+
+		var frame = tracker.record(List.of(state(1, 50, 2)));
+		client.apply(full(frame, false));
+
+		assertEquals(Map.of(1, "Player-1"), client.names);
+		assertEquals(valuesOf(frame), client.values);
+	}
+
+	@Test
+	void clientDropsADeltaAgainstAFrameItDoesNotHold() {
+		var missed = tracker.record(List.of(state(1, 100, 0)));
+		var frame = tracker.record(List.of(state(1, 60, 0)));
+
+		assertNull(client.apply(delta(missed, frame)));
+		assertEquals(NO_STATS_SEQ, client.lastSeq);
+	}
+
+	private static byte[] full(StatsFrame frame, boolean includeNames) {
+		var players = new ArrayList<PlayerState>();
+		for (int i = 0; i < frame.size(); i++) {
+			int offset = i * StatsFrame.FIELD_COUNT;
+			var fields = frame.fields();
+			players.add(new PlayerState(frame.ids()[i], Actor.Type.PLAYER, frame.names()[i], fields[offset], fields[offset + 1],
+				fields[offset + 2], fields[offset + 3], fields[offset + 4], fields[offset + 5], fields[offset + 6] != 0, null));
+		}
+		return Messaging.playerStatsToBytes(includeNames, players, true, 1, 300, 0, 0, frame.seq(), frame.rosterVersion());
+	}
+
+	private static byte[] delta(StatsFrame base, StatsFrame frame) {
+		return Messaging.statsDeltaToBytes(base, frame, true, 1, 300, 0, 0);
+	}
+
+	private static Map<Integer, List<Integer>> valuesOf(StatsFrame frame) {
+		var values = new LinkedHashMap<Integer, List<Integer>>();
+		for (int i = 0; i < frame.size(); i++) {
+			var fields = new ArrayList<Integer>();
+			for (int f = 0; f < StatsFrame.FIELD_COUNT; f++) {
+				fields.add((int) frame.fields()[i * StatsFrame.FIELD_COUNT + f]);
+			}
+			values.put((int) frame.ids()[i], fields);
+		}
+		return values;
+	}
+
+	private static PlayerState state(int id, int health, int score) {
+		return new PlayerState(id, Actor.Type.PLAYER, "Player-" + id, health, score, Messaging.TEAM_RED, 10, 40, -1, false, null);
+	}
+
+	/**
+	 * Client side of the stats stream as the app keeps it: frames by sequence, the last one taken as
+	 * the base of keyframes without names, deltas only applied to the frame they name.
+	 */
+	private static class Client {
+		private final Map<Integer, Held> history = new LinkedHashMap<>();
+		private int lastSeq = NO_STATS_SEQ;
+		private Map<Integer, List<Integer>> values = Map.of();
+		private Map<Integer, String> names = Map.of();
+
+		private record Held(int seq, int rosterVersion, Map<Integer, List<Integer>> values, Map<Integer, String> names) {
+		}
+
+		// The values of every player after the message, null for a delta against a frame not held
+		private Map<Integer, List<Integer>> apply(byte[] bytes) {
+			var buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+			byte type = buffer.get();
+			if (type == MessageType.FULL_STATS.id()) {
+				return applyFull(buffer);
+			}
+			return applyDelta(buffer);
+		}
+
+		private Map<Integer, List<Integer>> applyFull(ByteBuffer buffer) {
+			buffer.position(buffer.position() + 4);
+			int count = buffer.get();
+			buffer.position(buffer.position() + 2);
+			var newValues = new LinkedHashMap<Integer, List<Integer>>();
+			var newNames = new LinkedHashMap<Integer, String>();
+			for (int i = 0; i < count; i++) {
+				int id = buffer.get();
+				var fields = new ArrayList<Integer>();
+				for (int f = 0; f < StatsFrame.FIELD_COUNT; f++) {
+					fields.add((int) buffer.get());
+				}
+				var name = new byte[buffer.get()];
+				buffer.get(name);
+				newValues.put(id, fields);
+				newNames.put(id, new String(name));
+			}
+			int seq = buffer.getShort() & 0xFFFF;
+			int rosterVersion = buffer.get() & 0xFF;
+			var last = history.get(lastSeq % StatsDeltaTracker.HISTORY_SIZE);
+			if (last != null && last.seq == lastSeq && last.rosterVersion == rosterVersion) {
+				newNames.replaceAll((id, name) -> name.isEmpty() ? last.names.getOrDefault(id, name) : name);
+			}
+			return remember(seq, rosterVersion, newValues, newNames);
+		}
+
+		private Map<Integer, List<Integer>> applyDelta(ByteBuffer buffer) {
+			int seq = buffer.getShort() & 0xFFFF;
+			int baseSeq = buffer.getShort() & 0xFFFF;
+			buffer.position(buffer.position() + 6);
+			int rosterVersion = buffer.get() & 0xFF;
+			int changed = buffer.get() & 0xFF;
+			var base = history.get(baseSeq % StatsDeltaTracker.HISTORY_SIZE);
+			if (base == null || base.seq != baseSeq || base.rosterVersion != rosterVersion) {
+				return null;
+			}
+			var newValues = new LinkedHashMap<Integer, List<Integer>>();
+			base.values.forEach((id, fields) -> newValues.put(id, new ArrayList<>(fields)));
+			for (int i = 0; i < changed; i++) {
+				int id = buffer.get();
+				int mask = buffer.get();
+				for (int f = 0; f < StatsFrame.FIELD_COUNT; f++) {
+					if ((mask & 1 << f) != 0) {
+						newValues.get(id).set(f, (int) buffer.get());
+					}
+				}
+			}
+			return remember(seq, rosterVersion, newValues, base.names);
+		}
+
+		private Map<Integer, List<Integer>> remember(int seq, int rosterVersion, Map<Integer, List<Integer>> newValues,
+													 Map<Integer, String> newNames) {
+			history.put(seq % StatsDeltaTracker.HISTORY_SIZE, new Held(seq, rosterVersion, newValues, newNames));
+			lastSeq = seq;
+			values = newValues;
+			names = newNames;
+			return newValues;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package net.lasertag.lasertagserver.web;
+
+import net.lasertag.lasertagserver.model.Actor;
+import net.lasertag.lasertagserver.model.PlayerState;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PlayersPatchTest {
+
+	@Test
+	void holdsOnlyChangedFieldsOfChangedPlayers() {
+		var from = List.of(state(1, "One", 100, 0), state(2, "Two", 100, 0));
+		var to = List.of(state(1, "One", 100, 0), state(2, "Two", 70, 1));
+
+		assertEquals(Map.of("2", Map.of("health", 70, "score", 1)), PlayersPatch.diff(from, to));
+	}
+
+	@Test
+	void addsNewPlayersInFullAndRemovesLeftOnesWithNull() {
+		var from = List.of(state(1, "One", 100, 0), state(3, "Three", 100, 0));
+		var joined = state(2, "Two", 100, 0);
+		var to = List.of(state(1, "One", 100, 0), joined);
+
+		Map<String, Object> expected = new HashMap<>();
+		expected.put("2", joined);
+		expected.put("3", null);
+		assertEquals(expected, PlayersPatch.diff(from, to));
+	}
+
+	@Test
+	void isEmptyForEqualPlayers() {
+		var players = List.of(state(1, "One", 100, 0));
+
+		assertEquals(Map.of(), PlayersPatch.diff(players, List.copyOf(players)));
+		assertEquals(Map.of(), PlayersPatch.diff(List.of(), List.of()));
+	}
+
+	@Test
+	void fullAndPatchCarryTheirVersions() {
+		var from = List.of(state(1, "One", 100, 0));
+		var to = List.of(state(1, "Uno", 100, 0));
+
+		assertEquals(Map.of("version", 4L, "players", to), PlayersPatch.INSTANCE.full(4, to));
+		assertEquals(Map.of("version", 5L, "baseVersion", 4L, "patch", Map.of("1", Map.of("name", "Uno"))),
+			PlayersPatch.INSTANCE.patch(4, from, 5, to));
+	}
+
+	private static PlayerState state(int id, String name, int health, int score) {
+		return new PlayerState(id, Actor.Type.PLAYER, name, health, score, 0, 10, 40, -1, false, null);
+	}
+}
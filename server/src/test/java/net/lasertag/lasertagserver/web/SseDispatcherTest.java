@@ -0,0 +1,183 @@
+package net.lasertag.lasertagserver.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.lasertag.lasertagserver.model.Actor;
+import net.lasertag.lasertagserver.model.PlayerState;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Resuming a client from the id of the last event it saw, which names the players version it holds.
+ */
+class SseDispatcherTest {
+
+	private static final int REPLAY_EVENTS = 16;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	// Queue of the client being connected, handed to its emitter
+	private BlockingQueue<Sent> connecting;
+	private final SseDispatcher dispatcher = new SseDispatcher("test", objectMapper, REPLAY_EVENTS) {
+		@Override
+		SseEmitter newEmitter() {
+			return new RecordingEmitter(connecting);
+		}
+	};
+	private long playersVersion;
+	private List<PlayerState> players;
+
+	@BeforeEach
+	void setUp() {
+		dispatcher.registerDelta("players", PlayersPatch.INSTANCE);
+		publishPlayers(100);
+	}
+
+	@AfterEach
+	void tearDown() {
+		dispatcher.closeAll();
+	}
+
+	@Test
+	void resumesWithAPatchFromTheVersionTheClientHolds() throws Exception {
+		var client = connect(null);
+		next(client, "players");
+		publishPlayers(90);
+		var seen = next(client, "playersPatch");
+		publishPlayers(80);
+
+		var resumed = connect(seen.id);
+
+		assertPatch(next(resumed, "playersPatch"), 2, 3);
+	}
+
+	@Test
+	void patchesFromAnOlderVersionNamedInTheId() throws Exception {
+		var client = connect(null);
+		next(client, "players");
+		publishPlayers(90);
+		var seen = next(client, "playersPatch");
+
+		// The client got the event but still holds version 1, as if the patch was coalesced away
+		var resumed = connect(withVersion(seen.id, "1"));
+
+		assertPatch(next(resumed, "playersPatch"), 1, 2);
+	}
+
+	@Test
+	void sendsPlayersInFullWhenTheHeldVersionIsUnknown() throws Exception {
+		var client = connect(null);
+		next(client, "players");
+		publishPlayers(90);
+		var seen = next(client, "playersPatch");
+
+		assertFull(next(connect(withVersion(seen.id, "99")), "players"), 2);
+		assertFull(next(connect(withVersion(seen.id, "")), "players"), 2);
+	}
+
+	@Test
+	void sendsNothingTheClientAlreadyHas() throws Exception {
+		var client = connect(null);
+		next(client, "players");
+		publishPlayers(90);
+		var seen = next(client, "playersPatch");
+
+		var resumed = connect(seen.id);
+		dispatcher.publish("log", "marker", false);
+
+		assertEquals("\"marker\"", next(resumed, "log").data);
+	}
+
+	@Test
+	void sendsFullStateForAnIdItCannotResumeFrom() throws Exception {
+		var client = connect(null);
+		var seen = next(client, "players");
+		for (int i = 0; i <= REPLAY_EVENTS; i++) {
+			dispatcher.publish("log", "line " + i, false);
+		}
+
+		assertFull(next(connect(seen.id), "players"), 1);
+		assertFull(next(connect("otherepoch-1.1"), "players"), 1);
+	}
+
+	private void publishPlayers(int health) {
+		players = List.of(new PlayerState(1, Actor.Type.PLAYER, "One", health, 0, 0, 10, 40, -1, false, null));
+		playersVersion++;
+		dispatcher.publish("players", new SseDispatcher.Versioned(playersVersion, players), true);
+	}
+
+	private BlockingQueue<Sent> connect(String lastEventId) {
+		connecting = new LinkedBlockingQueue<>();
+		dispatcher.connect("test", lastEventId, Map.of("players", new SseDispatcher.Versioned(playersVersion, players)));
+		return connecting;
+	}
+
+	// The next event of that name, skipping others
+	private static Sent next(BlockingQueue<Sent> client, String name) throws InterruptedException {
+		while (true) {
+			var sent = client.poll(5, TimeUnit.SECONDS);
+			assertNotNull(sent, "No " + name + " event");
+			if (sent.name.equals(name)) {
+				return sent;
+			}
+		}
+	}
+
+	private static String withVersion(String eventId, String version) {
+		return eventId.substring(0, eventId.indexOf('.') + 1) + version;
+	}
+
+	private void assertPatch(Sent sent, long baseVersion, long version) throws IOException {
+		var patch = objectMapper.readValue(sent.data, Map.class);
+		assertEquals(baseVersion, ((Number) patch.get("baseVersion")).longValue());
+		assertEquals(version, ((Number) patch.get("version")).longValue());
+		assertEquals(version, Long.parseLong(sent.id.substring(sent.id.indexOf('.') + 1)));
+	}
+
+	private void assertFull(Sent sent, long version) throws IOException {
+		var full = objectMapper.readValue(sent.data, Map.class);
+		assertEquals(version, ((Number) full.get("version")).longValue());
+		assertEquals(1, ((List<?>) full.get("players")).size());
+	}
+
+	private record Sent(String id, String name, String data) {
+	}
+
+	private static class RecordingEmitter extends SseEmitter {
+		private final BlockingQueue<Sent> sent;
+
+		private RecordingEmitter(BlockingQueue<Sent> sent) {
+			this.sent = sent;
+		}
+
+		@Override
+		public void send(SseEventBuilder builder) {
+			var text = new StringBuilder();
+			builder.build().forEach(part -> text.append(part.getData()));
+			String id = null;
+			String name = null;
+			String data = null;
+			for (String line : text.toString().split("\n")) {
+				if (line.startsWith("id:")) {
+					id = line.substring(3);
+				} else if (line.startsWith("event:")) {
+					name = line.substring(6);
+				} else if (line.startsWith("data:")) {
+					data = line.substring(5);
+				}
+			}
+			sent.add(new Sent(id, name, data));
+		}
+	}
+}